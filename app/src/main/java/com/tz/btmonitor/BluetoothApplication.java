@@ -1,11 +1,43 @@
 package com.tz.btmonitor;
 
 import android.app.Application;
+import android.net.Uri;
+import android.util.Log;
+
+import com.tz.btmonitor.file_writer.FileWriter;
+import com.tz.btmonitor.file_writer.RecordingRecovery;
+
+import java.io.IOException;
 
 public class BluetoothApplication extends Application {
+    private static final String TAG = "BluetoothApplication";
+
     @Override
     public void onCreate() {
         super.onCreate();
         SharedPref.init(this);
+        recoverInterruptedRecording();
+    }
+
+    // a recording still marked active means the app died while writing it
+    private void recoverInterruptedRecording() {
+        String activeRecording = SharedPref.getInstance().getActiveRecording();
+        if (activeRecording == null) return;
+
+        new Thread(() -> {
+            try {
+                RecordingRecovery.Result result = FileWriter.recover(this, Uri.parse(activeRecording));
+                if (result.wasTruncated()) {
+                    Log.w(TAG, "Recovered " + activeRecording + ": kept " + result.validSamples
+                            + " samples, lost " + result.lostSamples + " (" + result.truncatedBytes + " bytes)");
+                } else {
+                    Log.i(TAG, "Recording " + activeRecording + " is intact: " + result);
+                }
+            } catch (IOException | SecurityException e) {
+                Log.e(TAG, "Error recovering recording: " + e.getMessage());
+            }
+            // a recording started while this ran has marked itself active by now
+            SharedPref.getInstance().clearActiveRecording(activeRecording);
+        }, "recording-recovery").start();
     }
 }
@@ -9,6 +9,7 @@ import android.net.Uri
 import android.os.Build
 import android.os.Bundle
 import android.os.Looper
+import android.os.SystemClock
 import android.util.Log
 import android.widget.Toast
 import androidx.activity.ComponentActivity
@@ -29,12 +30,17 @@ import com.google.android.gms.tasks.OnSuccessListener
 import com.google.android.gms.tasks.Task
 import com.tz.btmonitor.bluetooth.BluetoothClientManager
 import com.tz.btmonitor.file_writer.FileWriter
-import com.tz.btmonitor.model.LatLng
+import com.tz.btmonitor.model.LocationTrack
 import com.tz.btmonitor.ui.navigation.BluetoothApp
 import com.tz.btmonitor.viewmodel.BluetoothViewModel
 
 
 class MainActivity : ComponentActivity(), ActivityBridge {
+    companion object {
+        // older fixes are stamped as if this old, the samples extrapolate from them only as far
+        private const val MAX_FIX_AGE_NANOS = LocationTrack.DEFAULT_MAX_EXTRAPOLATION_NANOS
+    }
+
     private var viewModel: BluetoothViewModel? = null
     private var btClientManager: BluetoothClientManager? = null
     private var permissionsGranted: Runnable? = null
@@ -67,12 +73,16 @@ class MainActivity : ComponentActivity(), ActivityBridge {
     var locationCallback: LocationCallback = object : LocationCallback() {
         override fun onLocationResult(locationResult: LocationResult) {
             super.onLocationResult(locationResult)
+            // the fix is older than its delivery, moved to the clock the samples are stamped with
+            // through one reading of both clocks. Its age counts deep sleep, System.nanoTime()
+            // doesn't, so an age that spans a sleep is capped rather than pushed before samples
+            // taken since waking up.
+            val nowElapsedNanos = SystemClock.elapsedRealtimeNanos()
+            val nowNanos = System.nanoTime()
             for (location in locationResult.locations) {
-                val userLocation = LatLng();
-                userLocation.lat = location.latitude
-                userLocation.lng = location.longitude
-                viewModel?.setLastUserLocation(userLocation)
-                Log.d("location", userLocation.toString())
+                val ageNanos = (nowElapsedNanos - location.elapsedRealtimeNanos).coerceIn(0L, MAX_FIX_AGE_NANOS)
+                viewModel?.addLocationFix(nowNanos - ageNanos, location.latitude, location.longitude)
+                Log.d("location", "${location.latitude},${location.longitude}")
             }
         }
     }
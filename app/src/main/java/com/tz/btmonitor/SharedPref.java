@@ -5,21 +5,28 @@ import android.content.SharedPreferences;
 import android.util.ArrayMap;
 
 import com.tz.btmonitor.model.Channel;
+import com.tz.btmonitor.model.ChannelConfigRepository;
 
 import java.util.Map;
 
-public class SharedPref {
+public class SharedPref implements ChannelConfigRepository.Storage {
 
     private static final String PREF_NAME = "channel_prefs";
 
-    // Keys for storing channel information
     // Keys for storing channel information
     private static final String KEY_PREFIX = "channel_";
+    private static final String KEY_CHANNELS = "channels_";
+    // set once the per field channel keys of older versions were moved into blobs
+    private static final String KEY_CHANNELS_MIGRATED = "channels_migrated";
+    // uri of the recording currently being written, cleared when it's closed
+    private static final String KEY_ACTIVE_RECORDING = "active_recording";
 
     private static SharedPref instance;
     private SharedPreferences preferences;
+    private volatile boolean channelsMigrated;
     private SharedPref(Context context) {
         preferences = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        channelsMigrated = preferences.getBoolean(KEY_CHANNELS_MIGRATED, false);
     }
 
     public static void init(Context context){
@@ -30,54 +37,85 @@ public class SharedPref {
         return instance;
     }
 
-    // Save channel configuration for a specific device
-    public SharedPref saveChannelConfig(String deviceAddress, Channel channel) {
-        SharedPreferences.Editor editor = preferences.edit();
-        editor.putInt(KEY_PREFIX + deviceAddress + "_" + channel.getId() + "_min", channel.getMin());
-        editor.putInt(KEY_PREFIX + deviceAddress + "_" + channel.getId() + "_max", channel.getMax());
-        editor.putInt(KEY_PREFIX + deviceAddress + "_" + channel.getId() + "_d", channel.getD());
-        editor.apply();
+    public synchronized void setActiveRecording(String uri) {
+        // commit, this has to survive the process being killed right after
+        preferences.edit().putString(KEY_ACTIVE_RECORDING, uri).commit();
+    }
 
-        return this;
+    public String getActiveRecording() {
+        return preferences.getString(KEY_ACTIVE_RECORDING, null);
     }
 
-    // Save multiple channel configurations for a specific device
-    public SharedPref saveChannels(String deviceAddress, Map<Integer, Channel> channels) {
-        SharedPreferences.Editor editor = preferences.edit();
-        for (Map.Entry<Integer, Channel> entry : channels.entrySet()) {
-            Channel channel = entry.getValue();
-            editor.putInt(KEY_PREFIX + deviceAddress + "_" + channel.getId() + "_min", channel.getMin());
-            editor.putInt(KEY_PREFIX + deviceAddress + "_" + channel.getId() + "_max", channel.getMax());
-            editor.putInt(KEY_PREFIX + deviceAddress + "_" + channel.getId() + "_d", channel.getD());
-        }
-        editor.apply();
+    public synchronized void clearActiveRecording() {
+        preferences.edit().remove(KEY_ACTIVE_RECORDING).apply();
+    }
 
-        return this;
+    // clears the marker only if it still names that recording, not one started meanwhile
+    public synchronized boolean clearActiveRecording(String uri) {
+        if (!uri.equals(getActiveRecording())) return false;
+        preferences.edit().remove(KEY_ACTIVE_RECORDING).commit();
+        return true;
     }
 
-    // Retrieve channel configuration for a specific device and channel
-    public Channel getChannelConfig(String deviceAddress, int channelId) {
-        Channel channel = new Channel();
-        channel.setId(channelId);
-        channel.setMin(preferences.getInt(KEY_PREFIX + deviceAddress + "_" + channelId + "_min", 0));
-        channel.setMax(preferences.getInt(KEY_PREFIX + deviceAddress + "_" + channelId + "_max", 0));
-        channel.setD(preferences.getInt(KEY_PREFIX + deviceAddress + "_" + channelId + "_d", 0));
-        return channel;
+    // channels of a device as one ChannelConfigRepository blob
+    @Override
+    public String load(String deviceAddress) {
+        if (!channelsMigrated) migrateLegacyChannels();
+        return preferences.getString(KEY_CHANNELS + deviceAddress, null);
     }
 
-    // Get all channels for a specific device
-    public Map<Integer, Channel> getAllChannels(String deviceAddress) {
-        Map<Integer, Channel> channels = new ArrayMap<>();
-        Map<String, ?> allPrefs = preferences.getAll();
-        for (Map.Entry<String, ?> entry : allPrefs.entrySet()) {
-            String key = entry.getKey();
-            if (key.startsWith(KEY_PREFIX + deviceAddress)) {
-                String[] parts = key.split("_");
-                int channelId = Integer.parseInt(parts[2]);
-                Channel channel = getChannelConfig(deviceAddress, channelId);
+    @Override
+    public void save(Map<String, String> blobs) {
+        SharedPreferences.Editor editor = preferences.edit();
+        for (Map.Entry<String, String> entry : blobs.entrySet()) {
+            editor.putString(KEY_CHANNELS + entry.getKey(), entry.getValue());
+        }
+        editor.apply();
+    }
+
+    /**
+     * Moves the channels older versions saved, one key per channel and field
+     * ("channel_<address>_<id>_min|max|d"), into the blobs of their devices. Runs once, a device
+     * saved as a blob already keeps it.
+     */
+    private synchronized void migrateLegacyChannels() {
+        if (channelsMigrated) return;
+        Map<String, ?> all = preferences.getAll();
+        Map<String, Map<Integer, Channel>> devices = new ArrayMap<>();
+        SharedPreferences.Editor editor = preferences.edit();
+        for (String key : all.keySet()) {
+            if (!key.startsWith(KEY_PREFIX)) continue;
+            editor.remove(key);
+            if (!key.endsWith("_d")) continue;
+            String device = key.substring(KEY_PREFIX.length(), key.length() - 2);
+            int separator = device.lastIndexOf('_');
+            if (separator < 0) continue;
+            try {
+                int channelId = Integer.parseInt(device.substring(separator + 1));
+                String deviceAddress = device.substring(0, separator);
+                String prefix = KEY_PREFIX + deviceAddress + "_" + channelId;
+                Channel channel = new Channel();
+                channel.setId(channelId);
+                channel.setMin(preferences.getInt(prefix + "_min", 0));
+                channel.setMax(preferences.getInt(prefix + "_max", 0));
+                channel.setD(preferences.getInt(prefix + "_d", 0));
+                Map<Integer, Channel> channels = devices.get(deviceAddress);
+                if (channels == null) {
+                    channels = new ArrayMap<>();
+                    devices.put(deviceAddress, channels);
+                }
                 channels.put(channelId, channel);
+            } catch (NumberFormatException e) {
+                // not a channel key
             }
         }
-        return channels;
+        for (Map.Entry<String, Map<Integer, Channel>> entry : devices.entrySet()) {
+            if (all.containsKey(KEY_CHANNELS + entry.getKey())) continue;
+            editor.putString(KEY_CHANNELS + entry.getKey(), ChannelConfigRepository.encode(entry.getValue()));
+        }
+        editor.putBoolean(KEY_CHANNELS_MIGRATED, true);
+        // commit, the legacy keys are gone once this is done
+        editor.commit();
+        channelsMigrated = true;
     }
 }
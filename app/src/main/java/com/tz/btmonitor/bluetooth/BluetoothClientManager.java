@@ -3,40 +3,57 @@ package com.tz.btmonitor.bluetooth;
 import android.annotation.SuppressLint;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.tz.btmonitor.metrics.AcquisitionMetrics;
 import com.tz.btmonitor.model.Device;
+import com.tz.btmonitor.pipeline.AcquisitionPipeline;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 public class BluetoothClientManager {
     private static final String TAG = "BluetoothClientManager";
-    private static final UUID SSP_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB"); // Standard SerialPortService ID
+    // sightings within this window reach the listeners as one diff
+    private static final long DISCOVERY_DEBOUNCE_MILLIS = 250;
+    // how long a restored connection or a disconnect waits for the pipeline to hand over its last samples
+    private static final long PIPELINE_STOP_TIMEOUT_MILLIS = 2000;
+    // devices not seen for this long are dropped when a new discovery starts
+    private static final long DISCOVERY_STALE_MILLIS = 60_000;
 
     private final BluetoothAdapter bluetoothAdapter;
-    private final List<Device> discoveredDevices = new ArrayList<>();
+    private final DiscoveryIndex discoveryIndex = new DiscoveryIndex();
+    private boolean discoveryPublishPending = false;
+    private final Runnable discoveryPublisher = this::publishDiscoveryChanges;
     private final List<Callback> listeners = new ArrayList<>();
+    private final List<AcquisitionPipeline.SampleSink> sampleSinks = new CopyOnWriteArrayList<>();
 
-    private BluetoothDevice connectedDevice;
-    private BluetoothSocket socket;
+    private Transport transport;
     private InputStream inputStream;
-    private OutputStream outputStream;
-    private boolean connected = false;
+    private volatile CommandChannel commands;
+    private volatile boolean connected = false;
+    // replaced by the reconnect thread, read from any thread
+    private volatile AcquisitionPipeline pipeline;
+    private AcquisitionMetrics metrics;
+    private AcquisitionPipeline.IngestPolicy ingestPolicy = AcquisitionPipeline.IngestPolicy.BLOCK;
+    private volatile ReconnectPolicy reconnectPolicy = ReconnectPolicy.DEFAULT;
+    private final Random reconnectRandom = new Random();
+    // guarded by this, set while a lost connection is being restored
+    private ReconnectSupervisor reconnectSupervisor;
 
     private final Handler handler = new Handler(Looper.getMainLooper());
-    private final Handler postMessageHandler = new Handler();
 
     public BluetoothClientManager(BluetoothAdapter bluetoothAdapter) {
         this.bluetoothAdapter = bluetoothAdapter;
@@ -50,6 +67,41 @@ public class BluetoothClientManager {
         listeners.remove(listener);
     }
 
+    // sinks are called on the acquisition thread for every VALUES sample
+    public void addSampleSink(AcquisitionPipeline.SampleSink sink) {
+        sampleSinks.add(sink);
+        if (pipeline != null) pipeline.addSink(sink);
+    }
+
+    public void removeSampleSink(AcquisitionPipeline.SampleSink sink) {
+        sampleSinks.remove(sink);
+        if (pipeline != null) pipeline.removeSink(sink);
+    }
+
+    // applied to the pipeline of the next connection
+    public void setMetrics(AcquisitionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // applied to the pipeline of the next connection
+    public void setIngestPolicy(AcquisitionPipeline.IngestPolicy ingestPolicy) {
+        this.ingestPolicy = ingestPolicy;
+    }
+
+    // null reports a lost connection as disconnected right away
+    public void setReconnectPolicy(ReconnectPolicy reconnectPolicy) {
+        this.reconnectPolicy = reconnectPolicy;
+    }
+
+    public synchronized boolean isReconnecting() {
+        return reconnectSupervisor != null;
+    }
+
+    // null until the first connection
+    public AcquisitionPipeline getPipeline() {
+        return pipeline;
+    }
+
     // life cycle actions
     public void registerReceiver(Context context) {
         // register discovery receiver
@@ -66,20 +118,26 @@ public class BluetoothClientManager {
         context.unregisterReceiver(bluetoothStateReceiver);
     }
 
+    // in the order first seen, main thread only
+    public List<Device> getDiscoveredDevices() {
+        return discoveryIndex.getDevices();
+    }
+
     // actions
     @SuppressLint("MissingPermission")
     public void startDeviceDiscovery() {
         if (connected) return;
 
         Log.d(TAG, "Start discovery");
-        // clear first
-        discoveredDevices.clear();
+        // devices from earlier scans stay listed unless they're gone for a while
+        long now = SystemClock.elapsedRealtime();
+        discoveryIndex.removeNotSeenSince(now - DISCOVERY_STALE_MILLIS);
 
         // list already known devices
         for (BluetoothDevice device : bluetoothAdapter.getBondedDevices()) {
-            discoveredDevices.add(Device.create(device));
+            discoveryIndex.onBonded(Device.create(device), now);
         }
-        notifyDevicesDiscovered(discoveredDevices);
+        publishDiscoveryChanges();
 
         // discover new devices
         notifyDiscoveryStarted();
@@ -104,20 +162,24 @@ public class BluetoothClientManager {
         }
     }
 
-    @SuppressLint("MissingPermission")
     public void connect(Device device) {
-        if (connected) {
+        connect(new RfcommTransport(device.getBluetoothDevice()));
+    }
+
+    // any transport, e.g. a SimulatedDevice for testing without hardware
+    public void connect(Transport newTransport) {
+        if (connected || isReconnecting()) {
             Log.e(TAG, "Already connected to a device");
             return;
         }
 
         new Thread(() -> {
             try {
-                socket = device.getBluetoothDevice().createRfcommSocketToServiceRecord(SSP_UUID);
-                socket.connect();
-                inputStream = socket.getInputStream();
-                outputStream = socket.getOutputStream();
-                connectedDevice = device.getBluetoothDevice();
+                newTransport.connect();
+                transport = newTransport;
+                inputStream = newTransport.getInputStream();
+                commands = new CommandChannel(newTransport.getOutputStream(), "command-writer");
+                commands.start();
                 connected = true;
                 handler.post(this::notifyDeviceConnected);
                 startReceivingMessages();
@@ -130,61 +192,220 @@ public class BluetoothClientManager {
     }
 
     public void disconnect() {
-        if (!connected) {
-            Log.e(TAG, "Not connected to any device");
-            return;
+        ReconnectSupervisor reconnecting;
+        synchronized (this) {
+            reconnecting = reconnectSupervisor;
+            reconnectSupervisor = null;
+            if (!connected && reconnecting == null) {
+                Log.e(TAG, "Not connected to any device");
+                awaitPipelineStopped();
+                return;
+            }
+            connected = false;
         }
 
         try {
-            connected = false;
-            if (socket != null) {
-                socket.close();
+            if (reconnecting != null) {
+                reconnecting.cancel();
+            }
+            if (pipeline != null) {
+                pipeline.stop();
+            }
+            if (commands != null) {
+                commands.close();
+            }
+            if (transport != null) {
+                transport.close();
             }
             handler.post(this::notifyDeviceDisconnected);
         } catch (IOException e) {
             Log.e(TAG, "Error disconnecting: " + e.getMessage());
         }
+        // once this returns the sinks get no more samples, so they can close their files
+        awaitPipelineStopped();
+    }
+
+    private void awaitPipelineStopped() {
+        AcquisitionPipeline stopping = pipeline;
+        if (stopping == null) return;
+        try {
+            if (!stopping.join(PIPELINE_STOP_TIMEOUT_MILLIS)) Log.e(TAG, "Pipeline still running after disconnect");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
+    // queued while reconnecting, sent once the connection is back
     public void sendMessage(String message) {
-        if (!connected) {
+        if (!connected && !isReconnecting()) {
             Log.e(TAG, "Not connected to any device");
             return;
         }
 
-        postMessageHandler.post(() -> {
-            try {
-                outputStream.write(message.getBytes());
-                outputStream.flush();
-                Log.d(TAG, "Message sent: " + message);
-            } catch (IOException e) {
-                Log.e(TAG, "Error sending message: " + e.getMessage());
+        commands.send(message);
+    }
+
+    /**
+     * Sends the command until a message starting with responsePrefix comes back, or the retries
+     * run out. The listener is called on the main thread, the response also reaches
+     * {@link Callback#onNewMessageReceived} as usual.
+     */
+    public void sendRequest(String command, String responsePrefix, CommandChannel.ResponseListener listener) {
+        if (!connected && !isReconnecting()) {
+            Log.e(TAG, "Not connected to any device");
+            return;
+        }
+
+        commands.request(command, responsePrefix, new CommandChannel.ResponseListener() {
+            @Override
+            public void onResponse(String response) {
+                handler.post(() -> listener.onResponse(response));
+            }
+
+            @Override
+            public void onTimeout(String command) {
+                Log.e(TAG, "No response to " + command);
+                handler.post(() -> listener.onTimeout(command));
             }
         });
     }
 
+    // null until the first connection
+    public CommandChannel getCommandChannel() {
+        return commands;
+    }
+
+    // reading and parsing run on the pipeline's own threads, samples go straight to the sinks
     private void startReceivingMessages() {
-        new Thread(() -> {
-            byte[] buffer = new byte[1024];
-            int numBytes;
+        pipeline = new AcquisitionPipeline(inputStream, new AcquisitionPipeline.Listener() {
+            @Override
+            public void onMessage(String message) {
+                Log.d(TAG, "Received message: " + message);
+                commands.onMessage(message);
+                handler.post(() -> notifyNewMessageReceived(message));
+            }
+
+            @Override
+            public void onError(IOException e) {
+                Log.e(TAG, "Error receiving message: " + e.getMessage());
+                onConnectionLost();
+            }
+
+            @Override
+            public void onStopped() {
+                Log.d(TAG, "Receiving stopped");
+            }
+        }, ingestPolicy);
+        pipeline.setMetrics(metrics);
+        for (AcquisitionPipeline.SampleSink sink : sampleSinks) {
+            pipeline.addSink(sink);
+        }
+        pipeline.start();
+    }
+
+    private synchronized void onConnectionLost() {
+        // disconnected meanwhile
+        if (!connected) return;
+        connected = false;
+        if (metrics != null) metrics.onConnectionLost();
+
+        ReconnectPolicy policy = reconnectPolicy;
+        if (policy == null) {
+            commands.close();
+            handler.post(this::notifyDeviceDisconnected);
+            return;
+        }
+
+        // the reader is done, this stops the rest of the pipeline; sinks and recording stay
+        pipeline.stop();
+        // commands sent meanwhile wait for the new connection
+        commands.detach();
+        Reconnect reconnect = new Reconnect(pipeline);
+        reconnectSupervisor = new ReconnectSupervisor(transport, policy, reconnectRandom, "reconnect", reconnect);
+        reconnect.supervisor = reconnectSupervisor;
+        reconnectSupervisor.start();
+    }
+
+    /**
+     * Continues the same session on the restored connection: the sinks (and the recording behind
+     * them) get a gap and then the new samples, queued commands go out. The device may have been
+     * reset or reconfigured meanwhile, so GET_CFG is sent again and its CH= answer is merged by
+     * the callback like the one on connect.
+     */
+    private class Reconnect implements ReconnectSupervisor.Listener {
+        private final AcquisitionPipeline lost;
+        private final long lastReadNanos;
+        private ReconnectSupervisor supervisor;
+
+        Reconnect(AcquisitionPipeline lost) {
+            this.lost = lost;
+            this.lastReadNanos = lost.getLastReadNanos();
+        }
+
+        @Override
+        public void onReconnecting(int attempt, long delayMillis) {
+            Log.d(TAG, "Reconnect attempt " + attempt + " in " + delayMillis + "ms");
+            handler.post(() -> notifyDeviceReconnecting(attempt, delayMillis));
+        }
+
+        @Override
+        public void onReconnected(int attempts, long recoverNanos) throws IOException {
+            // the old pipeline may still be processing what it queued, the gap and the new
+            // samples come after its last sample
             try {
-                while (connected) {
-                    numBytes = inputStream.read(buffer);
-                    String receivedMessage = new String(buffer, 0, numBytes);
-                    Log.d(TAG, "Received message: " + receivedMessage);
-                    handler.post(() -> notifyNewMessageReceived(receivedMessage));
+                if (!lost.join(PIPELINE_STOP_TIMEOUT_MILLIS)) throw new IOException("Previous pipeline still running");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Reconnect cancelled");
+            }
+            long gapFrom = lastReadNanos != 0 ? lastReadNanos : supervisor.getLostAtNanos();
+            long gapTo = System.nanoTime();
+            synchronized (BluetoothClientManager.this) {
+                // disconnected while connecting, the supervisor closes the transport
+                if (reconnectSupervisor != supervisor) throw new IOException("Reconnect cancelled");
+                inputStream = transport.getInputStream();
+                commands.attach(transport.getOutputStream());
+                for (AcquisitionPipeline.SampleSink sink : sampleSinks) {
+                    sink.onGap(gapFrom, gapTo);
                 }
-            } catch (IOException e) {
-                Log.e(TAG, "Error receiving message: " + e.getMessage());
-                connected = false;
-                handler.post(this::notifyDeviceDisconnected);
+                reconnectSupervisor = null;
+                connected = true;
+                startReceivingMessages();
+                // after the queued commands, a SET_CFG sent while away is already in the answer
+                commands.request("GET_CFG", "CH=", null);
             }
-        }).start();
+            if (metrics != null) metrics.onReconnected(recoverNanos);
+            Log.i(TAG, "Reconnected after " + attempts + " attempts in " + TimeUnit.NANOSECONDS.toMillis(recoverNanos) + "ms");
+            handler.post(() -> notifyDeviceReconnected(recoverNanos));
+        }
+
+        @Override
+        public void onGaveUp(int attempts, IOException lastError) {
+            synchronized (BluetoothClientManager.this) {
+                if (reconnectSupervisor != supervisor) return;
+                reconnectSupervisor = null;
+                commands.close();
+            }
+            Log.e(TAG, "Gave up reconnecting after " + attempts + " attempts");
+            handler.post(BluetoothClientManager.this::notifyDeviceDisconnected);
+        }
+    }
+
+    private void scheduleDiscoveryPublish() {
+        if (discoveryPublishPending) return;
+        discoveryPublishPending = true;
+        handler.postDelayed(discoveryPublisher, DISCOVERY_DEBOUNCE_MILLIS);
     }
 
-    private void notifyDevicesDiscovered(List<Device> devices) {
+    private void publishDiscoveryChanges() {
+        if (discoveryPublishPending) {
+            discoveryPublishPending = false;
+            handler.removeCallbacks(discoveryPublisher);
+        }
+        DiscoveryIndex.Changes changes = discoveryIndex.takeChanges();
+        if (changes.isEmpty()) return;
         for (Callback listener : listeners) {
-            listener.onDevicesDiscovered(devices);
+            listener.onDevicesChanged(changes);
         }
     }
 
@@ -224,6 +445,18 @@ public class BluetoothClientManager {
         }
     }
 
+    private void notifyDeviceReconnecting(int attempt, long delayMillis) {
+        for (Callback listener : listeners) {
+            listener.onDeviceReconnecting(attempt, delayMillis);
+        }
+    }
+
+    private void notifyDeviceReconnected(long recoverNanos) {
+        for (Callback listener : listeners) {
+            listener.onDeviceReconnected(recoverNanos);
+        }
+    }
+
     private void notifyNewMessageReceived(String message) {
         for (Callback listener : listeners) {
             listener.onNewMessageReceived(message);
@@ -239,8 +472,10 @@ public class BluetoothClientManager {
             if (BluetoothDevice.ACTION_FOUND.equals(action)) {
                 BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
                 if (device != null) {
-                    discoveredDevices.add(Device.create(device));
-                    notifyDevicesDiscovered(discoveredDevices);
+                    int rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, (short) Device.RSSI_UNKNOWN);
+                    if (discoveryIndex.onFound(Device.create(device), rssi, SystemClock.elapsedRealtime())) {
+                        scheduleDiscoveryPublish();
+                    }
                 }
             }
         }
@@ -266,7 +501,8 @@ public class BluetoothClientManager {
 
     // Callback interface for Bluetooth events
     public interface Callback {
-        void onDevicesDiscovered(List<Device> devices);
+        // debounced, what changed since the last call
+        void onDevicesChanged(DiscoveryIndex.Changes changes);
 
         void onDiscoveryStarted();
 
@@ -278,8 +514,15 @@ public class BluetoothClientManager {
 
         void onDeviceConnected();
 
+        // also after reconnecting gave up
         void onDeviceDisconnected();
 
+        // the connection was lost, the attempt follows after the delay
+        void onDeviceReconnecting(int attempt, long delayMillis);
+
+        // receiving again, recoverNanos after the connection was lost
+        void onDeviceReconnected(long recoverNanos);
+
         void onNewMessageReceived(String message);
     }
 }
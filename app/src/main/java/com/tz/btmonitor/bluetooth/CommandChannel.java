@@ -0,0 +1,329 @@
+package com.tz.btmonitor.bluetooth;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes commands to the device on a thread of its own, so no caller ever blocks on the socket.
+ * <p>
+ * Commands wait in a queue until the writer thread gets to them, then each goes out in a write
+ * and flush of its own: commands carry no terminator, the device tells them apart by their
+ * writes. A "SET_CFG Dn=v" still waiting is overwritten by a newer one for the same channel, so
+ * only the last of a quick series of changes is sent.
+ * <p>
+ * A request is a command with an expected response, e.g. GET_CFG answered by a "CH=" line. The
+ * receive side hands every message to {@link #onMessage}. A request that got no response within
+ * its timeout is sent again, up to its retry count, then reported as timed out. Listeners run on
+ * the thread calling {@link #onMessage} or on the writer thread.
+ * <p>
+ * While {@link #detach detached}, e.g. during a reconnect, commands are queued and coalesced as
+ * usual and request timeouts are paused; {@link #attach} sends them over the new stream.
+ */
+public class CommandChannel implements Closeable {
+    public static final long DEFAULT_TIMEOUT_MILLIS = 1000;
+    public static final int DEFAULT_RETRIES = 2;
+    private static final String SET_CFG_PREFIX = "SET_CFG D";
+
+    public interface ResponseListener {
+        void onResponse(String response);
+
+        // no response after all retries
+        void onTimeout(String command);
+    }
+
+    private static class Command {
+        String text;
+        // SET_CFG only, -1 otherwise
+        final int channelId;
+        // requests only, null for plain commands
+        final String responsePrefix;
+        final long timeoutNanos;
+        final List<ResponseListener> listeners = new ArrayList<>(1);
+        int retriesLeft;
+        // 0 while queued, set when written
+        long deadlineNanos;
+
+        Command(String text, int channelId, String responsePrefix, long timeoutNanos, int retries) {
+            this.text = text;
+            this.channelId = channelId;
+            this.responsePrefix = responsePrefix;
+            this.timeoutNanos = timeoutNanos;
+            this.retriesLeft = retries;
+        }
+
+        boolean isRequest(String command, String prefix) {
+            return responsePrefix != null && responsePrefix.equals(prefix) && text.equals(command);
+        }
+    }
+
+    private final Thread thread;
+    // guarded by this, null while detached
+    private OutputStream outputStream;
+    private final ArrayDeque<Command> queue = new ArrayDeque<>();
+    private final List<Command> awaiting = new ArrayList<>();
+    private boolean closed = false;
+    // writer thread only
+    private final List<byte[]> batch = new ArrayList<>();
+    private final List<Command> expired = new ArrayList<>();
+
+    private volatile long commandsWritten = 0;
+    private volatile long writes = 0;
+    private volatile long coalesced = 0;
+    private volatile long retries = 0;
+    private volatile long timeouts = 0;
+    private volatile IOException lastError;
+
+    public CommandChannel(OutputStream outputStream, String threadName) {
+        this.outputStream = outputStream;
+        this.thread = new Thread(this::writeLoop, threadName);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    // holds everything queued until the next attach, a batch being written still goes out
+    public synchronized void detach() {
+        outputStream = null;
+    }
+
+    // continues over the given stream, requests already written are sent again
+    public synchronized void attach(OutputStream outputStream) {
+        if (closed) return;
+        this.outputStream = outputStream;
+        for (Command request : awaiting) {
+            if (request.deadlineNanos != 0 && !queue.contains(request)) {
+                request.deadlineNanos = 0;
+                queue.add(request);
+            }
+        }
+        notifyAll();
+    }
+
+    public synchronized boolean isAttached() {
+        return outputStream != null;
+    }
+
+    // pending commands and requests are dropped, the stream is left open
+    @Override
+    public synchronized void close() {
+        closed = true;
+        queue.clear();
+        awaiting.clear();
+        notifyAll();
+    }
+
+    public synchronized void send(String command) {
+        if (closed) return;
+        int channelId = setConfigChannel(command);
+        if (channelId >= 0) {
+            for (Command queued : queue) {
+                if (queued.channelId == channelId) {
+                    queued.text = command;
+                    coalesced++;
+                    return;
+                }
+            }
+        }
+        queue.add(new Command(command, channelId, null, 0, 0));
+        notifyAll();
+    }
+
+    public void request(String command, String responsePrefix, ResponseListener listener) {
+        request(command, responsePrefix, DEFAULT_TIMEOUT_MILLIS, DEFAULT_RETRIES, listener);
+    }
+
+    /**
+     * Sends the command and waits for a message starting with responsePrefix. The same request
+     * still waiting for its response is not sent again, the response goes to both listeners.
+     *
+     * @param listener may be null if only the retries are wanted
+     */
+    public synchronized void request(String command, String responsePrefix, long timeoutMillis, int retries, ResponseListener listener) {
+        if (closed) return;
+        Command request = findRequest(queue, command, responsePrefix);
+        if (request == null) request = findRequest(awaiting, command, responsePrefix);
+        if (request != null) {
+            coalesced++;
+        } else {
+            request = new Command(command, -1, responsePrefix, TimeUnit.MILLISECONDS.toNanos(timeoutMillis), retries);
+            queue.add(request);
+            notifyAll();
+        }
+        if (listener != null) request.listeners.add(listener);
+    }
+
+    // every message received from the device, answers the oldest request it matches
+    public void onMessage(String message) {
+        Command answered = null;
+        synchronized (this) {
+            for (Iterator<Command> it = awaiting.iterator(); it.hasNext(); ) {
+                Command request = it.next();
+                if (message.startsWith(request.responsePrefix)) {
+                    it.remove();
+                    // a retry may be queued already
+                    queue.remove(request);
+                    answered = request;
+                    break;
+                }
+            }
+        }
+        if (answered == null) return;
+        for (ResponseListener listener : answered.listeners) {
+            listener.onResponse(message);
+        }
+    }
+
+    public synchronized int getPendingCount() {
+        return queue.size() + awaiting.size();
+    }
+
+    public long getCommandsWritten() {
+        return commandsWritten;
+    }
+
+    // one write and flush per command sent
+    public long getWrites() {
+        return writes;
+    }
+
+    // commands and requests merged into one already waiting
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    public long getRetries() {
+        return retries;
+    }
+
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    // the last write that failed and detached the channel
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    private void writeLoop() {
+        while (true) {
+            OutputStream out;
+            synchronized (this) {
+                expire(System.nanoTime());
+                while (!closed && (queue.isEmpty() || outputStream == null) && expired.isEmpty()) {
+                    waitForWork();
+                    expire(System.nanoTime());
+                }
+                if (closed) return;
+                out = outputStream;
+                if (out != null) takeBatch();
+            }
+
+            for (Command request : expired) {
+                for (ResponseListener listener : request.listeners) {
+                    listener.onTimeout(request.text);
+                }
+            }
+            expired.clear();
+
+            if (out == null || batch.isEmpty()) continue;
+            try {
+                for (byte[] command : batch) {
+                    out.write(command);
+                    out.flush();
+                    writes++;
+                }
+            } catch (IOException e) {
+                // the reader sees the dead connection too, and disconnects or reconnects
+                lastError = e;
+                synchronized (this) {
+                    if (outputStream == out) outputStream = null;
+                }
+            }
+        }
+    }
+
+    private static Command findRequest(Iterable<Command> commands, String command, String responsePrefix) {
+        for (Command candidate : commands) {
+            if (candidate.isRequest(command, responsePrefix)) return candidate;
+        }
+        return null;
+    }
+
+    // under the lock, moves everything queued into the batch
+    private void takeBatch() {
+        batch.clear();
+        long now = System.nanoTime();
+        Command command;
+        while ((command = queue.poll()) != null) {
+            batch.add(command.text.getBytes(StandardCharsets.US_ASCII));
+            commandsWritten++;
+            if (command.responsePrefix != null) {
+                command.deadlineNanos = now + command.timeoutNanos;
+                if (!awaiting.contains(command)) awaiting.add(command);
+            }
+        }
+    }
+
+    // under the lock, queues retries and collects requests out of them, paused while detached
+    private void expire(long now) {
+        if (outputStream == null) return;
+        for (Iterator<Command> it = awaiting.iterator(); it.hasNext(); ) {
+            Command request = it.next();
+            if (request.deadlineNanos == 0 || now - request.deadlineNanos < 0) continue;
+            if (request.retriesLeft > 0) {
+                request.retriesLeft--;
+                request.deadlineNanos = 0;
+                queue.add(request);
+                retries++;
+            } else {
+                it.remove();
+                expired.add(request);
+                timeouts++;
+            }
+        }
+    }
+
+    // under the lock, until notified or the next request deadline
+    private void waitForWork() {
+        long next = 0;
+        for (Command request : outputStream != null ? awaiting : Collections.<Command>emptyList()) {
+            if (request.deadlineNanos != 0 && (next == 0 || request.deadlineNanos - next < 0)) {
+                next = request.deadlineNanos;
+            }
+        }
+        try {
+            if (next == 0) {
+                wait();
+            } else {
+                long waitNanos = next - System.nanoTime();
+                if (waitNanos > 0) wait(TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1);
+            }
+        } catch (InterruptedException e) {
+            closed = true;
+        }
+    }
+
+    // channel id of a "SET_CFG Dn=v" command, -1 for anything else
+    static int setConfigChannel(String command) {
+        if (!command.startsWith(SET_CFG_PREFIX)) return -1;
+        int id = 0;
+        int pos = SET_CFG_PREFIX.length();
+        int digitsStart = pos;
+        while (pos < command.length() && Character.isDigit(command.charAt(pos))) {
+            id = id * 10 + (command.charAt(pos) - '0');
+            if (id > 0xFFFF) return -1;
+            pos++;
+        }
+        if (pos == digitsStart || pos == command.length() || command.charAt(pos) != '=') return -1;
+        return id;
+    }
+}
@@ -0,0 +1,180 @@
+package com.tz.btmonitor.bluetooth;
+
+import com.tz.btmonitor.model.Device;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Discovered devices by address, in the order they were first seen.
+ * <p>
+ * Repeated sightings of a device merge into its entry, updating name, RSSI and last seen time.
+ * What changed since the last {@link #takeChanges()} is kept as a diff, a device added and
+ * changed again before that is reported as added only. Published {@link Device}s are never
+ * modified, a change replaces the device with an updated copy.
+ * <p>
+ * Not thread safe, used on the main thread where the discovery broadcasts arrive.
+ */
+public class DiscoveryIndex {
+    public static class Changes {
+        public static final Changes NONE = new Changes(Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+
+        public final List<Device> added;
+        public final List<Device> changed;
+        public final List<Device> removed;
+
+        Changes(List<Device> added, List<Device> changed, List<Device> removed) {
+            this.added = added;
+            this.changed = changed;
+            this.removed = removed;
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    private static class Entry {
+        Device device;
+        long lastSeenMillis;
+        // listed as bonded, stays until cleared
+        boolean bonded;
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    // pending diff, address -> latest device
+    private final Map<String, Device> added = new LinkedHashMap<>();
+    private final Map<String, Device> changed = new LinkedHashMap<>();
+    private final Map<String, Device> removed = new LinkedHashMap<>();
+
+    // a device the adapter knows already, not seen yet
+    public void onBonded(Device device, long nowMillis) {
+        onSeen(device, Device.RSSI_UNKNOWN, nowMillis).bonded = true;
+    }
+
+    /**
+     * A sighting of the device, rssi in dBm or {@link Device#RSSI_UNKNOWN}.
+     *
+     * @return true if the device is new or its name or RSSI changed
+     */
+    public boolean onFound(Device device, int rssi, long nowMillis) {
+        Entry entry = entries.get(device.getAddress());
+        Device before = entry != null ? entry.device : null;
+        entry = onSeen(device, rssi, nowMillis);
+        return entry.device != before;
+    }
+
+    private Entry onSeen(Device device, int rssi, long nowMillis) {
+        String address = device.getAddress();
+        Entry entry = entries.get(address);
+        if (entry == null) {
+            entry = new Entry();
+            entry.device = withRssi(device, rssi);
+            entries.put(address, entry);
+            // removed and found again before anyone heard of it
+            if (removed.remove(address) != null) {
+                changed.put(address, entry.device);
+            } else {
+                added.put(address, entry.device);
+            }
+        } else {
+            Device known = entry.device;
+            // a device seen without a name first may report it later, a bonded one has no rssi
+            String name = device.getName() != null ? device.getName() : known.getName();
+            int newRssi = rssi != Device.RSSI_UNKNOWN ? rssi : known.getRssi();
+            if (!Objects.equals(name, known.getName()) || newRssi != known.getRssi()) {
+                Device updated = known.copy();
+                updated.setName(name);
+                updated.setRssi(newRssi);
+                entry.device = updated;
+                if (added.containsKey(address)) {
+                    added.put(address, updated);
+                } else {
+                    changed.put(address, updated);
+                }
+            }
+        }
+        entry.lastSeenMillis = nowMillis;
+        return entry;
+    }
+
+    /**
+     * Removes devices not seen since the given time, bonded ones stay.
+     *
+     * @return number of devices removed
+     */
+    public int removeNotSeenSince(long millis) {
+        int count = 0;
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.bonded || entry.lastSeenMillis >= millis) continue;
+            it.remove();
+            onRemoved(entry.device);
+            count++;
+        }
+        return count;
+    }
+
+    public void clear() {
+        for (Entry entry : entries.values()) {
+            onRemoved(entry.device);
+        }
+        entries.clear();
+    }
+
+    private void onRemoved(Device device) {
+        String address = device.getAddress();
+        changed.remove(address);
+        // nobody heard of it, nothing to remove
+        if (added.remove(address) == null) removed.put(address, device);
+    }
+
+    public Device get(String address) {
+        Entry entry = entries.get(address);
+        return entry != null ? entry.device : null;
+    }
+
+    // -1 if the device is not listed
+    public long getLastSeenMillis(String address) {
+        Entry entry = entries.get(address);
+        return entry != null ? entry.lastSeenMillis : -1;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // in the order first seen
+    public List<Device> getDevices() {
+        List<Device> devices = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            devices.add(entry.device);
+        }
+        return devices;
+    }
+
+    public boolean hasChanges() {
+        return !added.isEmpty() || !changed.isEmpty() || !removed.isEmpty();
+    }
+
+    // the diff since the last call
+    public Changes takeChanges() {
+        if (!hasChanges()) return Changes.NONE;
+        Changes changes = new Changes(new ArrayList<>(added.values()), new ArrayList<>(changed.values()), new ArrayList<>(removed.values()));
+        added.clear();
+        changed.clear();
+        removed.clear();
+        return changes;
+    }
+
+    private static Device withRssi(Device device, int rssi) {
+        Device copy = device.copy();
+        copy.setRssi(rssi);
+        return copy;
+    }
+}
@@ -0,0 +1,169 @@
+package com.tz.btmonitor.bluetooth;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reassembles newline terminated frames from an arbitrarily chunked byte stream.
+ * <p>
+ * Incoming bytes are copied into a fixed ring buffer; a frame is delivered only once its
+ * terminating '\n' arrived. A trailing '\r' is stripped. Frames longer than the configured
+ * maximum are discarded up to the next newline and counted in {@link #getOversizedFrames()}.
+ * <p>
+ * The decoder allocates nothing after construction. The array handed to the listener is
+ * owned by the decoder and only valid for the duration of the callback.
+ * Not thread safe, meant to be driven by a single reader thread.
+ */
+public class FrameDecoder {
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 1024;
+    private static final int READ_CHUNK_SIZE = 1024;
+
+    private final byte[] ring;
+    private final int mask;
+    private final int maxFrameLength;
+    // used when a frame wraps around the end of the ring
+    private final byte[] frame;
+    private final byte[] readBuffer = new byte[READ_CHUNK_SIZE];
+    private final FrameListener listener;
+
+    // start of the pending frame in the ring and its length so far
+    private int start = 0;
+    private int length = 0;
+    private boolean discarding = false;
+
+    private long framesDecoded = 0;
+    private long oversizedFrames = 0;
+    private long bytesReceived = 0;
+
+    public FrameDecoder(FrameListener listener) {
+        this(DEFAULT_MAX_FRAME_LENGTH, listener);
+    }
+
+    public FrameDecoder(int maxFrameLength, FrameListener listener) {
+        if (maxFrameLength <= 0) {
+            throw new IllegalArgumentException("maxFrameLength must be positive");
+        }
+        this.maxFrameLength = maxFrameLength;
+        this.listener = listener;
+
+        int capacity = Integer.highestOneBit(maxFrameLength);
+        if (capacity < maxFrameLength) capacity <<= 1;
+        this.ring = new byte[capacity];
+        this.mask = capacity - 1;
+        this.frame = new byte[maxFrameLength];
+    }
+
+    /**
+     * Reads one chunk from the stream and feeds it to the decoder.
+     *
+     * @return number of bytes read, or -1 when the stream reached its end
+     */
+    public int readFrom(InputStream inputStream) throws IOException {
+        int read = inputStream.read(readBuffer, 0, readBuffer.length);
+        if (read > 0) {
+            feed(readBuffer, 0, read);
+        }
+        return read;
+    }
+
+    public void feed(byte[] src, int offset, int count) {
+        bytesReceived += count;
+        int end = offset + count;
+        int pos = offset;
+        while (pos < end) {
+            int newline = indexOf(src, pos, end, (byte) '\n');
+            int segmentEnd = newline < 0 ? end : newline;
+            append(src, pos, segmentEnd - pos);
+            if (newline < 0) break;
+
+            emit();
+            pos = newline + 1;
+        }
+    }
+
+    // drop any partially received frame
+    public void reset() {
+        start = 0;
+        length = 0;
+        discarding = false;
+    }
+
+    public int getPendingLength() {
+        return length;
+    }
+
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    public long getFramesDecoded() {
+        return framesDecoded;
+    }
+
+    public long getOversizedFrames() {
+        return oversizedFrames;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    private void append(byte[] src, int offset, int count) {
+        if (count == 0 || discarding) return;
+
+        if (length + count > maxFrameLength) {
+            // frame can't fit, skip everything up to the next newline
+            discarding = true;
+            oversizedFrames++;
+            length = 0;
+            return;
+        }
+
+        int writePos = (start + length) & mask;
+        int firstPart = Math.min(count, ring.length - writePos);
+        System.arraycopy(src, offset, ring, writePos, firstPart);
+        if (firstPart < count) {
+            System.arraycopy(src, offset + firstPart, ring, 0, count - firstPart);
+        }
+        length += count;
+    }
+
+    private void emit() {
+        if (discarding) {
+            discarding = false;
+            return;
+        }
+
+        int frameLength = length;
+        if (frameLength > 0 && ring[(start + frameLength - 1) & mask] == '\r') {
+            frameLength--;
+        }
+
+        if (frameLength > 0) {
+            framesDecoded++;
+            if (start + frameLength <= ring.length) {
+                listener.onFrame(ring, start, frameLength);
+            } else {
+                int firstPart = ring.length - start;
+                System.arraycopy(ring, start, frame, 0, firstPart);
+                System.arraycopy(ring, 0, frame, firstPart, frameLength - firstPart);
+                listener.onFrame(frame, 0, frameLength);
+            }
+        }
+
+        start = (start + length) & mask;
+        length = 0;
+    }
+
+    private static int indexOf(byte[] src, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (src[i] == value) return i;
+        }
+        return -1;
+    }
+
+    public interface FrameListener {
+        // buffer is reused by the decoder, copy what you need to keep
+        void onFrame(byte[] buffer, int offset, int length);
+    }
+}
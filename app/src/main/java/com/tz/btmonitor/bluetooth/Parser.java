@@ -1,47 +1,113 @@
 package com.tz.btmonitor.bluetooth;
 
-import android.util.Log;
-
 import com.tz.btmonitor.model.Channel;
+import com.tz.btmonitor.model.ChannelConfig;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class Parser {
+    // return codes of parseValues, a non-negative result is the number of parsed values
+    public static final int VALUES_NOT_A_VALUES_MESSAGE = -1;
+    public static final int VALUES_MALFORMED = -2;
+    public static final int VALUES_TOO_MANY = -3;
+
+    private static final String VALUES_PREFIX = "VALUES";
+
     // Function to parse configuration message and generate channel map
     public static Map<Integer, Channel> parseConfigMessage(String message) {
-        Map<Integer, Channel> channelsMap = new HashMap<>();
-        // Split the message by comma to separate key-value pairs
-        String[] pairs = message.split(",");
-        for (String pair : pairs) {
-            // skip first
-            if (pair.startsWith("CH=")) continue;
-
-            // Split each pair by '=' to get key and value
-            String[] keyValue = pair.replaceAll(" ", "").split("=");
-            if (keyValue.length == 2) {
-                try {
-                    int channelId = Integer.parseInt(keyValue[0].substring(1)); // Extract channel ID from the key
-
-                    int min = 100; // use default
-                    int max = 20000; // use default
-                    int d = Integer.parseInt(keyValue[1]);
-                    // Create a new Channel object with parsed values
-                    Channel channel = new Channel();
-                    channel.setId(channelId);
-                    channel.setMin(min);
-                    channel.setMax(max);
-                    channel.setD(d);
-                    // Add the channel to the map
-                    channelsMap.put(channelId, channel);
-                } catch (NumberFormatException e) {
-                    Log.e("BLUETOOTH_VIEWMODEL", "Error parsing configuration message: " + e.getMessage());
+        return parseConfig(message, new ChannelConfig()).toChannelMap();
+    }
+
+    /**
+     * Single pass tokenizer for "CH=n, D0=v0, D1=v1, ..." messages. Whitespace anywhere
+     * between tokens is ignored, unknown keys and malformed fields are counted on the config
+     * instead of throwing. The given config is cleared first so it can be reused.
+     */
+    public static ChannelConfig parseConfig(CharSequence message, ChannelConfig config) {
+        config.clear();
+        int length = message.length();
+        int pos = 0;
+        while (pos < length) {
+            int fieldEnd = pos;
+            while (fieldEnd < length && message.charAt(fieldEnd) != ',') fieldEnd++;
+            parseConfigField(message, pos, fieldEnd, config);
+            pos = fieldEnd + 1;
+        }
+        return config;
+    }
+
+    private static void parseConfigField(CharSequence message, int pos, int end, ChannelConfig config) {
+        pos = skipSpaces(message, pos, end);
+        if (pos == end) return;
+
+        // key is letters optionally followed by a channel number
+        int keyStart = pos;
+        while (pos < end && isLetter(message.charAt(pos))) pos++;
+        int keyEnd = pos;
+        pos = skipSpaces(message, pos, end);
+        long channelId = -1;
+        if (pos < end && isDigit(message.charAt(pos))) {
+            channelId = 0;
+            while (pos < end && isDigit(message.charAt(pos))) {
+                channelId = channelId * 10 + (message.charAt(pos) - '0');
+                if (channelId > Integer.MAX_VALUE) {
+                    config.incrementMalformedFields();
+                    return;
                 }
+                pos++;
             }
+            pos = skipSpaces(message, pos, end);
+        }
+
+        if (keyEnd == keyStart || pos == end || message.charAt(pos) != '=') {
+            config.incrementMalformedFields();
+            return;
+        }
+        pos = skipSpaces(message, pos + 1, end);
+
+        boolean negative = pos < end && message.charAt(pos) == '-';
+        if (negative) pos++;
+        int digitsStart = pos;
+        long value = 0;
+        while (pos < end && isDigit(message.charAt(pos))) {
+            value = value * 10 + (message.charAt(pos) - '0');
+            if (value > Integer.MAX_VALUE) {
+                config.incrementMalformedFields();
+                return;
+            }
+            pos++;
+        }
+        if (pos == digitsStart || skipSpaces(message, pos, end) != end) {
+            config.incrementMalformedFields();
+            return;
         }
-        return channelsMap;
+        int intValue = (int) (negative ? -value : value);
+
+        if (isKey(message, keyStart, keyEnd, "CH") && channelId < 0) {
+            config.setDeclaredChannels(intValue);
+        } else if (isKey(message, keyStart, keyEnd, "D") && channelId >= 0) {
+            config.putD((int) channelId, intValue);
+        } else {
+            config.incrementUnknownKeys();
+        }
+    }
+
+    private static boolean isKey(CharSequence message, int start, int end, String key) {
+        if (end - start != key.length()) return false;
+        for (int i = 0; i < key.length(); i++) {
+            if (message.charAt(start + i) != key.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
     }
 
     public static List<String> parseValuesMessage(String message) {
@@ -55,4 +121,132 @@ public class Parser {
         }
         return values;
     }
+
+    /**
+     * Parses a "VALUES: v0, v1, ..." message straight into the given array without creating
+     * intermediate strings or boxed integers.
+     *
+     * @return number of values written to {@code out}, or one of the negative VALUES_* codes
+     */
+    public static int parseValues(CharSequence message, int[] out) {
+        int length = message.length();
+        int pos = skipValuesPrefix(message, length);
+        if (pos < 0) return VALUES_NOT_A_VALUES_MESSAGE;
+
+        int count = 0;
+        pos = skipSpaces(message, pos, length);
+        if (pos == length) return 0;
+
+        while (true) {
+            pos = skipSpaces(message, pos, length);
+            boolean negative = false;
+            if (pos < length && message.charAt(pos) == '-') {
+                negative = true;
+                pos++;
+            }
+
+            int digitsStart = pos;
+            long value = 0;
+            while (pos < length) {
+                int digit = message.charAt(pos) - '0';
+                if (digit < 0 || digit > 9) break;
+                value = value * 10 + digit;
+                if (value > (long) Integer.MAX_VALUE + 1) return VALUES_MALFORMED;
+                pos++;
+            }
+            if (pos == digitsStart) return VALUES_MALFORMED;
+            if (negative) value = -value;
+            if (value > Integer.MAX_VALUE) return VALUES_MALFORMED;
+
+            if (count == out.length) return VALUES_TOO_MANY;
+            out[count++] = (int) value;
+
+            pos = skipSpaces(message, pos, length);
+            if (pos == length) return count;
+            if (message.charAt(pos) != ',') return VALUES_MALFORMED;
+            pos++;
+        }
+    }
+
+    /**
+     * Same as {@link #parseValues(CharSequence, int[])} but reads ASCII bytes, so a frame can be
+     * parsed directly from the receive buffer.
+     */
+    public static int parseValues(byte[] buffer, int offset, int length, int[] out) {
+        int end = offset + length;
+        int pos = skipValuesPrefix(buffer, offset, end);
+        if (pos < 0) return VALUES_NOT_A_VALUES_MESSAGE;
+
+        int count = 0;
+        pos = skipSpaces(buffer, pos, end);
+        if (pos == end) return 0;
+
+        while (true) {
+            pos = skipSpaces(buffer, pos, end);
+            boolean negative = false;
+            if (pos < end && buffer[pos] == '-') {
+                negative = true;
+                pos++;
+            }
+
+            int digitsStart = pos;
+            long value = 0;
+            while (pos < end) {
+                int digit = buffer[pos] - '0';
+                if (digit < 0 || digit > 9) break;
+                value = value * 10 + digit;
+                if (value > (long) Integer.MAX_VALUE + 1) return VALUES_MALFORMED;
+                pos++;
+            }
+            if (pos == digitsStart) return VALUES_MALFORMED;
+            if (negative) value = -value;
+            if (value > Integer.MAX_VALUE) return VALUES_MALFORMED;
+
+            if (count == out.length) return VALUES_TOO_MANY;
+            out[count++] = (int) value;
+
+            pos = skipSpaces(buffer, pos, end);
+            if (pos == end) return count;
+            if (buffer[pos] != ',') return VALUES_MALFORMED;
+            pos++;
+        }
+    }
+
+    // only looks at the prefix, the values may still be malformed
+    public static boolean isValuesFrame(byte[] buffer, int offset, int length) {
+        return skipValuesPrefix(buffer, offset, offset + length) >= 0;
+    }
+
+    // returns the position right after "VALUES:" or -1
+    private static int skipValuesPrefix(CharSequence message, int length) {
+        int prefixLength = VALUES_PREFIX.length();
+        if (length <= prefixLength) return -1;
+        for (int i = 0; i < prefixLength; i++) {
+            if (message.charAt(i) != VALUES_PREFIX.charAt(i)) return -1;
+        }
+        return message.charAt(prefixLength) == ':' ? prefixLength + 1 : -1;
+    }
+
+    private static int skipValuesPrefix(byte[] buffer, int offset, int end) {
+        int prefixLength = VALUES_PREFIX.length();
+        if (end - offset <= prefixLength) return -1;
+        for (int i = 0; i < prefixLength; i++) {
+            if (buffer[offset + i] != VALUES_PREFIX.charAt(i)) return -1;
+        }
+        return buffer[offset + prefixLength] == ':' ? offset + prefixLength + 1 : -1;
+    }
+
+    private static int skipSpaces(CharSequence message, int pos, int end) {
+        while (pos < end && isSpace(message.charAt(pos))) pos++;
+        return pos;
+    }
+
+    private static int skipSpaces(byte[] buffer, int pos, int end) {
+        while (pos < end && isSpace((char) buffer[pos])) pos++;
+        return pos;
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
 }
@@ -0,0 +1,56 @@
+package com.tz.btmonitor.bluetooth;
+
+import java.util.Random;
+
+/**
+ * Delays between reconnect attempts: exponential backoff from initialDelayMillis up to
+ * maxDelayMillis, each delay shortened by a random part of up to jitter (0..1) of it, so
+ * devices dropped at the same time don't retry in lockstep.
+ */
+public class ReconnectPolicy {
+    public static final int UNLIMITED_ATTEMPTS = 0;
+    public static final ReconnectPolicy DEFAULT = new ReconnectPolicy(500, 30_000, 2.0, 0.5, UNLIMITED_ATTEMPTS);
+
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final double multiplier;
+    private final double jitter;
+    private final int maxAttempts;
+
+    /**
+     * @param maxAttempts attempts before giving up, or {@link #UNLIMITED_ATTEMPTS}
+     */
+    public ReconnectPolicy(long initialDelayMillis, long maxDelayMillis, double multiplier, double jitter, int maxAttempts) {
+        if (initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis || multiplier < 1 || jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Invalid reconnect policy");
+        }
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.multiplier = multiplier;
+        this.jitter = jitter;
+        this.maxAttempts = maxAttempts;
+    }
+
+    // delay before the given attempt, counted from 1
+    public long delayMillis(int attempt, Random random) {
+        double delay = initialDelayMillis * Math.pow(multiplier, Math.max(0, attempt - 1));
+        delay = Math.min(delay, maxDelayMillis);
+        return (long) (delay * (1 - jitter * random.nextDouble()));
+    }
+
+    public boolean hasAttemptsLeft(int attemptsMade) {
+        return maxAttempts == UNLIMITED_ATTEMPTS || attemptsMade < maxAttempts;
+    }
+
+    public long getInitialDelayMillis() {
+        return initialDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+}
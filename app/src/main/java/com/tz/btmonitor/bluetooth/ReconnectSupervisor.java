@@ -0,0 +1,102 @@
+package com.tz.btmonitor.bluetooth;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reconnects a lost {@link Transport} on a thread of its own, waiting between attempts as the
+ * {@link ReconnectPolicy} says.
+ * <p>
+ * The time to recover is measured from the moment the connection was lost to the moment the
+ * listener took the new connection over. Every listener method runs on the supervisor thread.
+ */
+public class ReconnectSupervisor {
+    public interface Listener {
+        // before waiting for the attempt
+        void onReconnecting(int attempt, long delayMillis);
+
+        /**
+         * The transport is connected again. Throwing counts the attempt as failed, the transport
+         * is closed and the next attempt follows.
+         */
+        void onReconnected(int attempts, long recoverNanos) throws IOException;
+
+        // out of attempts, the transport is closed
+        void onGaveUp(int attempts, IOException lastError);
+    }
+
+    private final Transport transport;
+    private final ReconnectPolicy policy;
+    private final Random random;
+    private final Listener listener;
+    private final Thread thread;
+    private final long lostAtNanos;
+    private volatile boolean cancelled = false;
+
+    public ReconnectSupervisor(Transport transport, ReconnectPolicy policy, Random random, String threadName, Listener listener) {
+        this.transport = transport;
+        this.policy = policy;
+        this.random = random;
+        this.listener = listener;
+        this.lostAtNanos = System.nanoTime();
+        this.thread = new Thread(this::run, threadName);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    // stops waiting, a connection made meanwhile is closed again
+    public void cancel() {
+        cancelled = true;
+        thread.interrupt();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // System.nanoTime() when the connection was lost
+    public long getLostAtNanos() {
+        return lostAtNanos;
+    }
+
+    private void run() {
+        closeQuietly();
+        IOException lastError = null;
+        int attempt = 0;
+        while (!cancelled && policy.hasAttemptsLeft(attempt)) {
+            attempt++;
+            long delayMillis = policy.delayMillis(attempt, random);
+            listener.onReconnecting(attempt, delayMillis);
+            try {
+                TimeUnit.MILLISECONDS.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (cancelled) break;
+
+            try {
+                transport.connect();
+                if (cancelled) break;
+                listener.onReconnected(attempt, System.nanoTime() - lostAtNanos);
+                return;
+            } catch (IOException e) {
+                lastError = e;
+                closeQuietly();
+            }
+        }
+
+        closeQuietly();
+        if (!cancelled) listener.onGaveUp(attempt, lastError);
+    }
+
+    private void closeQuietly() {
+        try {
+            transport.close();
+        } catch (IOException e) {
+            // it's gone either way
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.tz.btmonitor.bluetooth;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * {@link Transport} over a Bluetooth serial port profile socket.
+ */
+public class RfcommTransport implements Transport {
+    private static final UUID SSP_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB"); // Standard SerialPortService ID
+
+    private final BluetoothDevice device;
+    private BluetoothSocket socket;
+
+    public RfcommTransport(BluetoothDevice device) {
+        this.device = device;
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public void connect() throws IOException {
+        socket = device.createRfcommSocketToServiceRecord(SSP_UUID);
+        socket.connect();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return socket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (socket != null) socket.close();
+    }
+}
@@ -0,0 +1,304 @@
+package com.tz.btmonitor.bluetooth;
+
+import com.tz.btmonitor.model.ChannelConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process stand-in for the measuring device, connected through piped streams.
+ * <p>
+ * Emits "VALUES:v0,v1,..." lines at the configured rate with random timing jitter (values do a
+ * random walk between the default channel limits) and answers the commands the app sends:
+ * GET_CFG with a "CH=n,D0=..,D1=.." line, SET_CFG Dn=v by storing the value, AT+BAUDn with
+ * "OK&lt;rate&gt;" after which the output is throttled to what that line rate can carry.
+ * <p>
+ * Commands are not terminated on the wire, so they are split at the command keywords.
+ */
+public class SimulatedDevice {
+    public static final int UNLIMITED_BAUD = 0;
+    // AT+BAUD codes 1..9, in the order of the app's baud rate menu
+    private static final int[] BAUD_RATES = {1200, 2400, 4800, 9600, 19200, 38400, 57600, 115200, 230400};
+    private static final String[] COMMANDS = {"GET_CFG", "SET_CFG", "AT+"};
+    private static final int PIPE_SIZE = 64 * 1024;
+    private static final int MAX_STEP = 50;
+
+    private final int channelCount;
+    private final long periodNanos;
+    private final long jitterNanos;
+    private final Random random;
+    // guarded by this
+    private final int[] d;
+    private final int[] values;
+    private final ChannelConfig commandConfig = new ChannelConfig();
+
+    private volatile boolean reachable = true;
+    // the open connection, if any
+    private volatile SimulatedTransport current;
+    private volatile int baudRate = UNLIMITED_BAUD;
+    private volatile long linesSent = 0;
+    private volatile long commandsHandled = 0;
+    private volatile long unknownCommands = 0;
+
+    /**
+     * @param rateHz       VALUES lines per second
+     * @param jitterMicros every line is moved by up to that much, earlier or later
+     */
+    public SimulatedDevice(int channelCount, double rateHz, long jitterMicros, long seed) {
+        this.channelCount = channelCount;
+        this.periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rateHz);
+        this.jitterNanos = TimeUnit.MICROSECONDS.toNanos(jitterMicros);
+        this.random = new Random(seed);
+        this.d = new int[channelCount];
+        this.values = new int[channelCount];
+        for (int i = 0; i < channelCount; i++) {
+            values[i] = (ChannelConfig.DEFAULT_MIN + ChannelConfig.DEFAULT_MAX) / 2;
+        }
+    }
+
+    // a new connection to this device, one at a time
+    public Transport createTransport() {
+        return new SimulatedTransport();
+    }
+
+    // while unreachable connecting fails, like a device out of range
+    public void setReachable(boolean reachable) {
+        this.reachable = reachable;
+    }
+
+    // ends the open connection from the device side, the app's reads fail
+    public void dropConnection() {
+        SimulatedTransport transport = current;
+        if (transport == null) return;
+        try {
+            transport.close();
+        } catch (IOException e) {
+            // closed already
+        }
+    }
+
+    public synchronized int getD(int channelId) {
+        return d[channelId];
+    }
+
+    public int getBaudRate() {
+        return baudRate;
+    }
+
+    public long getLinesSent() {
+        return linesSent;
+    }
+
+    public long getCommandsHandled() {
+        return commandsHandled;
+    }
+
+    public long getUnknownCommands() {
+        return unknownCommands;
+    }
+
+    private class SimulatedTransport implements Transport {
+        private PipedInputStream appInput;
+        private PipedInputStream deviceInput;
+        private PipedOutputStream deviceOutput;
+        private PipedOutputStream appOutput;
+        private Thread valuesThread;
+        private Thread commandsThread;
+        private volatile boolean running = false;
+
+        @Override
+        public void connect() throws IOException {
+            if (!reachable) throw new IOException("Device not reachable");
+            // fresh pipes, a closed pipe can't be connected again
+            appInput = new PipedInputStream(PIPE_SIZE);
+            deviceInput = new PipedInputStream(PIPE_SIZE);
+            deviceOutput = new PipedOutputStream(appInput);
+            appOutput = new PipedOutputStream(deviceInput);
+            running = true;
+            valuesThread = new Thread(this::emitLoop, "simulated-device-values");
+            commandsThread = new Thread(this::commandLoop, "simulated-device-commands");
+            valuesThread.start();
+            commandsThread.start();
+            current = this;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return appInput;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return appOutput;
+        }
+
+        @Override
+        public void close() throws IOException {
+            running = false;
+            if (valuesThread != null) valuesThread.interrupt();
+            if (commandsThread != null) commandsThread.interrupt();
+            // the app sees the end of the stream, like a dropped socket
+            if (deviceOutput != null) deviceOutput.close();
+            if (appOutput != null) appOutput.close();
+            // a reconnect must not find the old threads still using the fields
+            join(valuesThread);
+            join(commandsThread);
+        }
+
+        private void join(Thread thread) {
+            if (thread == null || thread == Thread.currentThread()) return;
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void emitLoop() {
+            StringBuilder line = new StringBuilder();
+            long due = System.nanoTime();
+            try {
+                while (running) {
+                    due += periodNanos;
+                    long jitter = jitterNanos > 0 ? (long) ((random.nextDouble() * 2 - 1) * jitterNanos) : 0;
+                    parkUntil(due + jitter);
+                    if (!running) break;
+
+                    line.setLength(0);
+                    line.append("VALUES:");
+                    nextValues(line);
+                    line.append('\n');
+                    byte[] bytes = line.toString().getBytes(StandardCharsets.US_ASCII);
+                    send(bytes);
+                    linesSent++;
+
+                    // 10 bits per byte on the serial line
+                    int baud = baudRate;
+                    if (baud != UNLIMITED_BAUD) {
+                        long lineNanos = bytes.length * 10 * TimeUnit.SECONDS.toNanos(1) / baud;
+                        due = Math.max(due, System.nanoTime() + lineNanos - periodNanos);
+                    }
+                }
+            } catch (IOException e) {
+                // the app side is gone
+            }
+        }
+
+        private void commandLoop() {
+            byte[] buffer = new byte[256];
+            StringBuilder pending = new StringBuilder();
+            while (running) {
+                try {
+                    int read = deviceInput.read(buffer);
+                    if (read < 0) break;
+                    for (int i = 0; i < read; i++) pending.append((char) buffer[i]);
+                    // a read may hold one command or a few written back to back, handle them once all arrived
+                    if (deviceInput.available() == 0) handleCommands(pending);
+                } catch (IOException e) {
+                    // a piped stream reports a dead writing thread as broken, the app may still
+                    // write from another thread, so only closing ends the loop
+                    if (!running) break;
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+                }
+            }
+        }
+
+        private void handleCommands(StringBuilder pending) throws IOException {
+            String text = pending.toString();
+            pending.setLength(0);
+            int start = nextCommandStart(text, 0);
+            while (start >= 0) {
+                int end = nextCommandStart(text, start + 1);
+                handleCommand(text.substring(start, end < 0 ? text.length() : end).trim());
+                start = end;
+            }
+        }
+
+        private void handleCommand(String command) throws IOException {
+            commandsHandled++;
+            if (command.equals("GET_CFG")) {
+                send(configLine().getBytes(StandardCharsets.US_ASCII));
+            } else if (command.startsWith("SET_CFG")) {
+                setConfig(command.substring("SET_CFG".length()));
+            } else if (command.startsWith("AT+BAUD")) {
+                int rate = parseBaud(command.substring("AT+BAUD".length()));
+                if (rate > 0) {
+                    baudRate = rate;
+                    send(("OK" + rate + "\n").getBytes(StandardCharsets.US_ASCII));
+                } else {
+                    unknownCommands++;
+                }
+            } else {
+                unknownCommands++;
+            }
+        }
+
+        private void send(byte[] bytes) throws IOException {
+            // values and replies come from different threads, lines must not interleave
+            synchronized (this) {
+                deviceOutput.write(bytes);
+                deviceOutput.flush();
+            }
+        }
+    }
+
+    private synchronized void nextValues(StringBuilder line) {
+        for (int i = 0; i < channelCount; i++) {
+            int value = values[i] + random.nextInt(2 * MAX_STEP + 1) - MAX_STEP;
+            values[i] = Math.max(ChannelConfig.DEFAULT_MIN, Math.min(ChannelConfig.DEFAULT_MAX, value));
+            if (i > 0) line.append(',');
+            line.append(values[i]);
+        }
+    }
+
+    private synchronized String configLine() {
+        StringBuilder line = new StringBuilder("CH=").append(channelCount);
+        for (int i = 0; i < channelCount; i++) {
+            line.append(",D").append(i).append('=').append(d[i]);
+        }
+        return line.append('\n').toString();
+    }
+
+    private synchronized void setConfig(String fields) {
+        Parser.parseConfig(fields, commandConfig);
+        for (int i = 0; i < commandConfig.size(); i++) {
+            int id = commandConfig.getId(i);
+            if (id >= 0 && id < channelCount) d[id] = commandConfig.getD(i);
+        }
+    }
+
+    // 1..9 are the menu codes, anything bigger is taken as the rate itself
+    private static int parseBaud(String argument) {
+        try {
+            int value = Integer.parseInt(argument.trim());
+            if (value >= 1 && value <= BAUD_RATES.length) return BAUD_RATES[value - 1];
+            return value > BAUD_RATES.length ? value : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int nextCommandStart(String text, int from) {
+        int next = -1;
+        for (String command : COMMANDS) {
+            int index = text.indexOf(command, from);
+            if (index >= 0 && (next < 0 || index < next)) next = index;
+        }
+        return next;
+    }
+
+    private static void parkUntil(long deadlineNanos) {
+        long now;
+        while ((now = System.nanoTime()) < deadlineNanos) {
+            LockSupport.parkNanos(deadlineNanos - now);
+            if (Thread.currentThread().isInterrupted()) return;
+        }
+    }
+}
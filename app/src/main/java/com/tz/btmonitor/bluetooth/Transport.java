@@ -0,0 +1,22 @@
+package com.tz.btmonitor.bluetooth;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Byte stream connection to a device, hides whether it is an RFCOMM socket or something else
+ * (see {@link SimulatedDevice}).
+ */
+public interface Transport {
+    // blocking, call it off the main thread; after close it connects again
+    void connect() throws IOException;
+
+    // valid after connect
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    // unblocks pending reads, which then fail
+    void close() throws IOException;
+}
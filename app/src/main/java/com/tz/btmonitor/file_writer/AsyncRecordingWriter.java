@@ -0,0 +1,403 @@
+package com.tz.btmonitor.file_writer;
+
+import com.tz.btmonitor.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes CSV rows to an OutputStream from a background thread.
+ * <p>
+ * Rows are encoded straight into a reusable byte chunk. A chunk is handed to the writer
+ * thread once it reaches the size threshold, or when it is older than the flush interval,
+ * so many rows share one write and flush (group commit). Chunks come from a fixed pool;
+ * if the disk can't keep up the producer waits for a free chunk and the wait is counted
+ * as a stall. The wait releases the writer's lock, so the writer thread never blocks behind it.
+ * <p>
+ * {@link #flush()} and {@link #close()} block until everything written so far reached the stream,
+ * or failed to.
+ */
+public class AsyncRecordingWriter {
+    public static final int DEFAULT_FLUSH_THRESHOLD_BYTES = 32 * 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 500;
+    private static final int CHUNK_COUNT = 4;
+    // upper bound for one encoded int incl. sign and separator
+    private static final int MAX_INT_BYTES = 12;
+    // queued by close() after the last chunk, ends the writer thread
+    private static final Chunk END = new Chunk(0);
+
+    private final OutputStream outputStream;
+    private final int flushThresholdBytes;
+    private final long flushIntervalMillis;
+    private final BlockingQueue<Chunk> freeChunks = new ArrayBlockingQueue<>(CHUNK_COUNT);
+    private final BlockingQueue<Chunk> filledChunks = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+    private final Object progressLock = new Object();
+
+    // guarded by this
+    private Chunk current;
+    private long currentStartedMillis = 0;
+    // read time of the oldest sample noted since bytes were last appended, 0 if none
+    private long pendingSampleNanos = 0;
+    private volatile boolean closed = false;
+
+    private long submittedChunks = 0;
+    private final AtomicLong writtenChunks = new AtomicLong();
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+    private final AtomicLong producerStalls = new AtomicLong();
+    private volatile long lastFlushNanos = 0;
+    private volatile long maxFlushNanos = 0;
+    private volatile IOException lastError;
+    private volatile LatencyHistogram readToDiskLatency;
+
+    public AsyncRecordingWriter(OutputStream outputStream) {
+        this(outputStream, DEFAULT_FLUSH_THRESHOLD_BYTES, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    public AsyncRecordingWriter(OutputStream outputStream, int flushThresholdBytes, long flushIntervalMillis) {
+        this.outputStream = outputStream;
+        this.flushThresholdBytes = flushThresholdBytes;
+        this.flushIntervalMillis = flushIntervalMillis;
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            freeChunks.add(new Chunk(flushThresholdBytes + 1024));
+        }
+        current = freeChunks.poll();
+        writerThread = new Thread(this::writeLoop, "recording-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    // prefix is written as is (e.g. the location), followed by the values
+    public synchronized void writeRow(CharSequence prefix, int[] values, int count) {
+        if (closed) return;
+        Chunk chunk = reserve(prefix.length() + 1 + count * MAX_INT_BYTES + 1);
+        chunk.appendAscii(prefix);
+        for (int i = 0; i < count; i++) {
+            chunk.append((byte) ',');
+            chunk.appendInt(values[i]);
+        }
+        chunk.append((byte) '\n');
+        rowWritten();
+    }
+
+    // a "timestampNanos,lat,lng,v0,v1,..." row, encoded without building strings
+    public synchronized void writeSampleRow(long timestampNanos, double lat, double lng, int[] values, int count) {
+        if (closed) return;
+        Chunk chunk = reserve(CsvFormat.maxRowLength(count));
+        chunk.size = CsvFormat.putSampleRow(chunk.data, chunk.size, timestampNanos, lat, lng, values, count);
+        rowWritten();
+    }
+
+    public synchronized void writeRow(String[] fields) {
+        if (closed) return;
+        int length = fields.length + 1;
+        for (String field : fields) length += field.length();
+        Chunk chunk = reserve(length);
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) chunk.append((byte) ',');
+            chunk.appendAscii(fields[i]);
+        }
+        chunk.append((byte) '\n');
+        rowWritten();
+    }
+
+    // raw bytes, e.g. encoded binary blocks
+    public synchronized void writeBytes(byte[] src, int offset, int length) {
+        if (closed) return;
+        Chunk chunk = reserve(length);
+        System.arraycopy(src, offset, chunk.data, chunk.size, length);
+        chunk.size += length;
+        if (chunk.size >= flushThresholdBytes) submitCurrent();
+    }
+
+    /**
+     * Marks that the next bytes written belong to a sample read at the given System.nanoTime.
+     * Once the chunk holding them is on disk, the time since the oldest such sample goes into
+     * the read-to-disk histogram.
+     */
+    public synchronized void noteSampleTimestamp(long readNanos) {
+        if (pendingSampleNanos == 0) pendingSampleNanos = readNanos;
+    }
+
+    public void setReadToDiskLatency(LatencyHistogram histogram) {
+        readToDiskLatency = histogram;
+    }
+
+    /**
+     * Stream view for encoders that write to an OutputStream. Writes go through
+     * {@link #writeBytes}, flush and close are left to this writer.
+     */
+    public OutputStream asOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+                writeBytes(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                writeBytes(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * Hands over everything buffered so far and waits until it reached the stream.
+     */
+    public void flush() throws IOException {
+        long target;
+        synchronized (this) {
+            if (current != null && current.size > 0) submitCurrent();
+            target = submittedChunks;
+        }
+        awaitWritten(target);
+        throwIfFailed();
+    }
+
+    /**
+     * Drains all buffered rows, stops the writer thread and closes the stream. Interrupted, the
+     * writer thread still drains and closes the stream on its own.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            if (current != null && current.size > 0) submitCurrent();
+            closed = true;
+            filledChunks.add(END);
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing the recording");
+        }
+        throwIfFailed();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    // number of full chunks waiting for the writer thread
+    public int getQueueDepth() {
+        return filledChunks.size();
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    public long getLastFlushNanos() {
+        return lastFlushNanos;
+    }
+
+    public long getMaxFlushNanos() {
+        return maxFlushNanos;
+    }
+
+    public long getAverageFlushNanos() {
+        long count = flushes.get();
+        return count == 0 ? 0 : totalFlushNanos.get() / count;
+    }
+
+    public long getProducerStalls() {
+        return producerStalls.get();
+    }
+
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    private Chunk reserve(int length) {
+        if (current.size > 0 && current.size + length > current.data.length) {
+            submitCurrent();
+        }
+        if (length > current.data.length) {
+            // a single huge row, rare enough to just grow
+            current.data = new byte[length];
+        }
+        if (current.size == 0) currentStartedMillis = System.currentTimeMillis();
+        if (pendingSampleNanos != 0) {
+            if (current.oldestSampleNanos == 0) current.oldestSampleNanos = pendingSampleNanos;
+            pendingSampleNanos = 0;
+        }
+        return current;
+    }
+
+    private void rowWritten() {
+        rowsWritten.incrementAndGet();
+        if (current.size >= flushThresholdBytes) submitCurrent();
+    }
+
+    /**
+     * Caller holds the lock. Waits for a free chunk first, releasing the lock meanwhile; other
+     * rows may still go into the current chunk while there is room.
+     */
+    private void submitCurrent() {
+        Chunk next = freeChunks.poll();
+        if (next == null) {
+            producerStalls.incrementAndGet();
+            while ((next = freeChunks.poll()) == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    next = new Chunk(current.data.length);
+                    break;
+                }
+            }
+        }
+        handOver(next);
+    }
+
+    // caller holds the lock
+    private void handOver(Chunk next) {
+        filledChunks.add(current);
+        submittedChunks++;
+        current = next;
+    }
+
+    private void awaitWritten(long target) throws InterruptedIOException {
+        synchronized (progressLock) {
+            while (writtenChunks.get() < target && lastError == null) {
+                try {
+                    progressLock.wait(flushIntervalMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while flushing the recording");
+                }
+            }
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            Chunk chunk;
+            try {
+                chunk = filledChunks.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // only close() ends the loop, through END
+                continue;
+            }
+
+            if (chunk == END) {
+                closeStream();
+                return;
+            }
+            if (chunk == null) {
+                submitIfStale();
+                continue;
+            }
+
+            long start = System.nanoTime();
+            try {
+                outputStream.write(chunk.data, 0, chunk.size);
+                outputStream.flush();
+                bytesWritten.addAndGet(chunk.size);
+            } catch (IOException e) {
+                lastError = e;
+            }
+            long took = System.nanoTime() - start;
+            lastFlushNanos = took;
+            if (took > maxFlushNanos) maxFlushNanos = took;
+            totalFlushNanos.addAndGet(took);
+            flushes.incrementAndGet();
+            LatencyHistogram histogram = readToDiskLatency;
+            if (histogram != null && chunk.oldestSampleNanos != 0) {
+                histogram.record(System.nanoTime() - chunk.oldestSampleNanos);
+            }
+
+            chunk.size = 0;
+            chunk.oldestSampleNanos = 0;
+            freeChunks.offer(chunk);
+            synchronized (this) {
+                // a producer waiting in submitCurrent
+                notifyAll();
+            }
+            synchronized (progressLock) {
+                writtenChunks.incrementAndGet();
+                progressLock.notifyAll();
+            }
+        }
+    }
+
+    // never waits for a free chunk, none is free only while a producer is submitting anyway
+    private synchronized void submitIfStale() {
+        if (closed || current.size == 0 || System.currentTimeMillis() - currentStartedMillis < flushIntervalMillis) return;
+        Chunk next = freeChunks.poll();
+        if (next != null) handOver(next);
+    }
+
+    private void closeStream() {
+        try {
+            outputStream.close();
+        } catch (IOException e) {
+            if (lastError == null) lastError = e;
+        }
+        synchronized (progressLock) {
+            progressLock.notifyAll();
+        }
+    }
+
+    private void throwIfFailed() throws IOException {
+        IOException error = lastError;
+        if (error != null) throw error;
+    }
+
+    private static class Chunk {
+        byte[] data;
+        int size = 0;
+        long oldestSampleNanos = 0;
+
+        Chunk(int capacity) {
+            data = new byte[capacity];
+        }
+
+        void append(byte b) {
+            data[size++] = b;
+        }
+
+        void appendAscii(CharSequence text) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                data[size++] = c < 128 ? (byte) c : (byte) '?';
+            }
+        }
+
+        void appendInt(int value) {
+            if (value == Integer.MIN_VALUE) {
+                appendAscii("-2147483648");
+                return;
+            }
+            if (value < 0) {
+                data[size++] = '-';
+                value = -value;
+            }
+            int digits = 1;
+            for (int v = value; v >= 10; v /= 10) digits++;
+            int pos = size + digits;
+            size = pos;
+            do {
+                data[--pos] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.tz.btmonitor.file_writer;
+
+import com.tz.btmonitor.model.ChannelConfig;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Layout of binary recordings (all multi byte fixed fields big endian).
+ * <pre>
+ * header:  int magic "BTMR", short version, long start time (epoch millis)
+ * block:   byte type, int payload length, payload, int crc32 of type, length and payload
+ *
+ * CONFIG payload:  varint channel count, per channel varint id, zigzag min, zigzag max, zigzag d
+ * SAMPLES payload: varint sample count n, varint values per sample, long first timestamp (nanos),
+ *                  then zigzag lat, lng and every value of the first sample, then one column
+ *                  per field (timestamp, lat, lng, every value) with the deltas of the other n-1
+ *                  samples: zigzag smallest delta, byte bit width, n-1 offsets from the smallest
+ *                  delta packed at that width, least significant bit first, padded to a byte
+ *                  (version 2 and older: per sample zigzag deltas of timestamp, lat, lng and
+ *                  every value)
+ * GAP payload:     long timestamp of the last sample before the connection was lost, long
+ *                  timestamp it was back (nanos)
+ * </pre>
+ * Every block decodes on its own. Positions are stored in units of 1e-7 degree (about 1cm).
+ * Version 1 files have no crc after the blocks.
+ * Readers skip block types they don't know, so GAP blocks don't change the version.
+ */
+public final class BinaryRecordingFormat {
+    public static final int MAGIC = 0x42544D52; // "BTMR"
+    public static final short VERSION = 3;
+    public static final short FIRST_CHECKSUMMED_VERSION = 2;
+    public static final short FIRST_COLUMNAR_VERSION = 3;
+    public static final int HEADER_LENGTH = 4 + 2 + 8;
+
+    public static final byte BLOCK_CONFIG = 1;
+    public static final byte BLOCK_SAMPLES = 2;
+    public static final byte BLOCK_GAP = 3;
+    public static final int GAP_LENGTH = 8 + 8;
+    // block type byte + payload length
+    public static final int BLOCK_HEADER_LENGTH = 1 + 4;
+    public static final int BLOCK_CHECKSUM_LENGTH = 4;
+    // anything bigger is treated as corruption
+    public static final int MAX_BLOCK_LENGTH = 16 * 1024 * 1024;
+    // values per sample and samples per block, more is treated as corruption as well
+    public static final int MAX_CHANNELS = 1024;
+    public static final int MAX_SAMPLES_PER_BLOCK = 4096;
+
+    public static final double DEGREE_SCALE = 1e7;
+
+    private BinaryRecordingFormat() {
+    }
+
+    public static int encodeDegrees(double degrees) {
+        return (int) Math.round(degrees * DEGREE_SCALE);
+    }
+
+    public static double decodeDegrees(int units) {
+        return units / DEGREE_SCALE;
+    }
+
+    public static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    // writes an unsigned varint at pos, returns the position after it
+    public static int writeVarint(byte[] buffer, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[pos++] = (byte) value;
+        return pos;
+    }
+
+    public static int writeLong(byte[] buffer, int pos, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[pos++] = (byte) (value >>> shift);
+        }
+        return pos;
+    }
+
+    public static int writeInt(byte[] buffer, int pos, int value) {
+        buffer[pos++] = (byte) (value >>> 24);
+        buffer[pos++] = (byte) (value >>> 16);
+        buffer[pos++] = (byte) (value >>> 8);
+        buffer[pos++] = (byte) value;
+        return pos;
+    }
+
+    public static int readInt(byte[] buffer, int pos) {
+        return ((buffer[pos] & 0xFF) << 24) | ((buffer[pos + 1] & 0xFF) << 16)
+                | ((buffer[pos + 2] & 0xFF) << 8) | (buffer[pos + 3] & 0xFF);
+    }
+
+    public static long readLong(byte[] buffer, int pos) {
+        return ((long) readInt(buffer, pos) << 32) | (readInt(buffer, pos + 4) & 0xFFFFFFFFL);
+    }
+
+    public static void readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = in.read(buffer, offset, length);
+            if (read < 0) throw new EOFException();
+            offset += read;
+            length -= read;
+        }
+    }
+
+    // decodes a CONFIG payload into the given config, replacing its content
+    public static void readConfig(Cursor cursor, ChannelConfig config) throws IOException {
+        config.clear();
+        int count = (int) cursor.readVarint();
+        for (int i = 0; i < count; i++) {
+            int id = (int) cursor.readVarint();
+            int min = (int) cursor.readZigZag();
+            int max = (int) cursor.readZigZag();
+            int d = (int) cursor.readZigZag();
+            config.add(id, min, max);
+            config.putD(id, d);
+        }
+        config.setDeclaredChannels(count);
+    }
+
+    /**
+     * Sequential varint decoding over a byte array, reused between blocks.
+     */
+    public static class Cursor {
+        private byte[] buffer;
+        private int pos;
+        private int end;
+
+        public void reset(byte[] buffer, int offset, int length) {
+            this.buffer = buffer;
+            this.pos = offset;
+            this.end = offset + length;
+        }
+
+        public long readVarint() throws IOException {
+            long result = 0;
+            int shift = 0;
+            while (true) {
+                if (pos >= end || shift > 63) throw new IOException("Corrupt varint");
+                byte b = buffer[pos++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return result;
+                shift += 7;
+            }
+        }
+
+        public long readZigZag() throws IOException {
+            return unZigZag(readVarint());
+        }
+
+        public int readByte() throws IOException {
+            if (pos >= end) throw new IOException("Truncated block");
+            return buffer[pos++] & 0xFF;
+        }
+
+        public long readLong() throws IOException {
+            if (end - pos < 8) throw new IOException("Truncated block");
+            long value = BinaryRecordingFormat.readLong(buffer, pos);
+            pos += 8;
+            return value;
+        }
+
+        public boolean hasRemaining() {
+            return pos < end;
+        }
+
+        public int remaining() {
+            return end - pos;
+        }
+    }
+}
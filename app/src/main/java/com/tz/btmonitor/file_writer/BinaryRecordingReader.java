@@ -0,0 +1,142 @@
+package com.tz.btmonitor.file_writer;
+
+import com.tz.btmonitor.model.ChannelConfig;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Streams samples out of a {@link BinaryRecordingFormat} recording, one block at a time.
+ * Config blocks are applied to {@link #getConfig()} as they are passed.
+ */
+public class BinaryRecordingReader implements RecordingSource {
+    private final InputStream inputStream;
+    private final long startTimeMillis;
+    private final int version;
+    private final boolean checksummed;
+    private final CRC32 crc = new CRC32();
+    private final ChannelConfig config = new ChannelConfig();
+    private final byte[] blockHeader = new byte[BinaryRecordingFormat.BLOCK_HEADER_LENGTH];
+    private final BinaryRecordingFormat.Cursor cursor = new BinaryRecordingFormat.Cursor();
+    private byte[] block = new byte[4096];
+
+    // the current samples block, decoded as a whole
+    private final SampleBlock samples = new SampleBlock();
+    private int nextSample = 0;
+    private int configVersion = 0;
+    // gap read since the last returned sample
+    private long pendingGapNanos = 0;
+    private long gaps = 0;
+
+    public BinaryRecordingReader(InputStream inputStream) throws IOException {
+        this.inputStream = inputStream;
+        byte[] header = new byte[BinaryRecordingFormat.HEADER_LENGTH];
+        BinaryRecordingFormat.readFully(inputStream, header, 0, header.length);
+        if (BinaryRecordingFormat.readInt(header, 0) != BinaryRecordingFormat.MAGIC) {
+            throw new IOException("Not a binary recording");
+        }
+        version = ((header[4] & 0xFF) << 8) | (header[5] & 0xFF);
+        if (version > BinaryRecordingFormat.VERSION) {
+            throw new IOException("Unsupported recording version " + version);
+        }
+        startTimeMillis = BinaryRecordingFormat.readLong(header, 6);
+        checksummed = version >= BinaryRecordingFormat.FIRST_CHECKSUMMED_VERSION;
+    }
+
+    public long getStartTimeMillis() {
+        return startTimeMillis;
+    }
+
+    // latest config seen in the stream
+    @Override
+    public ChannelConfig getConfig() {
+        return config;
+    }
+
+    // GAP blocks passed so far
+    public long getGapCount() {
+        return gaps;
+    }
+
+    // incremented every time a config block was read
+    @Override
+    public int getConfigVersion() {
+        return configVersion;
+    }
+
+    /**
+     * Reads the next sample into the given holder.
+     *
+     * @return false at the end of the recording
+     */
+    @Override
+    public boolean next(RecordedSample sample) throws IOException {
+        while (nextSample == samples.size()) {
+            if (!readBlock()) return false;
+        }
+
+        samples.get(nextSample++, sample);
+        sample.gapNanos = pendingGapNanos;
+        pendingGapNanos = 0;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
+    private boolean readBlock() throws IOException {
+        int first = inputStream.read();
+        if (first < 0) return false;
+        blockHeader[0] = (byte) first;
+        try {
+            BinaryRecordingFormat.readFully(inputStream, blockHeader, 1, blockHeader.length - 1);
+        } catch (EOFException e) {
+            throw new IOException("Truncated block header", e);
+        }
+        int length = BinaryRecordingFormat.readInt(blockHeader, 1);
+        if (length < 0 || length > BinaryRecordingFormat.MAX_BLOCK_LENGTH) {
+            throw new IOException("Corrupt block length " + length);
+        }
+        int stored = checksummed ? length + BinaryRecordingFormat.BLOCK_CHECKSUM_LENGTH : length;
+        if (block.length < stored) block = new byte[Math.max(stored, block.length * 2)];
+        BinaryRecordingFormat.readFully(inputStream, block, 0, stored);
+        if (checksummed) {
+            crc.reset();
+            crc.update(blockHeader, 0, blockHeader.length);
+            crc.update(block, 0, length);
+            if ((int) crc.getValue() != BinaryRecordingFormat.readInt(block, length)) {
+                throw new IOException("Block checksum mismatch");
+            }
+        }
+        cursor.reset(block, 0, length);
+
+        switch (blockHeader[0]) {
+            case BinaryRecordingFormat.BLOCK_CONFIG:
+                readConfig();
+                break;
+            case BinaryRecordingFormat.BLOCK_SAMPLES:
+                samples.decode(cursor, version);
+                nextSample = 0;
+                break;
+            case BinaryRecordingFormat.BLOCK_GAP:
+                long from = cursor.readLong();
+                long to = cursor.readLong();
+                pendingGapNanos += Math.max(0, to - from);
+                gaps++;
+                break;
+            default:
+                // unknown block types are skipped, newer writers may add some
+                break;
+        }
+        return true;
+    }
+
+    private void readConfig() throws IOException {
+        BinaryRecordingFormat.readConfig(cursor, config);
+        configVersion++;
+    }
+}
@@ -0,0 +1,136 @@
+package com.tz.btmonitor.file_writer;
+
+import com.tz.btmonitor.model.ChannelSnapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Encodes samples into the {@link BinaryRecordingFormat}. Samples are collected into a block
+ * and written once the block is full, on {@link #flush()} or when the number of values per
+ * sample changes. Not thread safe.
+ */
+public class BinaryRecordingWriter implements Closeable {
+    public static final int DEFAULT_SAMPLES_PER_BLOCK = 256;
+
+    private final OutputStream outputStream;
+    private final int samplesPerBlock;
+    private final byte[] blockHeader = new byte[BinaryRecordingFormat.BLOCK_HEADER_LENGTH];
+    private final byte[] blockChecksum = new byte[BinaryRecordingFormat.BLOCK_CHECKSUM_LENGTH];
+    private final CRC32 crc = new CRC32();
+    private final SampleBlock pending = new SampleBlock();
+
+    private byte[] payload = new byte[4096];
+
+    private long bytesWritten = 0;
+    private long samplesWritten = 0;
+    private long blocksWritten = 0;
+
+    public BinaryRecordingWriter(OutputStream outputStream, long startTimeMillis) throws IOException {
+        this(outputStream, startTimeMillis, DEFAULT_SAMPLES_PER_BLOCK);
+    }
+
+    public BinaryRecordingWriter(OutputStream outputStream, long startTimeMillis, int samplesPerBlock) throws IOException {
+        if (samplesPerBlock < 1 || samplesPerBlock > BinaryRecordingFormat.MAX_SAMPLES_PER_BLOCK) {
+            throw new IllegalArgumentException("Samples per block out of range: " + samplesPerBlock);
+        }
+        this.outputStream = outputStream;
+        this.samplesPerBlock = samplesPerBlock;
+
+        byte[] header = new byte[BinaryRecordingFormat.HEADER_LENGTH];
+        int pos = BinaryRecordingFormat.writeInt(header, 0, BinaryRecordingFormat.MAGIC);
+        header[pos++] = (byte) (BinaryRecordingFormat.VERSION >>> 8);
+        header[pos++] = (byte) BinaryRecordingFormat.VERSION;
+        BinaryRecordingFormat.writeLong(header, pos, startTimeMillis);
+        outputStream.write(header);
+        bytesWritten += header.length;
+    }
+
+    // records the channel config, samples after it are interpreted with it
+    public void writeConfig(ChannelSnapshot config) throws IOException {
+        flushBlock();
+        int count = config.size();
+        byte[] payload = new byte[10 + count * 40];
+        int pos = BinaryRecordingFormat.writeVarint(payload, 0, count);
+        for (int i = 0; i < count; i++) {
+            pos = BinaryRecordingFormat.writeVarint(payload, pos, config.getId(i));
+            pos = BinaryRecordingFormat.writeVarint(payload, pos, BinaryRecordingFormat.zigZag(config.getMin(i)));
+            pos = BinaryRecordingFormat.writeVarint(payload, pos, BinaryRecordingFormat.zigZag(config.getMax(i)));
+            pos = BinaryRecordingFormat.writeVarint(payload, pos, BinaryRecordingFormat.zigZag(config.getD(i)));
+        }
+        writeBlock(BinaryRecordingFormat.BLOCK_CONFIG, payload, pos);
+    }
+
+    // marks samples missing between the two timestamps, e.g. while the device was reconnected
+    public void writeGap(long fromNanos, long toNanos) throws IOException {
+        flushBlock();
+        byte[] payload = new byte[BinaryRecordingFormat.GAP_LENGTH];
+        int pos = BinaryRecordingFormat.writeLong(payload, 0, fromNanos);
+        BinaryRecordingFormat.writeLong(payload, pos, toNanos);
+        writeBlock(BinaryRecordingFormat.BLOCK_GAP, payload, payload.length);
+    }
+
+    // encoded once the block is written, until then the sample is only copied
+    public void writeSample(long timestampNanos, double lat, double lng, int[] values, int count) throws IOException {
+        if (count < 0 || count > BinaryRecordingFormat.MAX_CHANNELS) {
+            throw new IllegalArgumentException("Value count out of range: " + count);
+        }
+        if (pending.size() > 0 && count != pending.getValueCount()) flushBlock();
+        if (pending.size() == 0) pending.clear(count);
+
+        pending.add(timestampNanos, BinaryRecordingFormat.encodeDegrees(lat), BinaryRecordingFormat.encodeDegrees(lng), values);
+        samplesWritten++;
+
+        if (pending.size() >= samplesPerBlock) flushBlock();
+    }
+
+    public void flush() throws IOException {
+        flushBlock();
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushBlock();
+        outputStream.close();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getSamplesWritten() {
+        return samplesWritten;
+    }
+
+    public long getBlocksWritten() {
+        return blocksWritten;
+    }
+
+    private void flushBlock() throws IOException {
+        if (pending.size() == 0) return;
+
+        int needed = pending.maxEncodedLength();
+        if (payload.length < needed) payload = new byte[Math.max(needed, payload.length * 2)];
+        int length = pending.encode(payload, 0);
+        pending.clear(0);
+        writeBlock(BinaryRecordingFormat.BLOCK_SAMPLES, payload, length);
+    }
+
+    private void writeBlock(byte type, byte[] payload, int payloadLength) throws IOException {
+        blockHeader[0] = type;
+        BinaryRecordingFormat.writeInt(blockHeader, 1, payloadLength);
+        crc.reset();
+        crc.update(blockHeader, 0, blockHeader.length);
+        crc.update(payload, 0, payloadLength);
+        BinaryRecordingFormat.writeInt(blockChecksum, 0, (int) crc.getValue());
+
+        outputStream.write(blockHeader);
+        outputStream.write(payload, 0, payloadLength);
+        outputStream.write(blockChecksum);
+        bytesWritten += blockHeader.length + payloadLength + blockChecksum.length;
+        blocksWritten++;
+    }
+}
@@ -0,0 +1,162 @@
+package com.tz.btmonitor.file_writer;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses everything written into a series of independent gzip members, one per block.
+ * <p>
+ * A member is finished when the block buffer is full or on {@link #flush()}, so a file that was
+ * cut off (crash, full storage) still decompresses up to its last complete member. Concatenated
+ * members are a valid gzip file, readable with {@link java.util.zip.GZIPInputStream} or zcat.
+ * <p>
+ * Compression happens on the thread that fills or flushes the block. Behind an
+ * {@link AsyncRecordingWriter} that is the writer thread, never the acquisition thread.
+ * Not thread safe.
+ */
+public class CompressingOutputStream extends FilterOutputStream {
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    private static final int GZIP_MAGIC = 0x8B1F;
+    private static final int GZIP_HEADER_LENGTH = 10;
+    private static final int GZIP_TRAILER_LENGTH = 8;
+    private static final double MEGABYTE = 1024 * 1024;
+
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] block;
+    private final byte[] compressed;
+    private int blockLength = 0;
+    private boolean closed = false;
+
+    private volatile long bytesIn = 0;
+    private volatile long bytesOut = 0;
+    private volatile long members = 0;
+    private volatile long compressNanos = 0;
+
+    public CompressingOutputStream(OutputStream out) {
+        this(out, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public CompressingOutputStream(OutputStream out, int blockSize, int level) {
+        super(out);
+        this.deflater = new Deflater(level, true);
+        this.block = new byte[blockSize];
+        this.compressed = new byte[blockSize / 2 + 64];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (blockLength == block.length) finishMember();
+        block[blockLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (blockLength == block.length) finishMember();
+            int n = Math.min(len, block.length - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        finishMember();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            finishMember();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    public long getMembers() {
+        return members;
+    }
+
+    // uncompressed / compressed size, 0 before the first member
+    public double getCompressionRatio() {
+        long out = bytesOut;
+        return out == 0 ? 0 : (double) bytesIn / out;
+    }
+
+    // time spent deflating per MB of input, on the compressing thread
+    public double getCompressNanosPerMegabyte() {
+        long in = bytesIn;
+        return in == 0 ? 0 : compressNanos / (in / MEGABYTE);
+    }
+
+    private void finishMember() throws IOException {
+        if (blockLength == 0) return;
+
+        // only crc and deflate are timed, the writes to the stream are I/O
+        long start = System.nanoTime();
+        crc.reset();
+        crc.update(block, 0, blockLength);
+        deflater.reset();
+        deflater.setInput(block, 0, blockLength);
+        deflater.finish();
+        long nanos = System.nanoTime() - start;
+
+        writeHeader();
+        long written = GZIP_HEADER_LENGTH;
+        while (!deflater.finished()) {
+            start = System.nanoTime();
+            int n = deflater.deflate(compressed, 0, compressed.length);
+            nanos += System.nanoTime() - start;
+            out.write(compressed, 0, n);
+            written += n;
+        }
+        writeTrailer((int) crc.getValue(), blockLength);
+        written += GZIP_TRAILER_LENGTH;
+
+        compressNanos += nanos;
+        bytesIn += blockLength;
+        bytesOut += written;
+        members++;
+        blockLength = 0;
+    }
+
+    private void writeHeader() throws IOException {
+        byte[] header = compressed;
+        header[0] = (byte) GZIP_MAGIC;
+        header[1] = (byte) (GZIP_MAGIC >> 8);
+        header[2] = Deflater.DEFLATED;
+        // flags, mtime, extra flags
+        for (int i = 3; i < 9; i++) header[i] = 0;
+        // os: unknown
+        header[9] = (byte) 0xFF;
+        out.write(header, 0, GZIP_HEADER_LENGTH);
+    }
+
+    // little endian crc32 and input size
+    private void writeTrailer(int checksum, int size) throws IOException {
+        byte[] trailer = compressed;
+        for (int i = 0; i < 4; i++) {
+            trailer[i] = (byte) (checksum >>> (8 * i));
+            trailer[4 + i] = (byte) (size >>> (8 * i));
+        }
+        out.write(trailer, 0, GZIP_TRAILER_LENGTH);
+    }
+}
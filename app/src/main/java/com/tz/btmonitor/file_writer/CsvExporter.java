@@ -0,0 +1,46 @@
+package com.tz.btmonitor.file_writer;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams a binary recording out as the same CSV rows FileWriter writes
+ * ("timestampNanos,lat,lng,v0,v1,...", see {@link CsvFormat}). The leading timestamp column is
+ * new, readers of the older "lat,lng,v0,..." rows have to skip it.
+ * A recorded gap becomes a "# gap &lt;ms&gt; ms" row before the first sample after it.
+ */
+public class CsvExporter {
+
+    public static String gapRow(long gapNanos) {
+        return "# gap " + TimeUnit.NANOSECONDS.toMillis(gapNanos) + " ms";
+    }
+
+    /**
+     * Converts the whole recording. Neither stream is closed.
+     *
+     * @return number of exported rows
+     */
+    public static long export(InputStream binary, OutputStream csv) throws IOException {
+        BinaryRecordingReader reader = new BinaryRecordingReader(binary);
+        BufferedOutputStream out = new BufferedOutputStream(csv, 64 * 1024);
+        RecordedSample sample = new RecordedSample();
+        byte[] row = new byte[CsvFormat.maxRowLength(16)];
+        long rows = 0;
+        while (reader.next(sample)) {
+            if (sample.gapNanos > 0) {
+                int length = CsvFormat.putAscii(row, 0, gapRow(sample.gapNanos));
+                row[length++] = '\n';
+                out.write(row, 0, length);
+            }
+            if (row.length < CsvFormat.maxRowLength(sample.count)) row = new byte[CsvFormat.maxRowLength(sample.count)];
+            int length = CsvFormat.putSampleRow(row, 0, sample.timestampNanos, sample.lat, sample.lng, sample.values, sample.count);
+            out.write(row, 0, length);
+            rows++;
+        }
+        out.flush();
+        return rows;
+    }
+}
@@ -0,0 +1,99 @@
+package com.tz.btmonitor.file_writer;
+
+/**
+ * Encodes the CSV sample row "timestampNanos,lat,lng,v0,v1,..." straight into a byte array,
+ * without a String per number. Positions get 7 decimals (about 1cm, as binary recordings keep
+ * them), trailing zeros are cut.
+ * <p>
+ * The leading timestamp column was added after the first releases, files written before start
+ * with lat. Readers that take the first two columns as "lat,lng" have to skip the timestamp.
+ * <p>
+ * Where samples are missing (the connection was lost and restored) a recording or an export
+ * holds a single-column "# gap &lt;ms&gt; ms" row, see {@link CsvExporter#gapRow(long)}. Readers
+ * expecting only sample rows have to skip lines starting with '#'.
+ */
+final class CsvFormat {
+    static final int LAT_LNG_DECIMALS = 7;
+    // sign, 19 digits
+    static final int MAX_LONG_BYTES = 20;
+    // sign, up to 19 integer digits, point, up to 9 decimals, or Double.toString
+    static final int MAX_DOUBLE_BYTES = 32;
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L
+    };
+
+    private CsvFormat() {
+    }
+
+    // bytes a sample row of count values takes at most, separators and newline included
+    static int maxRowLength(int count) {
+        return MAX_LONG_BYTES + 2 * MAX_DOUBLE_BYTES + count * (MAX_LONG_BYTES + 1) + 3;
+    }
+
+    // the whole row with its newline, returns the position after it
+    static int putSampleRow(byte[] buffer, int pos, long timestampNanos, double lat, double lng, int[] values, int count) {
+        pos = putLong(buffer, pos, timestampNanos);
+        buffer[pos++] = ',';
+        pos = putDouble(buffer, pos, lat, LAT_LNG_DECIMALS);
+        buffer[pos++] = ',';
+        pos = putDouble(buffer, pos, lng, LAT_LNG_DECIMALS);
+        for (int i = 0; i < count; i++) {
+            buffer[pos++] = ',';
+            pos = putLong(buffer, pos, values[i]);
+        }
+        buffer[pos++] = '\n';
+        return pos;
+    }
+
+    static int putLong(byte[] buffer, int pos, long value) {
+        if (value == Long.MIN_VALUE) return putAscii(buffer, pos, "-9223372036854775808");
+        if (value < 0) {
+            buffer[pos++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) digits++;
+        int end = pos + digits;
+        for (int p = end - 1; p >= pos; p--) {
+            buffer[p] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    /**
+     * Rounds to the given decimals (1..9) and cuts trailing zeros, keeping at least one decimal.
+     * NaN, infinities and values too big to scale fall back to Double.toString.
+     */
+    static int putDouble(byte[] buffer, int pos, double value, int decimals) {
+        long scale = POWERS_OF_TEN[decimals];
+        if (Double.isNaN(value) || Math.abs(value) >= (double) (Long.MAX_VALUE / scale)) {
+            return putAscii(buffer, pos, Double.toString(value));
+        }
+        long scaled = Math.round(Math.abs(value) * scale);
+        if (value < 0 && scaled != 0) buffer[pos++] = '-';
+        pos = putLong(buffer, pos, scaled / scale);
+        buffer[pos++] = '.';
+
+        long fraction = scaled % scale;
+        int digits = decimals;
+        while (digits > 1 && fraction % 10 == 0) {
+            fraction /= 10;
+            digits--;
+        }
+        int end = pos + digits;
+        for (int p = end - 1; p >= pos; p--) {
+            buffer[p] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        return end;
+    }
+
+    static int putAscii(byte[] buffer, int pos, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            buffer[pos++] = c < 128 ? (byte) c : (byte) '?';
+        }
+        return pos;
+    }
+}
@@ -4,11 +4,19 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
 import android.provider.OpenableColumns;
+import android.system.ErrnoException;
+import android.system.Os;
 
+import com.tz.btmonitor.model.ChannelSnapshot;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public class FileWriter {
@@ -16,6 +24,11 @@ public class FileWriter {
     private final Uri uri;
     private final String fileName;
     private OutputStream outputStream;
+    private CompressingOutputStream compressor;
+    private AsyncRecordingWriter asyncWriter;
+    private BinaryRecordingWriter binaryWriter;
+    // csv rows without async mode are encoded here
+    private byte[] rowBuffer = new byte[CsvFormat.maxRowLength(16)];
 
     public FileWriter(Context context, Uri uri) {
         this.context = context;
@@ -37,8 +50,137 @@ public class FileWriter {
         }
     }
 
-    public void write(List<String[]> data) {
-        if (outputStream != null) {
+    /**
+     * Makes flushes reach the storage device according to the {@link SyncingOutputStream} policy.
+     * Has to be enabled first, before compressed, async and binary mode. Combined with binary
+     * mode every block is checksummed, so {@link #recover(Context, Uri)} can cut a crashed
+     * recording back to its last complete block.
+     */
+    public synchronized void enableDurableMode(int syncPolicy, long syncIntervalMillis) {
+        if (outputStream == null || outputStream instanceof SyncingOutputStream) return;
+        if (compressor != null || asyncWriter != null || binaryWriter != null) {
+            throw new IllegalStateException("Durable mode has to be enabled before compressed, async and binary mode");
+        }
+        outputStream = new SyncingOutputStream(outputStream, syncPolicy, syncIntervalMillis);
+    }
+
+    /**
+     * Gzip compresses the recording in blocks, see {@link CompressingOutputStream}. Has to be
+     * enabled after durable mode and before async and binary mode, async mode then runs the
+     * compression on its writer thread.
+     */
+    public synchronized void enableCompressedMode() {
+        if (outputStream == null || compressor != null) return;
+        if (asyncWriter != null || binaryWriter != null) {
+            throw new IllegalStateException("Compressed mode has to be enabled before async and binary mode");
+        }
+        compressor = new CompressingOutputStream(outputStream);
+        outputStream = compressor;
+    }
+
+    // null unless compressed mode is enabled, keeps its stats after close
+    public CompressingOutputStream getCompressor() {
+        return compressor;
+    }
+
+    /**
+     * Switches to buffered writing on a background thread, see {@link AsyncRecordingWriter}.
+     * From now on write calls only encode into memory, call {@link #flush()} or {@link #close()}
+     * to make sure everything reached the file.
+     */
+    public synchronized void enableAsyncMode() {
+        if (asyncWriter == null && outputStream != null) {
+            asyncWriter = new AsyncRecordingWriter(outputStream);
+        }
+    }
+
+    // null unless async mode is enabled
+    public AsyncRecordingWriter getAsyncWriter() {
+        return asyncWriter;
+    }
+
+    /**
+     * Records samples in the compact {@link BinaryRecordingFormat} instead of CSV, use
+     * {@link CsvExporter} to get CSV back. Has to be enabled before anything is written,
+     * after {@link #enableAsyncMode()} if both are wanted.
+     */
+    public synchronized void enableBinaryMode() {
+        if (binaryWriter != null || outputStream == null) return;
+        try {
+            OutputStream target = asyncWriter != null ? asyncWriter.asOutputStream() : outputStream;
+            binaryWriter = new BinaryRecordingWriter(target, System.currentTimeMillis());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public boolean isBinaryMode() {
+        return binaryWriter != null;
+    }
+
+    // binary recordings keep the config with the data, csv has no place for it
+    public synchronized void writeConfig(ChannelSnapshot config) {
+        if (binaryWriter == null) return;
+        try {
+            binaryWriter.writeConfig(config);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes one sample read at timestampNanos (System.nanoTime), as a
+     * "timestampNanos,lat,lng,v0,v1,..." row in csv mode. Nothing is allocated per sample.
+     */
+    public synchronized void writeSample(long timestampNanos, double lat, double lng, int[] values, int count) {
+        if (asyncWriter != null) asyncWriter.noteSampleTimestamp(timestampNanos);
+        if (binaryWriter != null) {
+            try {
+                binaryWriter.writeSample(timestampNanos, lat, lng, values, count);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        if (asyncWriter != null) {
+            asyncWriter.writeSampleRow(timestampNanos, lat, lng, values, count);
+            return;
+        }
+
+        if (outputStream == null) {
+            System.err.println("Error: Stream is not open for writing.");
+            return;
+        }
+        if (rowBuffer.length < CsvFormat.maxRowLength(count)) rowBuffer = new byte[CsvFormat.maxRowLength(count)];
+        int length = CsvFormat.putSampleRow(rowBuffer, 0, timestampNanos, lat, lng, values, count);
+        try {
+            outputStream.write(rowBuffer, 0, length);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // samples missing between the two timestamps, a GAP block in binary mode, in csv a one-column
+    // "# gap <ms> ms" row among the sample rows (see CsvFormat), readers skip lines starting with '#'
+    public synchronized void writeGap(long fromNanos, long toNanos) {
+        if (binaryWriter != null) {
+            try {
+                binaryWriter.writeGap(fromNanos, toNanos);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        write(Collections.singletonList(new String[]{CsvExporter.gapRow(toNanos - fromNanos)}));
+    }
+
+    public synchronized void write(List<String[]> data) {
+        if (asyncWriter != null) {
+            for (String[] row : data) {
+                asyncWriter.writeRow(row);
+            }
+        } else if (outputStream != null) {
             try {
                 for (String[] row : data) {
                     outputStream.write(String.join(",", Arrays.asList(row)).getBytes());
@@ -53,13 +195,40 @@ public class FileWriter {
         }
     }
 
-    public void close() {
+    public synchronized void flush() {
+        try {
+            if (binaryWriter != null) {
+                binaryWriter.flush();
+            }
+            if (asyncWriter != null) {
+                asyncWriter.flush();
+            } else if (outputStream != null) {
+                outputStream.flush();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public synchronized void close() {
         if (outputStream != null) {
             try {
-                outputStream.close();
+                if (binaryWriter != null) {
+                    // writes the pending block, the stream is closed below
+                    binaryWriter.flush();
+                }
+                if (asyncWriter != null) {
+                    // drains the buffered rows and closes the stream
+                    asyncWriter.close();
+                } else {
+                    outputStream.close();
+                }
             } catch (IOException e) {
                 e.printStackTrace();
             }
+            outputStream = null;
+            asyncWriter = null;
+            binaryWriter = null;
         }
     }
 
@@ -76,6 +245,30 @@ public class FileWriter {
         return displayName;
     }
 
+    /**
+     * Truncates a binary recording that was not closed cleanly to its last valid block.
+     * Does blocking I/O, don't call it on the main thread.
+     */
+    public static RecordingRecovery.Result recover(Context context, Uri uri) throws IOException {
+        try (ParcelFileDescriptor descriptor = context.getContentResolver().openFileDescriptor(uri, "rw")) {
+            if (descriptor == null) throw new IOException("Can't open " + uri);
+            FileDescriptor fd = descriptor.getFileDescriptor();
+            // content uris only hand out a descriptor, so truncate through it rather than a channel
+            RecordingRecovery.Result result = RecordingRecovery.scan(new FileInputStream(fd).getChannel());
+            if (result.recognized && result.wasTruncated()) {
+                Os.ftruncate(fd, result.validLength);
+                Os.fsync(fd);
+            }
+            return result;
+        } catch (ErrnoException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public Uri getUri() {
+        return uri;
+    }
+
     public String getFileName() {
         return fileName;
     }
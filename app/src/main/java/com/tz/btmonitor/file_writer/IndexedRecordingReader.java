@@ -0,0 +1,256 @@
+package com.tz.btmonitor.file_writer;
+
+import com.tz.btmonitor.model.ChannelConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Random access to a binary recording through memory mapping and a {@link RecordingIndex}.
+ * <p>
+ * {@link #seek(long)} binary searches the index for the block holding the timestamp and decodes
+ * only that block, so reading a time range costs O(log blocks) plus the range itself,
+ * whatever the size of the recording. The index is loaded from its ".idx" file, or built from the
+ * block headers (payloads are skipped) and saved there when it is missing or stale.
+ * <p>
+ * Gap blocks are not indexed, samples read here always have {@link RecordedSample#gapNanos} 0.
+ * <p>
+ * The file is mapped in windows that are moved along with the reads, which keeps recordings
+ * bigger than 2 GB (the limit of one mapping) readable. Not thread safe.
+ */
+public class IndexedRecordingReader implements RecordingSource {
+    public static final int WINDOW_SIZE = 64 * 1024 * 1024;
+    // varint count + varint values per sample + first timestamp
+    private static final int SAMPLES_PREFIX_MAX_LENGTH = 10 + 10 + 8;
+
+    public interface SampleVisitor {
+        void onSample(RecordedSample sample);
+    }
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long size;
+    private final int version;
+    private final boolean checksummed;
+    private final RecordingIndex index;
+    private final CRC32 crc = new CRC32();
+    private final ChannelConfig config = new ChannelConfig();
+    private final BinaryRecordingFormat.Cursor cursor = new BinaryRecordingFormat.Cursor();
+    private final byte[] blockHeader = new byte[BinaryRecordingFormat.BLOCK_HEADER_LENGTH];
+    private byte[] block = new byte[4096];
+
+    private MappedByteBuffer window;
+    private long windowStart = 0;
+    private long windowEnd = 0;
+
+    // decoding state
+    private int currentBlock = -1;
+    private long currentConfigOffset = RecordingIndex.NO_CONFIG;
+    private int configVersion = 0;
+    private final SampleBlock samples = new SampleBlock();
+    // the sample next() returns, samples.size() once the block is used up
+    private int nextSample = 0;
+
+    public IndexedRecordingReader(File recording) throws IOException {
+        file = new RandomAccessFile(recording, "r");
+        try {
+            channel = file.getChannel();
+            size = channel.size();
+            byte[] header = new byte[BinaryRecordingFormat.HEADER_LENGTH];
+            if (size < header.length) throw new IOException("Not a binary recording");
+            read(0, header, header.length);
+            if (BinaryRecordingFormat.readInt(header, 0) != BinaryRecordingFormat.MAGIC) {
+                throw new IOException("Not a binary recording");
+            }
+            version = ((header[4] & 0xFF) << 8) | (header[5] & 0xFF);
+            if (version > BinaryRecordingFormat.VERSION) {
+                throw new IOException("Unsupported recording version " + version);
+            }
+            checksummed = version >= BinaryRecordingFormat.FIRST_CHECKSUMMED_VERSION;
+            index = loadIndex(recording);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        seekToBlock(0);
+    }
+
+    public RecordingIndex getIndex() {
+        return index;
+    }
+
+    // config in effect at the current position, empty before the first config block
+    @Override
+    public ChannelConfig getConfig() {
+        return config;
+    }
+
+    @Override
+    public int getConfigVersion() {
+        return configVersion;
+    }
+
+    /**
+     * Positions the reader on the first sample at or after the timestamp. {@link #next} returns
+     * false afterwards if there is none.
+     */
+    public void seek(long timestampNanos) throws IOException {
+        int first = index.findBlock(timestampNanos);
+        if (first < 0) return;
+        seekToBlock(first);
+        while (nextBlockSample()) {
+            if (samples.getTimestamp(nextSample) >= timestampNanos) return;
+            nextSample++;
+        }
+    }
+
+    /**
+     * Reads the next sample into the given holder.
+     *
+     * @return false at the end of the recording
+     */
+    @Override
+    public boolean next(RecordedSample sample) throws IOException {
+        if (!nextBlockSample()) return false;
+        samples.get(nextSample++, sample);
+        sample.gapNanos = 0;
+        return true;
+    }
+
+    /**
+     * Visits every sample with fromNanos &lt;= timestamp &lt;= toNanos, the holder passed to the
+     * visitor is reused. Leaves the reader after the range.
+     *
+     * @return number of samples visited
+     */
+    public long readRange(long fromNanos, long toNanos, SampleVisitor visitor) throws IOException {
+        seek(fromNanos);
+        RecordedSample sample = new RecordedSample();
+        long count = 0;
+        while (next(sample) && sample.timestampNanos <= toNanos) {
+            visitor.onSample(sample);
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        file.close();
+    }
+
+    private RecordingIndex loadIndex(File recording) throws IOException {
+        File indexFile = RecordingIndex.indexFileFor(recording);
+        RecordingIndex loaded = null;
+        try {
+            loaded = RecordingIndex.read(indexFile, size);
+        } catch (IOException e) {
+            // broken index, rebuilt below
+        }
+        if (loaded != null) return loaded;
+
+        RecordingIndex built = buildIndex();
+        try {
+            built.write(indexFile);
+        } catch (IOException e) {
+            // read only location, the index is rebuilt next time
+            indexFile.delete();
+        }
+        return built;
+    }
+
+    private RecordingIndex buildIndex() throws IOException {
+        RecordingIndex built = new RecordingIndex();
+        byte[] prefix = new byte[SAMPLES_PREFIX_MAX_LENGTH];
+        int trailer = checksummed ? BinaryRecordingFormat.BLOCK_CHECKSUM_LENGTH : 0;
+        long pos = BinaryRecordingFormat.HEADER_LENGTH;
+        while (pos + BinaryRecordingFormat.BLOCK_HEADER_LENGTH <= size) {
+            read(pos, blockHeader, blockHeader.length);
+            int length = BinaryRecordingFormat.readInt(blockHeader, 1);
+            long end = pos + BinaryRecordingFormat.BLOCK_HEADER_LENGTH + length + trailer;
+            // a torn tail block is left out, like the stream reader would fail on it
+            if (length < 0 || length > BinaryRecordingFormat.MAX_BLOCK_LENGTH || end > size) break;
+
+            if (blockHeader[0] == BinaryRecordingFormat.BLOCK_CONFIG) {
+                built.addConfig(pos);
+            } else if (blockHeader[0] == BinaryRecordingFormat.BLOCK_SAMPLES) {
+                int prefixLength = Math.min(length, prefix.length);
+                read(pos + BinaryRecordingFormat.BLOCK_HEADER_LENGTH, prefix, prefixLength);
+                cursor.reset(prefix, 0, prefixLength);
+                int count = (int) cursor.readVarint();
+                cursor.readVarint();
+                built.addBlock(pos, cursor.readLong(), count);
+            }
+            pos = end;
+        }
+        built.setRecordingLength(size);
+        return built;
+    }
+
+    private void seekToBlock(int blockIndex) throws IOException {
+        samples.clear(0);
+        nextSample = 0;
+        currentBlock = blockIndex - 1;
+        if (blockIndex < index.getBlockCount()) applyConfig(index.getConfigOffset(blockIndex));
+    }
+
+    // decodes blocks until nextSample points at a sample, false at the end of the recording
+    private boolean nextBlockSample() throws IOException {
+        while (nextSample == samples.size()) {
+            if (currentBlock + 1 >= index.getBlockCount()) return false;
+            currentBlock++;
+            applyConfig(index.getConfigOffset(currentBlock));
+            loadBlock(index.getBlockOffset(currentBlock));
+            samples.decode(cursor, version);
+            nextSample = 0;
+        }
+        return true;
+    }
+
+    private void applyConfig(long offset) throws IOException {
+        if (offset == currentConfigOffset) return;
+        if (offset == RecordingIndex.NO_CONFIG) {
+            config.clear();
+        } else {
+            loadBlock(offset);
+            BinaryRecordingFormat.readConfig(cursor, config);
+        }
+        currentConfigOffset = offset;
+        configVersion++;
+    }
+
+    // copies the block payload out of the mapping, verifies it and points the cursor at it
+    private void loadBlock(long offset) throws IOException {
+        read(offset, blockHeader, blockHeader.length);
+        int length = BinaryRecordingFormat.readInt(blockHeader, 1);
+        int stored = checksummed ? length + BinaryRecordingFormat.BLOCK_CHECKSUM_LENGTH : length;
+        if (block.length < stored) block = new byte[Math.max(stored, block.length * 2)];
+        read(offset + BinaryRecordingFormat.BLOCK_HEADER_LENGTH, block, stored);
+        if (checksummed) {
+            crc.reset();
+            crc.update(blockHeader, 0, blockHeader.length);
+            crc.update(block, 0, length);
+            if ((int) crc.getValue() != BinaryRecordingFormat.readInt(block, length)) {
+                throw new IOException("Block checksum mismatch at " + offset);
+            }
+        }
+        cursor.reset(block, 0, length);
+    }
+
+    private void read(long position, byte[] target, int length) throws IOException {
+        if (position < windowStart || position + length > windowEnd) {
+            long mapLength = Math.min(Math.max(WINDOW_SIZE, length), size - position);
+            if (mapLength < length) throw new IOException("Truncated block at " + position);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, mapLength);
+            windowStart = position;
+            windowEnd = position + mapLength;
+        }
+        window.position((int) (position - windowStart));
+        window.get(target, 0, length);
+    }
+}
@@ -0,0 +1,20 @@
+package com.tz.btmonitor.file_writer;
+
+/**
+ * One sample read back from a recording. Readers fill the same instance over and over.
+ */
+public class RecordedSample {
+    public long timestampNanos;
+    public double lat;
+    public double lng;
+    public int[] values = new int[0];
+    public int count;
+    // length of a recorded gap right before this sample, 0 if there was none
+    public long gapNanos;
+
+    void ensureCapacity(int valueCount) {
+        if (values.length < valueCount) {
+            values = new int[valueCount];
+        }
+    }
+}
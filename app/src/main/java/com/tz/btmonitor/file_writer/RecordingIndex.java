@@ -0,0 +1,162 @@
+package com.tz.btmonitor.file_writer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Sparse time index of a binary recording: file offset, first timestamp and sample count of
+ * every samples block (one entry per {@link BinaryRecordingWriter#DEFAULT_SAMPLES_PER_BLOCK}
+ * samples), plus the offsets of the config blocks.
+ * <p>
+ * Stored next to the recording as "&lt;name&gt;.idx". An index is only valid for the recording
+ * length it was built for, a longer or shorter file means it has to be rebuilt.
+ */
+public class RecordingIndex {
+    public static final String FILE_SUFFIX = ".idx";
+    private static final int MAGIC = 0x42544D49; // "BTMI"
+    private static final int VERSION = 1;
+    public static final int NO_CONFIG = -1;
+
+    private long recordingLength;
+    private int blockCount = 0;
+    private long[] blockOffsets = new long[64];
+    private long[] firstTimestamps = new long[64];
+    private int[] sampleCounts = new int[64];
+    // index into configOffsets of the config in effect for each block
+    private int[] blockConfigs = new int[64];
+    private int configCount = 0;
+    private long[] configOffsets = new long[4];
+
+    public static File indexFileFor(File recording) {
+        return new File(recording.getPath() + FILE_SUFFIX);
+    }
+
+    void addConfig(long offset) {
+        if (configCount == configOffsets.length) configOffsets = Arrays.copyOf(configOffsets, configCount * 2);
+        configOffsets[configCount++] = offset;
+    }
+
+    void addBlock(long offset, long firstTimestamp, int sampleCount) {
+        if (blockCount == blockOffsets.length) {
+            int capacity = blockCount * 2;
+            blockOffsets = Arrays.copyOf(blockOffsets, capacity);
+            firstTimestamps = Arrays.copyOf(firstTimestamps, capacity);
+            sampleCounts = Arrays.copyOf(sampleCounts, capacity);
+            blockConfigs = Arrays.copyOf(blockConfigs, capacity);
+        }
+        blockOffsets[blockCount] = offset;
+        firstTimestamps[blockCount] = firstTimestamp;
+        sampleCounts[blockCount] = sampleCount;
+        blockConfigs[blockCount] = configCount - 1;
+        blockCount++;
+    }
+
+    void setRecordingLength(long recordingLength) {
+        this.recordingLength = recordingLength;
+    }
+
+    public long getRecordingLength() {
+        return recordingLength;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public long getBlockOffset(int block) {
+        return blockOffsets[block];
+    }
+
+    public long getFirstTimestamp(int block) {
+        return firstTimestamps[block];
+    }
+
+    public int getSampleCount(int block) {
+        return sampleCounts[block];
+    }
+
+    // offset of the config block in effect for the given block, or NO_CONFIG
+    public long getConfigOffset(int block) {
+        int config = blockConfigs[block];
+        return config == NO_CONFIG ? NO_CONFIG : configOffsets[config];
+    }
+
+    public long getTotalSamples() {
+        long total = 0;
+        for (int i = 0; i < blockCount; i++) total += sampleCounts[i];
+        return total;
+    }
+
+    /**
+     * Last block whose first sample is at or before the timestamp, the first block if the
+     * timestamp is earlier than everything, -1 if there are no blocks.
+     */
+    public int findBlock(long timestampNanos) {
+        int low = 0;
+        int high = blockCount - 1;
+        int found = blockCount > 0 ? 0 : -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (firstTimestamps[mid] <= timestampNanos) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    public void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(recordingLength);
+            out.writeInt(configCount);
+            for (int i = 0; i < configCount; i++) out.writeLong(configOffsets[i]);
+            out.writeInt(blockCount);
+            for (int i = 0; i < blockCount; i++) {
+                out.writeLong(blockOffsets[i]);
+                out.writeLong(firstTimestamps[i]);
+                out.writeInt(sampleCounts[i]);
+                out.writeInt(blockConfigs[i]);
+            }
+        }
+    }
+
+    // null if the file is missing, not an index or was built for another recording length
+    public static RecordingIndex read(File file, long recordingLength) throws IOException {
+        if (!file.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != recordingLength) {
+                return null;
+            }
+            RecordingIndex index = new RecordingIndex();
+            index.recordingLength = recordingLength;
+            int configs = in.readInt();
+            index.configOffsets = new long[Math.max(configs, 1)];
+            for (int i = 0; i < configs; i++) index.configOffsets[i] = in.readLong();
+            index.configCount = configs;
+            int blocks = in.readInt();
+            index.blockOffsets = new long[Math.max(blocks, 1)];
+            index.firstTimestamps = new long[index.blockOffsets.length];
+            index.sampleCounts = new int[index.blockOffsets.length];
+            index.blockConfigs = new int[index.blockOffsets.length];
+            for (int i = 0; i < blocks; i++) {
+                index.blockOffsets[i] = in.readLong();
+                index.firstTimestamps[i] = in.readLong();
+                index.sampleCounts[i] = in.readInt();
+                index.blockConfigs[i] = in.readInt();
+            }
+            index.blockCount = blocks;
+            return index;
+        }
+    }
+}
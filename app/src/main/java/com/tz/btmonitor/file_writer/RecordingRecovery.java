@@ -0,0 +1,130 @@
+package com.tz.btmonitor.file_writer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Checks a binary recording block by block and cuts it back to the last block whose
+ * checksum is valid. Used on start for recordings that were not closed cleanly.
+ * <p>
+ * The scan goes on past the first broken block as long as the block framing holds, so
+ * {@link Result#lostSamples} counts everything the cut drops, not only the broken block.
+ */
+public class RecordingRecovery {
+
+    public static class Result {
+        // false if the file isn't a checksummed binary recording, nothing was touched then
+        public boolean recognized;
+        public long validLength;
+        public long truncatedBytes;
+        public int validBlocks;
+        public long validSamples;
+        // samples declared by the broken block and every block cut off behind it, as far as
+        // their headers were still readable
+        public long lostSamples;
+
+        public boolean wasTruncated() {
+            return truncatedBytes > 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{recognized=" + recognized +
+                    ", validLength=" + validLength +
+                    ", truncatedBytes=" + truncatedBytes +
+                    ", validBlocks=" + validBlocks +
+                    ", validSamples=" + validSamples +
+                    ", lostSamples=" + lostSamples +
+                    '}';
+        }
+    }
+
+    /**
+     * Scans the recording and truncates the channel to the end of the last valid block.
+     * The channel has to be opened for reading and writing.
+     */
+    public static Result recover(FileChannel channel) throws IOException {
+        Result result = scan(channel);
+        if (result.recognized && result.truncatedBytes > 0) {
+            channel.truncate(result.validLength);
+            channel.force(true);
+        }
+        return result;
+    }
+
+    // like recover, without modifying anything
+    public static Result scan(FileChannel channel) throws IOException {
+        Result result = new Result();
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(BinaryRecordingFormat.HEADER_LENGTH);
+        if (!readFully(channel, header, 0)
+                || header.getInt(0) != BinaryRecordingFormat.MAGIC
+                || header.getShort(4) < BinaryRecordingFormat.FIRST_CHECKSUMMED_VERSION) {
+            return result;
+        }
+        result.recognized = true;
+
+        ByteBuffer blockHeader = ByteBuffer.allocate(BinaryRecordingFormat.BLOCK_HEADER_LENGTH);
+        ByteBuffer block = ByteBuffer.allocate(64 * 1024);
+        BinaryRecordingFormat.Cursor cursor = new BinaryRecordingFormat.Cursor();
+        CRC32 crc = new CRC32();
+        long pos = BinaryRecordingFormat.HEADER_LENGTH;
+        // start of the first broken block, everything from here is cut
+        long brokenAt = -1;
+        while (pos < size) {
+            blockHeader.clear();
+            if (!readFully(channel, blockHeader, pos)) break;
+            int length = blockHeader.getInt(1);
+            long stored = (long) length + BinaryRecordingFormat.BLOCK_CHECKSUM_LENGTH;
+            if (length < 0 || length > BinaryRecordingFormat.MAX_BLOCK_LENGTH) break;
+
+            if (block.capacity() < stored) block = ByteBuffer.allocate((int) stored);
+            block.clear();
+            block.limit((int) stored);
+            boolean complete = readFully(channel, block, pos + BinaryRecordingFormat.BLOCK_HEADER_LENGTH);
+            byte[] data = block.array();
+            cursor.reset(data, 0, complete ? length : block.position());
+            long samples = blockHeader.get(0) == BinaryRecordingFormat.BLOCK_SAMPLES ? declaredSamples(cursor) : 0;
+
+            if (!complete) {
+                result.lostSamples += samples;
+                break;
+            }
+            crc.reset();
+            crc.update(blockHeader.array(), 0, BinaryRecordingFormat.BLOCK_HEADER_LENGTH);
+            crc.update(data, 0, length);
+            if ((int) crc.getValue() != BinaryRecordingFormat.readInt(data, length)) {
+                if (brokenAt < 0) brokenAt = pos;
+                result.lostSamples += samples;
+            } else if (brokenAt >= 0) {
+                result.lostSamples += samples;
+            } else {
+                result.validBlocks++;
+                result.validSamples += samples;
+            }
+            pos += BinaryRecordingFormat.BLOCK_HEADER_LENGTH + stored;
+        }
+
+        result.validLength = brokenAt >= 0 ? brokenAt : Math.min(pos, size);
+        result.truncatedBytes = size - result.validLength;
+        return result;
+    }
+
+    private static long declaredSamples(BinaryRecordingFormat.Cursor cursor) {
+        try {
+            return cursor.readVarint();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) return false;
+        }
+        return true;
+    }
+}
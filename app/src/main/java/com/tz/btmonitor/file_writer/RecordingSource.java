@@ -0,0 +1,24 @@
+package com.tz.btmonitor.file_writer;
+
+import com.tz.btmonitor.model.ChannelConfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Sequential access to the samples of a recording, whatever it is stored in.
+ */
+public interface RecordingSource extends Closeable {
+    /**
+     * Reads the next sample into the given holder.
+     *
+     * @return false at the end of the recording
+     */
+    boolean next(RecordedSample sample) throws IOException;
+
+    // config in effect for the last sample read
+    ChannelConfig getConfig();
+
+    // changes whenever getConfig() got a new config
+    int getConfigVersion();
+}
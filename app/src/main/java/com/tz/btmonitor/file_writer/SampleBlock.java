@@ -0,0 +1,239 @@
+package com.tz.btmonitor.file_writer;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The samples of one SAMPLES block, collected by {@link BinaryRecordingWriter} and encoded
+ * column by column, or decoded by the readers (both layouts, see {@link BinaryRecordingFormat}).
+ * <p>
+ * A column stores the deltas of one field as offsets from their smallest one, bit packed at the
+ * width the largest offset needs. A steady sample rate costs no bits for the timestamps, a
+ * value that moves by a few counts per sample a few bits. Not thread safe.
+ */
+final class SampleBlock {
+    private int count = 0;
+    private int valueCount = 0;
+    private long[] timestamps = new long[64];
+    private int[] lats = new int[64];
+    private int[] lngs = new int[64];
+    // valueCount values per sample, sample after sample
+    private int[] values = new int[64 * 16];
+    // deltas of the column being encoded
+    private long[] column = new long[64];
+
+    int size() {
+        return count;
+    }
+
+    int getValueCount() {
+        return valueCount;
+    }
+
+    long getFirstTimestamp() {
+        return timestamps[0];
+    }
+
+    long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    void clear(int valueCount) {
+        this.count = 0;
+        this.valueCount = valueCount;
+    }
+
+    void add(long timestampNanos, int latUnits, int lngUnits, int[] sampleValues) {
+        ensureCapacity(count + 1, valueCount);
+        timestamps[count] = timestampNanos;
+        lats[count] = latUnits;
+        lngs[count] = lngUnits;
+        System.arraycopy(sampleValues, 0, values, count * valueCount, valueCount);
+        count++;
+    }
+
+    void get(int index, RecordedSample sample) {
+        sample.ensureCapacity(valueCount);
+        System.arraycopy(values, index * valueCount, sample.values, 0, valueCount);
+        sample.timestampNanos = timestamps[index];
+        sample.lat = BinaryRecordingFormat.decodeDegrees(lats[index]);
+        sample.lng = BinaryRecordingFormat.decodeDegrees(lngs[index]);
+        sample.count = valueCount;
+    }
+
+    // upper bound of the payload encode() writes
+    int maxEncodedLength() {
+        long columnLength = 10 + 1 + 8L * Math.max(0, count - 1) + 1;
+        return (int) (10 + 10 + 8 + 10L * (2 + valueCount) + (3L + valueCount) * columnLength);
+    }
+
+    // writes the payload in the current layout, returns the position after it
+    int encode(byte[] buffer, int pos) {
+        pos = BinaryRecordingFormat.writeVarint(buffer, pos, count);
+        pos = BinaryRecordingFormat.writeVarint(buffer, pos, valueCount);
+        pos = BinaryRecordingFormat.writeLong(buffer, pos, timestamps[0]);
+        pos = BinaryRecordingFormat.writeVarint(buffer, pos, BinaryRecordingFormat.zigZag(lats[0]));
+        pos = BinaryRecordingFormat.writeVarint(buffer, pos, BinaryRecordingFormat.zigZag(lngs[0]));
+        for (int c = 0; c < valueCount; c++) {
+            pos = BinaryRecordingFormat.writeVarint(buffer, pos, BinaryRecordingFormat.zigZag(values[c]));
+        }
+
+        if (column.length < count) column = new long[Math.max(count, column.length * 2)];
+        for (int i = 1; i < count; i++) column[i] = timestamps[i] - timestamps[i - 1];
+        pos = encodeColumn(buffer, pos);
+        for (int i = 1; i < count; i++) column[i] = (long) lats[i] - lats[i - 1];
+        pos = encodeColumn(buffer, pos);
+        for (int i = 1; i < count; i++) column[i] = (long) lngs[i] - lngs[i - 1];
+        pos = encodeColumn(buffer, pos);
+        for (int c = 0; c < valueCount; c++) {
+            for (int i = 1; i < count; i++) {
+                column[i] = (long) values[i * valueCount + c] - values[(i - 1) * valueCount + c];
+            }
+            pos = encodeColumn(buffer, pos);
+        }
+        return pos;
+    }
+
+    /**
+     * Reads a whole SAMPLES payload written by a writer of the given format version.
+     *
+     * @throws IOException if the counts don't fit the limits or the payload
+     */
+    void decode(BinaryRecordingFormat.Cursor cursor, int version) throws IOException {
+        long samples = cursor.readVarint();
+        long width = cursor.readVarint();
+        if (width < 0 || width > BinaryRecordingFormat.MAX_CHANNELS) {
+            throw new IOException("Corrupt value count " + width);
+        }
+        // a field takes at least a byte per sample in the varint layout, in the columnar one the
+        // first sample a byte per field and every column two bytes
+        long fields = 3 + width;
+        long columnar = samples == 0 ? 0 : fields - 1 + (samples > 1 ? 2 * fields : 0);
+        boolean fits = version < BinaryRecordingFormat.FIRST_COLUMNAR_VERSION
+                ? samples <= (cursor.remaining() - 8) / fields
+                : samples <= BinaryRecordingFormat.MAX_SAMPLES_PER_BLOCK && 8 + columnar <= cursor.remaining();
+        if (samples < 0 || !fits) {
+            throw new IOException("Corrupt sample count " + samples);
+        }
+        count = (int) samples;
+        valueCount = (int) width;
+        long timestamp = cursor.readLong();
+        ensureCapacity(count, valueCount);
+        if (count == 0) return;
+
+        if (version < BinaryRecordingFormat.FIRST_COLUMNAR_VERSION) {
+            long lat = 0;
+            long lng = 0;
+            for (int i = 0; i < count; i++) {
+                timestamp += cursor.readZigZag();
+                lat += cursor.readZigZag();
+                lng += cursor.readZigZag();
+                timestamps[i] = timestamp;
+                lats[i] = (int) lat;
+                lngs[i] = (int) lng;
+                int row = i * valueCount;
+                for (int c = 0; c < valueCount; c++) {
+                    values[row + c] = (int) ((i > 0 ? values[row - valueCount + c] : 0) + cursor.readZigZag());
+                }
+            }
+            return;
+        }
+
+        timestamps[0] = timestamp;
+        lats[0] = (int) cursor.readZigZag();
+        lngs[0] = (int) cursor.readZigZag();
+        for (int c = 0; c < valueCount; c++) values[c] = (int) cursor.readZigZag();
+
+        if (column.length < count) column = new long[Math.max(count, column.length * 2)];
+        decodeColumn(cursor);
+        for (int i = 1; i < count; i++) timestamps[i] = timestamps[i - 1] + column[i];
+        decodeColumn(cursor);
+        for (int i = 1; i < count; i++) lats[i] = (int) (lats[i - 1] + column[i]);
+        decodeColumn(cursor);
+        for (int i = 1; i < count; i++) lngs[i] = (int) (lngs[i - 1] + column[i]);
+        for (int c = 0; c < valueCount; c++) {
+            decodeColumn(cursor);
+            for (int i = 1; i < count; i++) {
+                values[i * valueCount + c] = (int) (values[(i - 1) * valueCount + c] + column[i]);
+            }
+        }
+    }
+
+    // column[1..count) as zigzag smallest delta, bit width, offsets packed least significant first
+    private int encodeColumn(byte[] buffer, int pos) {
+        if (count < 2) return pos;
+        long min = column[1];
+        long max = column[1];
+        for (int i = 2; i < count; i++) {
+            if (column[i] < min) min = column[i];
+            if (column[i] > max) max = column[i];
+        }
+        // the offsets are unsigned, max - min can take all 64 bits
+        int width = 64 - Long.numberOfLeadingZeros(max - min);
+        pos = BinaryRecordingFormat.writeVarint(buffer, pos, BinaryRecordingFormat.zigZag(min));
+        buffer[pos++] = (byte) width;
+        if (width == 0) return pos;
+
+        long bits = 0;
+        int filled = 0;
+        for (int i = 1; i < count; i++) {
+            long offset = column[i] - min;
+            int remaining = width;
+            while (remaining > 0) {
+                // at most 7 bits are pending, 56 more still fit
+                int take = Math.min(remaining, 56);
+                bits |= (offset & ((1L << take) - 1)) << filled;
+                filled += take;
+                offset >>>= take;
+                remaining -= take;
+                while (filled >= 8) {
+                    buffer[pos++] = (byte) bits;
+                    bits >>>= 8;
+                    filled -= 8;
+                }
+            }
+        }
+        if (filled > 0) buffer[pos++] = (byte) bits;
+        return pos;
+    }
+
+    // fills column[1..count) with the deltas encodeColumn wrote
+    private void decodeColumn(BinaryRecordingFormat.Cursor cursor) throws IOException {
+        if (count < 2) return;
+        long min = cursor.readZigZag();
+        int width = cursor.readByte();
+        if (width > 64) throw new IOException("Corrupt column width " + width);
+        if (((long) (count - 1) * width + 7) / 8 > cursor.remaining()) throw new IOException("Truncated block");
+
+        long bits = 0;
+        int available = 0;
+        for (int i = 1; i < count; i++) {
+            long offset = 0;
+            int read = 0;
+            while (read < width) {
+                if (available == 0) {
+                    bits = cursor.readByte();
+                    available = 8;
+                }
+                int take = Math.min(width - read, available);
+                offset |= (bits & ((1L << take) - 1)) << read;
+                bits >>>= take;
+                available -= take;
+                read += take;
+            }
+            column[i] = min + offset;
+        }
+    }
+
+    private void ensureCapacity(int samples, int width) {
+        if (timestamps.length < samples) {
+            int capacity = Math.max(samples, timestamps.length * 2);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            lats = Arrays.copyOf(lats, capacity);
+            lngs = Arrays.copyOf(lngs, capacity);
+        }
+        if (values.length < samples * width) {
+            values = Arrays.copyOf(values, Math.max(samples * width, values.length * 2));
+        }
+    }
+}
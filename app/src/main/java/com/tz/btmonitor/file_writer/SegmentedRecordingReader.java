@@ -0,0 +1,80 @@
+package com.tz.btmonitor.file_writer;
+
+import com.tz.btmonitor.model.ChannelConfig;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads all segments of a session written by {@link SegmentedRecordingWriter} as one stream of
+ * samples, in order. Segments are opened one at a time.
+ */
+public class SegmentedRecordingReader implements RecordingSource {
+    private final File directory;
+    private final List<SessionManifest.Segment> segments;
+    private int nextSegment = 0;
+    private BinaryRecordingReader reader;
+    // config versions of the segments already passed
+    private int configVersionBase = 0;
+
+    public SegmentedRecordingReader(File directory) throws IOException {
+        this.directory = directory;
+        this.segments = SessionManifest.read(directory);
+    }
+
+    public List<SessionManifest.Segment> getSegments() {
+        return segments;
+    }
+
+    // index of the segment the last sample came from, -1 before the first one
+    public int getCurrentSegment() {
+        return nextSegment - 1;
+    }
+
+    // latest config of the current segment, every segment starts with the session's config
+    @Override
+    public ChannelConfig getConfig() {
+        return reader != null ? reader.getConfig() : null;
+    }
+
+    @Override
+    public int getConfigVersion() {
+        return configVersionBase + (reader != null ? reader.getConfigVersion() : 0);
+    }
+
+    /**
+     * Reads the next sample of the session into the given holder.
+     *
+     * @return false after the last sample of the last segment
+     */
+    @Override
+    public boolean next(RecordedSample sample) throws IOException {
+        while (true) {
+            if (reader != null && reader.next(sample)) return true;
+            if (nextSegment >= segments.size()) return false;
+            openSegment(segments.get(nextSegment++));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+        nextSegment = segments.size();
+    }
+
+    private void openSegment(SessionManifest.Segment segment) throws IOException {
+        if (reader != null) {
+            configVersionBase += reader.getConfigVersion();
+            reader.close();
+            reader = null;
+        }
+        reader = new BinaryRecordingReader(new BufferedInputStream(
+                new FileInputStream(new File(directory, segment.fileName)), 64 * 1024));
+    }
+}
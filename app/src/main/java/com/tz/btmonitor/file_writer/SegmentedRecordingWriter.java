@@ -0,0 +1,179 @@
+package com.tz.btmonitor.file_writer;
+
+import com.tz.btmonitor.model.ChannelSnapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes one session as a series of binary recording segments in a directory, starting a new
+ * segment once the current one exceeds a size or duration limit.
+ * <p>
+ * Rotation happens between two samples on the writing thread, so no sample is lost or
+ * duplicated at the boundary. Every segment is a complete recording on its own (header and the
+ * latest config first). The {@link SessionManifest} is rewritten on every rotation and on close;
+ * {@link SegmentedRecordingReader} reads the whole session back as one stream.
+ * <p>
+ * The writing thread only opens the next segment. Closing the full one and rewriting the
+ * manifest run on a thread of the writer's own, in rotation order; {@link #close()} waits for
+ * them. Once closed, writes are ignored.
+ */
+public class SegmentedRecordingWriter implements Closeable {
+    public static final long NO_LIMIT = 0;
+
+    private final File directory;
+    private final long maxSegmentBytes;
+    private final long maxSegmentNanos;
+    private final boolean async;
+    private final List<SessionManifest.Segment> segments = new ArrayList<>();
+    private final ExecutorService closer = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "segment-closer"));
+
+    private ChannelSnapshot lastConfig;
+    private SessionManifest.Segment current;
+    private BinaryRecordingWriter currentWriter;
+    private AsyncRecordingWriter currentAsyncWriter;
+    private OutputStream currentStream;
+    private long rotations = 0;
+    private boolean closed = false;
+    // the first error of a segment closed in the background, reported by close()
+    private volatile IOException closeError;
+
+    /**
+     * @param maxSegmentBytes      rotate after that many encoded bytes, or {@link #NO_LIMIT}
+     * @param maxSegmentMillis     rotate after that much sample time, or {@link #NO_LIMIT}
+     * @param async                write every segment through an {@link AsyncRecordingWriter}
+     */
+    public SegmentedRecordingWriter(File directory, long maxSegmentBytes, long maxSegmentMillis, boolean async) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentNanos = TimeUnit.MILLISECONDS.toNanos(maxSegmentMillis);
+        this.async = async;
+    }
+
+    public synchronized void writeConfig(ChannelSnapshot config) throws IOException {
+        if (closed) return;
+        lastConfig = config;
+        if (currentWriter != null) currentWriter.writeConfig(config);
+    }
+
+    public synchronized void writeSample(long timestampNanos, double lat, double lng, int[] values, int count) throws IOException {
+        if (closed) return;
+        if (current == null) {
+            openSegment(timestampNanos);
+        } else if (isFull(timestampNanos)) {
+            rotate();
+            rotations++;
+            openSegment(timestampNanos);
+        }
+
+        currentWriter.writeSample(timestampNanos, lat, lng, values, count);
+        current.lastTimestampNanos = timestampNanos;
+        current.samples++;
+    }
+
+    // a gap before the first sample is nothing to mark
+    public synchronized void writeGap(long fromNanos, long toNanos) throws IOException {
+        if (!closed && currentWriter != null) currentWriter.writeGap(fromNanos, toNanos);
+    }
+
+    public synchronized void flush() throws IOException {
+        if (currentWriter == null) return;
+        currentWriter.flush();
+        if (currentAsyncWriter != null) currentAsyncWriter.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        if (current != null) rotate();
+        closer.shutdown();
+        try {
+            closer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing " + directory);
+        }
+        writeManifest(segments);
+        IOException error = closeError;
+        if (error != null) throw error;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size() + (current != null ? 1 : 0);
+    }
+
+    public synchronized long getRotations() {
+        return rotations;
+    }
+
+    private boolean isFull(long timestampNanos) {
+        if (maxSegmentBytes != NO_LIMIT && currentWriter.getBytesWritten() >= maxSegmentBytes) return true;
+        return maxSegmentNanos != NO_LIMIT && timestampNanos - current.firstTimestampNanos >= maxSegmentNanos;
+    }
+
+    private void openSegment(long timestampNanos) throws IOException {
+        current = new SessionManifest.Segment();
+        current.index = segments.size();
+        current.fileName = SessionManifest.segmentFileName(current.index);
+        current.firstTimestampNanos = timestampNanos;
+        current.lastTimestampNanos = timestampNanos;
+
+        currentStream = new BufferedOutputStream(new FileOutputStream(new File(directory, current.fileName)), 64 * 1024);
+        OutputStream target = currentStream;
+        if (async) {
+            currentAsyncWriter = new AsyncRecordingWriter(currentStream);
+            target = currentAsyncWriter.asOutputStream();
+        }
+        currentWriter = new BinaryRecordingWriter(target, System.currentTimeMillis());
+        if (lastConfig != null) currentWriter.writeConfig(lastConfig);
+    }
+
+    // hands the current segment to the closer thread, the manifest then lists it
+    private void rotate() throws IOException {
+        // the pending block goes into the stream here, nothing is written to it afterwards
+        currentWriter.flush();
+        current.bytes = currentWriter.getBytesWritten();
+        segments.add(current);
+        AsyncRecordingWriter asyncWriter = currentAsyncWriter;
+        OutputStream stream = currentStream;
+        List<SessionManifest.Segment> listed = new ArrayList<>(segments);
+        current = null;
+        currentWriter = null;
+        currentAsyncWriter = null;
+        currentStream = null;
+        closer.execute(() -> {
+            try {
+                if (asyncWriter != null) {
+                    asyncWriter.close();
+                } else {
+                    stream.close();
+                }
+                writeManifest(listed);
+            } catch (IOException e) {
+                if (closeError == null) closeError = e;
+            }
+        });
+    }
+
+    private void writeManifest(List<SessionManifest.Segment> listed) throws IOException {
+        SessionManifest.write(directory, listed);
+    }
+}
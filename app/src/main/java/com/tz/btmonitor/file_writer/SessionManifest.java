@@ -0,0 +1,121 @@
+package com.tz.btmonitor.file_writer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * List of the segments of a session, stored as a small text file next to them:
+ * <pre>
+ * # index,file,first timestamp (nanos),last timestamp (nanos),samples,bytes
+ * 0,segment_00000.btr,1000,59999000,60000,812345
+ * </pre>
+ * It is replaced atomically (write to a temp file, then rename), so a crash leaves either the
+ * old or the new list. Segments written after the last manifest update are still found by
+ * {@link #read(File)}, since the file names are sequential.
+ */
+public final class SessionManifest {
+    public static final String FILE_NAME = "manifest.csv";
+    private static final String HEADER = "# index,file,first_ns,last_ns,samples,bytes";
+
+    public static class Segment {
+        public int index;
+        public String fileName;
+        public long firstTimestampNanos;
+        public long lastTimestampNanos;
+        public long samples;
+        public long bytes;
+
+        public boolean contains(long timestampNanos) {
+            return timestampNanos >= firstTimestampNanos && timestampNanos <= lastTimestampNanos;
+        }
+
+        @Override
+        public String toString() {
+            return index + "," + fileName + "," + firstTimestampNanos + "," + lastTimestampNanos + ","
+                    + samples + "," + bytes;
+        }
+    }
+
+    private SessionManifest() {
+    }
+
+    public static String segmentFileName(int index) {
+        return String.format(Locale.US, "segment_%05d.btr", index);
+    }
+
+    public static void write(File directory, List<Segment> segments) throws IOException {
+        File temp = new File(directory, FILE_NAME + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temp);
+        try (Writer writer = new OutputStreamWriter(stream, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.write('\n');
+            for (Segment segment : segments) {
+                writer.write(segment.toString());
+                writer.write('\n');
+            }
+            writer.flush();
+            stream.getFD().sync();
+        }
+        if (!temp.renameTo(new File(directory, FILE_NAME))) {
+            throw new IOException("Can't replace manifest in " + directory);
+        }
+    }
+
+    /**
+     * Reads the segment list of a session directory. Segment files that exist but are missing
+     * from the manifest (the session wasn't closed) are appended with unknown time range and counts.
+     */
+    public static List<Segment> read(File directory) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        File manifest = new File(directory, FILE_NAME);
+        if (manifest.exists()) {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(manifest), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty() || line.startsWith("#")) continue;
+                    segments.add(parseLine(line));
+                }
+            }
+        }
+
+        for (int index = segments.size(); ; index++) {
+            String fileName = segmentFileName(index);
+            if (!new File(directory, fileName).exists()) break;
+            Segment segment = new Segment();
+            segment.index = index;
+            segment.fileName = fileName;
+            segment.firstTimestampNanos = Long.MIN_VALUE;
+            segment.lastTimestampNanos = Long.MAX_VALUE;
+            segments.add(segment);
+        }
+        return segments;
+    }
+
+    private static Segment parseLine(String line) throws IOException {
+        String[] fields = line.split(",");
+        if (fields.length != 6) throw new IOException("Malformed manifest line: " + line);
+        try {
+            Segment segment = new Segment();
+            segment.index = Integer.parseInt(fields[0]);
+            segment.fileName = fields[1];
+            segment.firstTimestampNanos = Long.parseLong(fields[2]);
+            segment.lastTimestampNanos = Long.parseLong(fields[3]);
+            segment.samples = Long.parseLong(fields[4]);
+            segment.bytes = Long.parseLong(fields[5]);
+            return segment;
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed manifest line: " + line, e);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.tz.btmonitor.file_writer;
+
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Forces written data to the storage device (fsync) on {@link #flush()}, according to the policy.
+ * <p>
+ * {@link #SYNC_NEVER} leaves it to the OS, {@link #SYNC_ALWAYS} syncs on every flush (every group
+ * commit in async mode), {@link #SYNC_INTERVAL} at most once per interval. Streams that are not
+ * backed by a file descriptor can't be synced and behave like {@link #SYNC_NEVER}.
+ */
+public class SyncingOutputStream extends FilterOutputStream {
+    public static final int SYNC_NEVER = 0;
+    public static final int SYNC_ALWAYS = 1;
+    public static final int SYNC_INTERVAL = 2;
+
+    private final FileOutputStream fileStream;
+    private final int policy;
+    private final long intervalMillis;
+    private long lastSyncMillis = 0;
+    private volatile long syncs = 0;
+    private volatile long totalSyncNanos = 0;
+
+    public SyncingOutputStream(OutputStream out, int policy, long intervalMillis) {
+        super(out);
+        this.fileStream = out instanceof FileOutputStream ? (FileOutputStream) out : null;
+        this.policy = policy;
+        this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        // FilterOutputStream would write byte by byte
+        out.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+        if (fileStream == null || policy == SYNC_NEVER) return;
+
+        long now = System.currentTimeMillis();
+        if (policy == SYNC_INTERVAL && now - lastSyncMillis < intervalMillis) return;
+        sync();
+        lastSyncMillis = now;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // whatever the policy, a closed recording has to be on disk
+        out.flush();
+        if (fileStream != null && policy != SYNC_NEVER) sync();
+        out.close();
+    }
+
+    public boolean canSync() {
+        return fileStream != null;
+    }
+
+    public long getSyncs() {
+        return syncs;
+    }
+
+    public long getTotalSyncNanos() {
+        return totalSyncNanos;
+    }
+
+    private void sync() throws IOException {
+        long start = System.nanoTime();
+        fileStream.getFD().sync();
+        totalSyncNanos += System.nanoTime() - start;
+        syncs++;
+    }
+}
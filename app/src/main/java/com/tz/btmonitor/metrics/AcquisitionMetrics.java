@@ -0,0 +1,168 @@
+package com.tz.btmonitor.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the receive path, from the socket to the screen and disk.
+ * All of it is lock-free and can be updated from any thread. {@link #snapshot()} gives
+ * consistent-enough totals, rates come from the difference of two snapshots.
+ * <p>
+ * Latencies start at the read time the pipeline stamps on each frame: read-to-UI ends when the
+ * channels are published, read-to-disk when the recording chunk holding the sample was written.
+ */
+public class AcquisitionMetrics {
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder framesRead = new LongAdder();
+    private final LongAdder samples = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder malformedFrames = new LongAdder();
+    private final LongAdder droppedSamples = new LongAdder();
+    private final LongAdder conflatedSamples = new LongAdder();
+    private final LongAdder connectionsLost = new LongAdder();
+    private final LatencyHistogram parseTime = new LatencyHistogram("parse");
+    private final LatencyHistogram readToUi = new LatencyHistogram("read-to-ui");
+    private final LatencyHistogram readToDisk = new LatencyHistogram("read-to-disk");
+    // from losing the connection to receiving again, one entry per successful reconnect
+    private final LatencyHistogram timeToRecover = new LatencyHistogram("time-to-recover");
+    // read time of the oldest sample not on screen yet, 0 if there is none
+    private final AtomicLong oldestUnpublishedNanos = new AtomicLong();
+
+    public static class Snapshot {
+        public long timeNanos;
+        public long bytesRead;
+        public long framesRead;
+        public long samples;
+        public long messages;
+        public long malformedFrames;
+        public long droppedSamples;
+        public long conflatedSamples;
+        public long connectionsLost;
+
+        public double bytesPerSecond(Snapshot previous) {
+            return rate(bytesRead - previous.bytesRead, previous);
+        }
+
+        public double framesPerSecond(Snapshot previous) {
+            return rate(framesRead - previous.framesRead, previous);
+        }
+
+        public double samplesPerSecond(Snapshot previous) {
+            return rate(samples - previous.samples, previous);
+        }
+
+        private double rate(long delta, Snapshot previous) {
+            long elapsed = timeNanos - previous.timeNanos;
+            return elapsed <= 0 ? 0 : delta * 1e9 / elapsed;
+        }
+    }
+
+    public void onBytesRead(int count) {
+        bytesRead.add(count);
+    }
+
+    public void onFrameRead() {
+        framesRead.increment();
+    }
+
+    public void onSampleParsed(long parseNanos) {
+        samples.increment();
+        parseTime.record(parseNanos);
+    }
+
+    public void onMessage() {
+        messages.increment();
+    }
+
+    public void onMalformedFrame() {
+        malformedFrames.increment();
+    }
+
+    // samples the ingest queue discarded, see AcquisitionPipeline.IngestPolicy
+    public void onSamplesDropped(long count) {
+        droppedSamples.add(count);
+    }
+
+    // a sample folded into a newer one by the ingest queue, its values never reach the sinks
+    public void onSampleConflated() {
+        conflatedSamples.increment();
+    }
+
+    public void onConnectionLost() {
+        connectionsLost.increment();
+    }
+
+    public void onReconnected(long recoverNanos) {
+        timeToRecover.record(recoverNanos);
+    }
+
+    // a sample read at readNanos waits for the next UI update
+    public void onSampleAwaitingUi(long readNanos) {
+        oldestUnpublishedNanos.compareAndSet(0, readNanos);
+    }
+
+    // the UI showed everything received so far
+    public void onUiPublished() {
+        long oldest = oldestUnpublishedNanos.getAndSet(0);
+        if (oldest != 0) readToUi.record(System.nanoTime() - oldest);
+    }
+
+    public LatencyHistogram getParseTime() {
+        return parseTime;
+    }
+
+    public LatencyHistogram getReadToUi() {
+        return readToUi;
+    }
+
+    public LatencyHistogram getReadToDisk() {
+        return readToDisk;
+    }
+
+    public LatencyHistogram getTimeToRecover() {
+        return timeToRecover;
+    }
+
+    public Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+        snapshot.timeNanos = System.nanoTime();
+        snapshot.bytesRead = bytesRead.sum();
+        snapshot.framesRead = framesRead.sum();
+        snapshot.samples = samples.sum();
+        snapshot.messages = messages.sum();
+        snapshot.malformedFrames = malformedFrames.sum();
+        snapshot.droppedSamples = droppedSamples.sum();
+        snapshot.conflatedSamples = conflatedSamples.sum();
+        snapshot.connectionsLost = connectionsLost.sum();
+        return snapshot;
+    }
+
+    public void reset() {
+        bytesRead.reset();
+        framesRead.reset();
+        samples.reset();
+        messages.reset();
+        malformedFrames.reset();
+        droppedSamples.reset();
+        conflatedSamples.reset();
+        connectionsLost.reset();
+        parseTime.reset();
+        readToUi.reset();
+        readToDisk.reset();
+        timeToRecover.reset();
+        oldestUnpublishedNanos.set(0);
+    }
+
+    /**
+     * One line per aspect, with rates since the previous snapshot.
+     */
+    public String format(Snapshot current, Snapshot previous) {
+        return String.format(Locale.US, "%.1f KB/s, %.0f frames/s, %.0f samples/s%n"
+                        + "malformed %d, dropped %d, conflated %d, messages %d, connections lost %d%n%s%n%s%n%s%n%s",
+                current.bytesPerSecond(previous) / 1024, current.framesPerSecond(previous),
+                current.samplesPerSecond(previous), current.malformedFrames, current.droppedSamples,
+                current.conflatedSamples, current.messages, current.connectionsLost,
+                parseTime, readToUi, readToDisk, timeToRecover);
+    }
+}
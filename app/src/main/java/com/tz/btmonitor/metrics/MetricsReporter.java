@@ -0,0 +1,81 @@
+package com.tz.btmonitor.metrics;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dumps {@link AcquisitionMetrics} (or any other {@link Source}) at a fixed interval, with rates
+ * over that interval.
+ */
+public class MetricsReporter {
+    public interface Output {
+        void report(String text);
+    }
+
+    // what is reported, rates are over the time since the previous call
+    public interface Source {
+        // sets the starting point of the first rates
+        void mark();
+
+        String format();
+    }
+
+    private final Source source;
+    private final Output output;
+    private ScheduledExecutorService executor;
+
+    public MetricsReporter(AcquisitionMetrics metrics, Output output) {
+        this(new MetricsSource(metrics), output);
+    }
+
+    public MetricsReporter(Source source, Output output) {
+        this.source = source;
+        this.output = output;
+    }
+
+    public synchronized void start(long intervalMillis) {
+        if (executor != null) return;
+        source.mark();
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(this::report, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (executor == null) return;
+        executor.shutdownNow();
+        executor = null;
+    }
+
+    // also called by the scheduler
+    public void report() {
+        output.report(source.format());
+    }
+
+    private static class MetricsSource implements Source {
+        private final AcquisitionMetrics metrics;
+        private AcquisitionMetrics.Snapshot previous;
+
+        MetricsSource(AcquisitionMetrics metrics) {
+            this.metrics = metrics;
+            this.previous = metrics.snapshot();
+        }
+
+        @Override
+        public synchronized void mark() {
+            previous = metrics.snapshot();
+        }
+
+        @Override
+        public synchronized String format() {
+            AcquisitionMetrics.Snapshot current = metrics.snapshot();
+            String text = metrics.format(current, previous);
+            previous = current;
+            return text;
+        }
+    }
+}
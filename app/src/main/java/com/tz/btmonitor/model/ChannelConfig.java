@@ -0,0 +1,166 @@
+package com.tz.btmonitor.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Channel configuration reported by the device ("CH=n, D0=.., D1=..") kept in parallel
+ * primitive arrays. Instances are meant to be reused, {@link #clear()} keeps the arrays.
+ * <p>
+ * Channels are found by id through an index like {@link ChannelStateStore}'s, so filling a
+ * config stays linear in its size. Ids beyond {@link #MAX_INDEXED_ID}, which no device sends,
+ * are searched for.
+ */
+public class ChannelConfig {
+    public static final int DEFAULT_MIN = 100;
+    public static final int DEFAULT_MAX = 20000;
+    public static final int UNKNOWN_CHANNEL_COUNT = -1;
+    public static final int MAX_INDEXED_ID = 4096;
+
+    private int declaredChannels = UNKNOWN_CHANNEL_COUNT;
+    private int count = 0;
+    private int[] ids;
+    private int[] d;
+    private int[] min;
+    private int[] max;
+    // channel id -> position in the arrays above, -1 if absent; grown up to the largest id added
+    private int[] positionOf;
+    private int unknownKeys = 0;
+    private int malformedFields = 0;
+
+    public ChannelConfig() {
+        this(16);
+    }
+
+    public ChannelConfig(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        ids = new int[capacity];
+        d = new int[capacity];
+        min = new int[capacity];
+        max = new int[capacity];
+        positionOf = new int[Math.min(capacity, MAX_INDEXED_ID)];
+        Arrays.fill(positionOf, -1);
+    }
+
+    public void clear() {
+        for (int i = 0; i < count; i++) {
+            if (ids[i] >= 0 && ids[i] < positionOf.length) positionOf[ids[i]] = -1;
+        }
+        declaredChannels = UNKNOWN_CHANNEL_COUNT;
+        count = 0;
+        unknownKeys = 0;
+        malformedFields = 0;
+    }
+
+    // sets d of the channel, adding it with default min/max if it's not there yet
+    public void putD(int channelId, int value) {
+        int index = indexOf(channelId);
+        if (index < 0) {
+            index = add(channelId, DEFAULT_MIN, DEFAULT_MAX);
+        }
+        d[index] = value;
+    }
+
+    public int add(int channelId, int minValue, int maxValue) {
+        if (count == ids.length) {
+            int capacity = ids.length * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            d = Arrays.copyOf(d, capacity);
+            min = Arrays.copyOf(min, capacity);
+            max = Arrays.copyOf(max, capacity);
+        }
+        if (channelId >= 0 && channelId < MAX_INDEXED_ID) {
+            if (channelId >= positionOf.length) growIndex(channelId);
+            // the first of repeated ids is the one found, as before
+            if (positionOf[channelId] < 0) positionOf[channelId] = count;
+        }
+        ids[count] = channelId;
+        d[count] = 0;
+        min[count] = minValue;
+        max[count] = maxValue;
+        return count++;
+    }
+
+    public int indexOf(int channelId) {
+        if (channelId >= 0 && channelId < MAX_INDEXED_ID) {
+            return channelId < positionOf.length ? positionOf[channelId] : -1;
+        }
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == channelId) return i;
+        }
+        return -1;
+    }
+
+    private void growIndex(int channelId) {
+        int length = positionOf.length;
+        positionOf = Arrays.copyOf(positionOf, Math.min(Math.max(channelId + 1, length * 2), MAX_INDEXED_ID));
+        Arrays.fill(positionOf, length, positionOf.length, -1);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    public int getD(int index) {
+        return d[index];
+    }
+
+    public int getMin(int index) {
+        return min[index];
+    }
+
+    public int getMax(int index) {
+        return max[index];
+    }
+
+    public int getDeclaredChannels() {
+        return declaredChannels;
+    }
+
+    public void setDeclaredChannels(int declaredChannels) {
+        this.declaredChannels = declaredChannels;
+    }
+
+    public int getUnknownKeys() {
+        return unknownKeys;
+    }
+
+    public void incrementUnknownKeys() {
+        unknownKeys++;
+    }
+
+    public int getMalformedFields() {
+        return malformedFields;
+    }
+
+    public void incrementMalformedFields() {
+        malformedFields++;
+    }
+
+    public Map<Integer, Channel> toChannelMap() {
+        Map<Integer, Channel> channels = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            Channel channel = new Channel();
+            channel.setId(ids[i]);
+            channel.setMin(min[i]);
+            channel.setMax(max[i]);
+            channel.setD(d[i]);
+            channels.put(ids[i], channel);
+        }
+        return channels;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("ChannelConfig{declared=").append(declaredChannels);
+        for (int i = 0; i < count; i++) {
+            builder.append(", D").append(ids[i]).append('=').append(d[i]);
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,196 @@
+package com.tz.btmonitor.model;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saved channel config (min/max/d) per device, cached in memory.
+ * <p>
+ * Each device is stored as one compact blob, "id,min,max,d;id,min,max,d;..", so a device is
+ * read with a single lookup however many others are stored. A device is loaded on its first
+ * use, or ahead of it with {@link #preload}. Changes go to the cache right away and to the
+ * storage in batches, on the repository's own thread, at most once per write delay.
+ * <p>
+ * All maps handed out are copies.
+ */
+public class ChannelConfigRepository implements Closeable {
+    public static final long DEFAULT_WRITE_DELAY_MILLIS = 500;
+
+    public interface Storage {
+        // the blob saved for the device, null if there is none
+        String load(String deviceAddress);
+
+        // device address -> blob, written together
+        void save(Map<String, String> blobs);
+    }
+
+    public interface Callback {
+        void onLoaded(Map<Integer, Channel> config);
+    }
+
+    private final Storage storage;
+    private final long writeDelayMillis;
+    private final ScheduledExecutorService io;
+    // guarded by this, loaded devices only
+    private final Map<String, Map<Integer, Channel>> cache = new HashMap<>();
+    private final Set<String> dirty = new LinkedHashSet<>();
+    private boolean writeScheduled = false;
+    // keeps batches in order when close() flushes while a scheduled write runs
+    private final Object writeLock = new Object();
+
+    public ChannelConfigRepository(Storage storage, long writeDelayMillis) {
+        this.storage = storage;
+        this.writeDelayMillis = writeDelayMillis;
+        this.io = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "channel-config-io"));
+    }
+
+    // the device's channels, read from the storage on the calling thread if not cached yet
+    public Map<Integer, Channel> get(String deviceAddress) {
+        synchronized (this) {
+            Map<Integer, Channel> cached = cache.get(deviceAddress);
+            if (cached != null) return copy(cached);
+        }
+
+        Map<Integer, Channel> loaded = decode(storage.load(deviceAddress));
+        synchronized (this) {
+            // put or loaded by someone else meanwhile
+            Map<Integer, Channel> cached = cache.get(deviceAddress);
+            if (cached != null) return copy(cached);
+            cache.put(deviceAddress, loaded);
+            return copy(loaded);
+        }
+    }
+
+    // loads the device on the repository's thread, so a later get() is a cache hit
+    public void preload(String deviceAddress) {
+        io.execute(() -> get(deviceAddress));
+    }
+
+    // loads the device on the repository's thread, the callback runs on the callback executor
+    public void load(String deviceAddress, Executor callbackExecutor, Callback callback) {
+        io.execute(() -> {
+            Map<Integer, Channel> config = get(deviceAddress);
+            callbackExecutor.execute(() -> callback.onLoaded(config));
+        });
+    }
+
+    // replaces everything saved for the device
+    public void put(String deviceAddress, Map<Integer, Channel> config) {
+        Map<Integer, Channel> copied = copy(config);
+        synchronized (this) {
+            cache.put(deviceAddress, copied);
+            markDirty(deviceAddress);
+        }
+    }
+
+    public void putChannel(String deviceAddress, Channel channel) {
+        get(deviceAddress);
+        synchronized (this) {
+            cache.get(deviceAddress).put(channel.getId(), channel.copy());
+            markDirty(deviceAddress);
+        }
+    }
+
+    /**
+     * Applies the config reported by the device: its d values win, min/max stay as saved,
+     * channels not saved yet are added as reported.
+     *
+     * @return the device's channels after the merge
+     */
+    public Map<Integer, Channel> mergeDeviceConfig(String deviceAddress, Map<Integer, Channel> received) {
+        get(deviceAddress);
+        synchronized (this) {
+            Map<Integer, Channel> saved = cache.get(deviceAddress);
+            for (Map.Entry<Integer, Channel> entry : received.entrySet()) {
+                Channel known = saved.get(entry.getKey());
+                if (known != null) {
+                    known.setD(entry.getValue().getD());
+                } else {
+                    saved.put(entry.getKey(), entry.getValue().copy());
+                }
+            }
+            markDirty(deviceAddress);
+            return copy(saved);
+        }
+    }
+
+    // writes pending changes now, on the calling thread
+    public void flush() {
+        synchronized (writeLock) {
+            Map<String, String> blobs = new HashMap<>();
+            synchronized (this) {
+                writeScheduled = false;
+                if (dirty.isEmpty()) return;
+                for (String deviceAddress : dirty) {
+                    blobs.put(deviceAddress, encode(cache.get(deviceAddress)));
+                }
+                dirty.clear();
+            }
+            storage.save(blobs);
+        }
+    }
+
+    // writes pending changes and stops the repository's thread
+    @Override
+    public void close() {
+        io.shutdownNow();
+        flush();
+    }
+
+    // under the lock
+    private void markDirty(String deviceAddress) {
+        dirty.add(deviceAddress);
+        if (writeScheduled || io.isShutdown()) return;
+        writeScheduled = true;
+        io.schedule(this::flush, writeDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static String encode(Map<Integer, Channel> config) {
+        StringBuilder blob = new StringBuilder(config.size() * 16);
+        for (Channel channel : config.values()) {
+            if (blob.length() > 0) blob.append(';');
+            blob.append(channel.getId()).append(',')
+                    .append(channel.getMin()).append(',')
+                    .append(channel.getMax()).append(',')
+                    .append(channel.getD());
+        }
+        return blob.toString();
+    }
+
+    // malformed entries are skipped, a null or empty blob is no channels
+    public static Map<Integer, Channel> decode(String blob) {
+        Map<Integer, Channel> config = new LinkedHashMap<>();
+        if (blob == null || blob.isEmpty()) return config;
+        for (String entry : blob.split(";")) {
+            String[] fields = entry.split(",");
+            if (fields.length != 4) continue;
+            try {
+                Channel channel = new Channel();
+                channel.setId(Integer.parseInt(fields[0]));
+                channel.setMin(Integer.parseInt(fields[1]));
+                channel.setMax(Integer.parseInt(fields[2]));
+                channel.setD(Integer.parseInt(fields[3]));
+                config.put(channel.getId(), channel);
+            } catch (NumberFormatException e) {
+                // skip the entry
+            }
+        }
+        return config;
+    }
+
+    private static Map<Integer, Channel> copy(Map<Integer, Channel> config) {
+        Map<Integer, Channel> copied = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Channel> entry : config.entrySet()) {
+            copied.put(entry.getKey(), entry.getValue().copy());
+        }
+        return copied;
+    }
+}
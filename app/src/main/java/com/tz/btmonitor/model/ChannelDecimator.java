@@ -0,0 +1,280 @@
+package com.tz.btmonitor.model;
+
+/**
+ * Turns a time window of one channel's {@link ChannelHistory} into at most maxPoints points
+ * to draw, however many samples the window holds.
+ * <p>
+ * The window is split into buckets of equal duration, aligned to multiples of that duration so
+ * a bucket keeps its samples as the window moves on. Each bucket keeps its count, sums, first,
+ * last, min and max sample in a ring of primitive arrays. {@link #update} only folds in the
+ * samples appended since the last call and lets buckets fall out on the left, then builds the
+ * points from the buckets:
+ * <ul>
+ * <li>{@link Mode#MIN_MAX}: min and max of every bucket (one bucket per pixel column keeps every
+ * peak visible), maxPoints / 2 buckets.</li>
+ * <li>{@link Mode#LTTB}: largest triangle three buckets, the first and last sample and one point
+ * per bucket out of maxPoints - 2 buckets. The point of a bucket is picked among its min and
+ * max, the candidates a streaming bucket can keep; the bucket's own average and the next
+ * bucket's average are exact.</li>
+ * </ul>
+ * Output arrays are reused from update to update, nothing is allocated after construction.
+ * One decimator serves one channel of one chart, on the thread drawing it.
+ */
+public class ChannelDecimator {
+    public enum Mode {
+        MIN_MAX, LTTB
+    }
+
+    // samples read from the history at a time
+    private static final int READ_CHUNK = 256;
+
+    private final Mode mode;
+    private final int maxPoints;
+    private final int bucketCount;
+
+    // bucket ring, slot of bucket index i is floorMod(i, bucketCount)
+    private final long[] bucketIndex;
+    private final int[] counts;
+    private final long[] timeOffsetSums;
+    private final long[] valueSums;
+    private final long[] firstTimes;
+    private final int[] firstValues;
+    private final long[] lastTimes;
+    private final int[] lastValues;
+    private final long[] minTimes;
+    private final int[] minValues;
+    private final long[] maxTimes;
+    private final int[] maxValues;
+    // LTTB: slots of the non empty buckets of the window, in time order
+    private final int[] filled;
+
+    private final ChannelHistory.Window chunk = new ChannelHistory.Window(READ_CHUNK);
+    private final long[] timestamps;
+    private final int[] values;
+    private int count = 0;
+
+    // what the buckets were built for, a change starts over
+    private ChannelHistory history;
+    private int channelId = -1;
+    private long windowNanos = 0;
+    private long bucketNanos = 0;
+    // next history sequence to fold in
+    private long nextSequence = 0;
+    private long samplesFolded = 0;
+
+    /**
+     * @param maxPoints at least 2 for {@link Mode#MIN_MAX}, 3 for {@link Mode#LTTB}
+     */
+    public ChannelDecimator(Mode mode, int maxPoints) {
+        if (maxPoints < (mode == Mode.LTTB ? 3 : 2)) throw new IllegalArgumentException("Too few points for " + mode);
+        this.mode = mode;
+        this.maxPoints = maxPoints;
+        this.bucketCount = mode == Mode.LTTB ? maxPoints - 2 : maxPoints / 2;
+        bucketIndex = new long[bucketCount];
+        counts = new int[bucketCount];
+        timeOffsetSums = new long[bucketCount];
+        valueSums = new long[bucketCount];
+        firstTimes = new long[bucketCount];
+        firstValues = new int[bucketCount];
+        lastTimes = new long[bucketCount];
+        lastValues = new int[bucketCount];
+        minTimes = new long[bucketCount];
+        minValues = new int[bucketCount];
+        maxTimes = new long[bucketCount];
+        maxValues = new int[bucketCount];
+        filled = new int[bucketCount];
+        timestamps = new long[maxPoints];
+        values = new int[maxPoints];
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getMaxPoints() {
+        return maxPoints;
+    }
+
+    // the points of the last update, in time order, valid up to getCount()
+    public long[] getTimestamps() {
+        return timestamps;
+    }
+
+    public int[] getValues() {
+        return values;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    // samples folded into buckets since the last start over
+    public long getSamplesFolded() {
+        return samplesFolded;
+    }
+
+    // starts over on the next update
+    public void reset() {
+        history = null;
+        count = 0;
+    }
+
+    /**
+     * Brings the points up to date for the window from toNanos - windowNanos up to toNanos
+     * (exclusive) of the channel. Samples at or after toNanos are left for a later update.
+     *
+     * @return number of points
+     */
+    public int update(ChannelHistory history, int channelId, long windowNanos, long toNanos) {
+        if (history != this.history || channelId != this.channelId || windowNanos != this.windowNanos) {
+            startOver(history, channelId, windowNanos, toNanos);
+        }
+        long lastBucket = Math.floorDiv(toNanos - 1, bucketNanos);
+        long firstBucket = lastBucket - bucketCount + 1;
+        fold(firstBucket, toNanos);
+
+        if (mode == Mode.MIN_MAX) {
+            buildMinMax(firstBucket, lastBucket);
+        } else {
+            buildLttb(firstBucket, lastBucket);
+        }
+        return count;
+    }
+
+    private void startOver(ChannelHistory history, int channelId, long windowNanos, long toNanos) {
+        this.history = history;
+        this.channelId = channelId;
+        this.windowNanos = windowNanos;
+        bucketNanos = Math.max(1, (windowNanos + bucketCount - 1) / bucketCount);
+        for (int i = 0; i < bucketCount; i++) {
+            counts[i] = 0;
+        }
+        long firstBucket = Math.floorDiv(toNanos - 1, bucketNanos) - bucketCount + 1;
+        nextSequence = history.sequenceAt(firstBucket * bucketNanos);
+        samplesFolded = 0;
+        count = 0;
+    }
+
+    // reads the samples appended since the last update into their buckets
+    private void fold(long firstBucket, long toNanos) {
+        while (history.read(channelId, nextSequence, Long.MAX_VALUE, chunk) > 0) {
+            // samples the history dropped before they were read are skipped
+            nextSequence = chunk.firstSequence;
+            for (int i = 0; i < chunk.count; i++) {
+                long time = chunk.timestamps[i];
+                if (time - toNanos >= 0) return;
+                nextSequence++;
+                long index = Math.floorDiv(time, bucketNanos);
+                if (index >= firstBucket) add(index, time, chunk.values[i]);
+            }
+        }
+    }
+
+    private void add(long index, long time, int value) {
+        int slot = (int) Math.floorMod(index, (long) bucketCount);
+        if (counts[slot] == 0 || bucketIndex[slot] != index) {
+            bucketIndex[slot] = index;
+            counts[slot] = 0;
+            timeOffsetSums[slot] = 0;
+            valueSums[slot] = 0;
+            firstTimes[slot] = time;
+            firstValues[slot] = value;
+            minTimes[slot] = time;
+            minValues[slot] = value;
+            maxTimes[slot] = time;
+            maxValues[slot] = value;
+        }
+        counts[slot]++;
+        timeOffsetSums[slot] += time - index * bucketNanos;
+        valueSums[slot] += value;
+        lastTimes[slot] = time;
+        lastValues[slot] = value;
+        if (value < minValues[slot]) {
+            minTimes[slot] = time;
+            minValues[slot] = value;
+        }
+        if (value > maxValues[slot]) {
+            maxTimes[slot] = time;
+            maxValues[slot] = value;
+        }
+        samplesFolded++;
+    }
+
+    // slot of the bucket if it is in the ring and has samples, -1 otherwise
+    private int slotOf(long index) {
+        int slot = (int) Math.floorMod(index, (long) bucketCount);
+        return counts[slot] > 0 && bucketIndex[slot] == index ? slot : -1;
+    }
+
+    private void buildMinMax(long firstBucket, long lastBucket) {
+        count = 0;
+        for (long index = firstBucket; index <= lastBucket; index++) {
+            int slot = slotOf(index);
+            if (slot < 0) continue;
+            if (minTimes[slot] == maxTimes[slot]) {
+                point(minTimes[slot], minValues[slot]);
+            } else if (minTimes[slot] < maxTimes[slot]) {
+                point(minTimes[slot], minValues[slot]);
+                point(maxTimes[slot], maxValues[slot]);
+            } else {
+                point(maxTimes[slot], maxValues[slot]);
+                point(minTimes[slot], minValues[slot]);
+            }
+        }
+    }
+
+    private void buildLttb(long firstBucket, long lastBucket) {
+        count = 0;
+        int buckets = 0;
+        for (long index = firstBucket; index <= lastBucket; index++) {
+            int slot = slotOf(index);
+            if (slot >= 0) filled[buckets++] = slot;
+        }
+        if (buckets == 0) return;
+
+        // relative to the window start, so the products stay exact enough in doubles
+        long origin = firstBucket * bucketNanos;
+        int first = filled[0];
+        int last = filled[buckets - 1];
+        point(firstTimes[first], firstValues[first]);
+        double ax = firstTimes[first] - origin;
+        double ay = firstValues[first];
+
+        for (int b = 0; b < buckets; b++) {
+            int slot = filled[b];
+            double cx;
+            double cy;
+            if (b + 1 < buckets) {
+                int next = filled[b + 1];
+                cx = bucketIndex[next] * bucketNanos - origin + (double) timeOffsetSums[next] / counts[next];
+                cy = (double) valueSums[next] / counts[next];
+            } else {
+                cx = lastTimes[last] - origin;
+                cy = lastValues[last];
+            }
+
+            double minArea = area(ax, ay, minTimes[slot] - origin, minValues[slot], cx, cy);
+            double maxArea = area(ax, ay, maxTimes[slot] - origin, maxValues[slot], cx, cy);
+            long time = minArea >= maxArea ? minTimes[slot] : maxTimes[slot];
+            int value = minArea >= maxArea ? minValues[slot] : maxValues[slot];
+            if (time > timestamps[count - 1]) {
+                point(time, value);
+                ax = time - origin;
+                ay = value;
+            }
+        }
+
+        if (lastTimes[last] > timestamps[count - 1]) point(lastTimes[last], lastValues[last]);
+    }
+
+    // twice the area of the triangle, the factor doesn't change which is largest
+    private static double area(double ax, double ay, double bx, double by, double cx, double cy) {
+        return Math.abs((ax - cx) * (by - ay) - (ax - bx) * (cy - ay));
+    }
+
+    private void point(long time, int value) {
+        timestamps[count] = time;
+        values[count] = value;
+        count++;
+    }
+}
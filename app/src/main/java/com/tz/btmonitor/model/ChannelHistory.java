@@ -0,0 +1,179 @@
+package com.tz.btmonitor.model;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The recent values of every channel, for plotting, in fixed rings of primitive arrays.
+ * <p>
+ * Covers channel ids 0 until channelCount and keeps the last capacity samples (rounded up to a
+ * power of two), so it takes {@link #bytesFor} of memory however long it runs. Values are kept
+ * per channel in one contiguous ring each, next to one shared ring of timestamps.
+ * <p>
+ * Exactly one thread may {@link #append}, any number of threads may read without locking.
+ * A read copies only the requested samples into a {@link Window} the reader keeps, and drops
+ * what the writer overwrote meanwhile. Nothing is allocated per sample or per read.
+ * <p>
+ * Slots are written with release stores and read with acquire loads (atomic arrays, there is
+ * no fence to put after plain loads at API 24 and Java 8). A copied slot the writer already
+ * refilled is therefore always seen with the counter that tells the read to drop it.
+ */
+public class ChannelHistory {
+
+    /**
+     * Samples of one channel read out of the history, reused from read to read.
+     */
+    public static class Window {
+        public final long[] timestamps;
+        public final int[] values;
+        // samples read, in timestamps[0] and values[0] onwards
+        public int count;
+        // sequence number of the first sample read, the next read can continue at firstSequence + count
+        public long firstSequence;
+
+        public Window(int capacity) {
+            timestamps = new long[capacity];
+            values = new int[capacity];
+        }
+
+        public int capacity() {
+            return values.length;
+        }
+    }
+
+    private final int channelCount;
+    private final int mask;
+    private final AtomicLongArray timestamps;
+    // ring of channel c at c * capacity
+    private final AtomicIntegerArray values;
+    // samples appended so far, the sequence number of the next one
+    private volatile long written = 0;
+
+    public ChannelHistory(int channelCount, int capacity) {
+        int size = ringSize(capacity);
+        this.channelCount = channelCount;
+        this.mask = size - 1;
+        this.timestamps = new AtomicLongArray(size);
+        this.values = new AtomicIntegerArray(channelCount * size);
+    }
+
+    // memory the arrays of a history of that size take
+    public static long bytesFor(int channelCount, int capacity) {
+        long size = ringSize(capacity);
+        return size * 8 + channelCount * size * 4;
+    }
+
+    private static int ringSize(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity));
+        return size < capacity ? size << 1 : size;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    // timestamp of the newest sample, 0 if there is none
+    public long getNewestTimestamp() {
+        long end = written;
+        return end == 0 ? 0 : timestamps.get((int) ((end - 1) & mask));
+    }
+
+    /**
+     * Adds one sample, values indexed by channel id. Channels from count on repeat their
+     * previous value. Writer thread only.
+     */
+    public void append(long timestampNanos, int[] sample, int count) {
+        long sequence = written;
+        int slot = (int) (sequence & mask);
+        int previous = (int) ((sequence - 1) & mask);
+        int capacity = mask + 1;
+        timestamps.lazySet(slot, timestampNanos);
+        for (int c = 0, base = 0; c < channelCount; c++, base += capacity) {
+            if (c < count) {
+                values.lazySet(base + slot, sample[c]);
+            } else {
+                values.lazySet(base + slot, sequence > 0 ? values.get(base + previous) : 0);
+            }
+        }
+        written = sequence + 1;
+    }
+
+    /**
+     * Sequence number of the first sample at or after the given time, {@link #getWritten()} if
+     * there is none. Timestamps are expected not to go backwards.
+     */
+    public long sequenceAt(long timestampNanos) {
+        long end = written;
+        // the oldest slot may be overwritten right now
+        long low = Math.max(0, end - mask);
+        long high = end;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (timestamps.get((int) (mid & mask)) - timestampNanos < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Reads samples of the channel from fromSequence up to toSequence (exclusive), as many as fit
+     * the window. Samples no longer held are skipped.
+     *
+     * @return number of samples read, also in window.count
+     */
+    public int read(int channelId, long fromSequence, long toSequence, Window window) {
+        window.count = 0;
+        window.firstSequence = fromSequence;
+        if (channelId < 0 || channelId >= channelCount) return 0;
+
+        long held = written;
+        long end = Math.min(toSequence, held);
+        long start = Math.max(Math.max(fromSequence, held - mask), 0);
+        if (end - start > window.capacity()) end = start + window.capacity();
+        if (end <= start) return 0;
+
+        int base = channelId * (mask + 1);
+        int count = (int) (end - start);
+        for (int i = 0; i < count; i++) {
+            int slot = (int) ((start + i) & mask);
+            window.timestamps[i] = timestamps.get(slot);
+            window.values[i] = values.get(base + slot);
+        }
+
+        // anything the writer reached while copying may be torn; the acquire loads above keep
+        // this read of written after the copy
+        long firstValid = written - mask;
+        if (start < firstValid) {
+            int dropped = (int) Math.min(count, firstValid - start);
+            count -= dropped;
+            System.arraycopy(window.timestamps, dropped, window.timestamps, 0, count);
+            System.arraycopy(window.values, dropped, window.values, 0, count);
+            start += dropped;
+        }
+        window.count = count;
+        window.firstSequence = start;
+        return count;
+    }
+
+    // the newest samples of the channel, as many as fit the window
+    public int readLatest(int channelId, Window window) {
+        long end = written;
+        return read(channelId, end - window.capacity(), end, window);
+    }
+
+    // samples of the channel from fromNanos up to toNanos (exclusive), the first ones that fit the window
+    public int readTimeRange(int channelId, long fromNanos, long toNanos, Window window) {
+        return read(channelId, sequenceAt(fromNanos), sequenceAt(toNanos), window);
+    }
+}
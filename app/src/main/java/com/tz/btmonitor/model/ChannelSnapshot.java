@@ -0,0 +1,92 @@
+package com.tz.btmonitor.model;
+
+/**
+ * Immutable view of the channel state at one version of a {@link ChannelStateStore}.
+ * <p>
+ * Channels are addressed by position (0 until {@link #size()}), sorted by channel id.
+ * Config arrays are shared between snapshots until the config changes, only values are
+ * copied per snapshot.
+ */
+public class ChannelSnapshot {
+    public static final ChannelSnapshot EMPTY = new ChannelSnapshot(0, new int[0], new int[0], new int[0], new int[0], new int[0]);
+
+    private final long version;
+    private final int[] ids;
+    private final int[] values;
+    private final int[] min;
+    private final int[] max;
+    private final int[] d;
+
+    ChannelSnapshot(long version, int[] ids, int[] values, int[] min, int[] max, int[] d) {
+        this.version = version;
+        this.ids = ids;
+        this.values = values;
+        this.min = min;
+        this.max = max;
+        this.d = d;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public boolean isEmpty() {
+        return ids.length == 0;
+    }
+
+    public int indexOf(int channelId) {
+        int low = 0;
+        int high = ids.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (ids[mid] < channelId) {
+                low = mid + 1;
+            } else if (ids[mid] > channelId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    public int getValue(int index) {
+        return values[index];
+    }
+
+    public int getMin(int index) {
+        return min[index];
+    }
+
+    public int getMax(int index) {
+        return max[index];
+    }
+
+    public int getD(int index) {
+        return d[index];
+    }
+
+    // whether both snapshots use the same config arrays, a config change replaces them
+    boolean sharesConfigWith(ChannelSnapshot other) {
+        return ids == other.ids && min == other.min && max == other.max && d == other.d;
+    }
+
+    // builds a standalone Channel, e.g. for editing in a dialog
+    public Channel toChannel(int index) {
+        Channel channel = new Channel();
+        channel.setId(ids[index]);
+        channel.setMin(min[index]);
+        channel.setMax(max[index]);
+        channel.setD(d[index]);
+        channel.setValue(values[index]);
+        return channel;
+    }
+}
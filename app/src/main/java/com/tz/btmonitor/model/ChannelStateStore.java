@@ -0,0 +1,168 @@
+package com.tz.btmonitor.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+/**
+ * Current state of all channels of the connected device, kept in primitive arrays.
+ * <p>
+ * Every update bumps a monotonically increasing version and records, per channel, the
+ * version it last changed at. Readers either take an immutable {@link ChannelSnapshot}
+ * or ask which channels changed since a version they already saw.
+ * <p>
+ * Channel ids are in range 0 until maxChannels, ids outside of it are ignored.
+ */
+public class ChannelStateStore {
+    private final int maxChannels;
+    // channel id -> position in the arrays below, -1 if the channel is not configured
+    private final int[] positionOf;
+
+    // config arrays are replaced, never modified, so snapshots can share them
+    private int[] ids = new int[0];
+    private int[] min = new int[0];
+    private int[] max = new int[0];
+    private int[] d = new int[0];
+
+    private int[] values = new int[0];
+    private long[] changedAt = new long[0];
+    private long version = 0;
+
+    public ChannelStateStore(int maxChannels) {
+        this.maxChannels = maxChannels;
+        this.positionOf = new int[maxChannels];
+        Arrays.fill(positionOf, -1);
+    }
+
+    public int getMaxChannels() {
+        return maxChannels;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public synchronized int size() {
+        return ids.length;
+    }
+
+    // replaces the whole config, values of channels that stay configured are kept
+    public synchronized void setConfig(Map<Integer, Channel> channels) {
+        int count = 0;
+        int[] newIds = new int[channels.size()];
+        for (Integer channelId : channels.keySet()) {
+            if (channelId >= 0 && channelId < maxChannels) newIds[count++] = channelId;
+        }
+        newIds = Arrays.copyOf(newIds, count);
+        Arrays.sort(newIds);
+
+        int[] newMin = new int[count];
+        int[] newMax = new int[count];
+        int[] newD = new int[count];
+        int[] newValues = new int[count];
+        long[] newChangedAt = new long[count];
+        long newVersion = version + 1;
+        for (int i = 0; i < count; i++) {
+            Channel channel = channels.get(newIds[i]);
+            newMin[i] = channel.getMin();
+            newMax[i] = channel.getMax();
+            newD[i] = channel.getD();
+            int oldPosition = positionOf[newIds[i]];
+            newValues[i] = oldPosition >= 0 ? values[oldPosition] : channel.getValue();
+            newChangedAt[i] = newVersion;
+        }
+
+        Arrays.fill(positionOf, -1);
+        for (int i = 0; i < count; i++) {
+            positionOf[newIds[i]] = i;
+        }
+        ids = newIds;
+        min = newMin;
+        max = newMax;
+        d = newD;
+        values = newValues;
+        changedAt = newChangedAt;
+        version = newVersion;
+    }
+
+    // updates min/max/d of a single channel, it has to be configured already
+    public synchronized boolean updateChannelConfig(Channel channel) {
+        int channelId = channel.getId();
+        if (channelId < 0 || channelId >= maxChannels || positionOf[channelId] < 0) return false;
+
+        int position = positionOf[channelId];
+        min = min.clone();
+        max = max.clone();
+        d = d.clone();
+        min[position] = channel.getMin();
+        max[position] = channel.getMax();
+        d[position] = channel.getD();
+        changedAt[position] = ++version;
+        return true;
+    }
+
+    /**
+     * Applies one sample, values are indexed by channel id.
+     *
+     * @return number of channels whose value changed
+     */
+    public synchronized int updateValues(int[] sample, int count) {
+        long newVersion = version + 1;
+        int changed = 0;
+        for (int i = 0; i < ids.length; i++) {
+            int channelId = ids[i];
+            if (channelId < count && values[i] != sample[channelId]) {
+                values[i] = sample[channelId];
+                changedAt[i] = newVersion;
+                changed++;
+            }
+        }
+        version = newVersion;
+        return changed;
+    }
+
+    public synchronized boolean contains(int channelId) {
+        return channelId >= 0 && channelId < maxChannels && positionOf[channelId] >= 0;
+    }
+
+    // returns null if the channel is not configured
+    public synchronized Channel getChannel(int channelId) {
+        if (!contains(channelId)) return null;
+        int position = positionOf[channelId];
+        Channel channel = new Channel();
+        channel.setId(channelId);
+        channel.setMin(min[position]);
+        channel.setMax(max[position]);
+        channel.setD(d[position]);
+        channel.setValue(values[position]);
+        return channel;
+    }
+
+    public synchronized ChannelSnapshot snapshot() {
+        return new ChannelSnapshot(version, ids, values.clone(), min, max, d);
+    }
+
+    /**
+     * Sets the bit of every channel id that changed after the given version.
+     *
+     * @return the current version, to be passed in on the next call
+     */
+    public synchronized long collectChangedSince(long sinceVersion, BitSet out) {
+        out.clear();
+        for (int i = 0; i < ids.length; i++) {
+            if (changedAt[i] > sinceVersion) out.set(ids[i]);
+        }
+        return version;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(positionOf, -1);
+        ids = new int[0];
+        min = new int[0];
+        max = new int[0];
+        d = new int[0];
+        values = new int[0];
+        changedAt = new long[0];
+        version++;
+    }
+}
@@ -4,8 +4,12 @@ import android.annotation.SuppressLint;
 import android.bluetooth.BluetoothDevice;
 
 public class Device {
+    // bonded devices listed without being seen have no signal strength
+    public static final int RSSI_UNKNOWN = Short.MIN_VALUE;
+
     private String name;
     private String address;
+    private int rssi = RSSI_UNKNOWN;
     private BluetoothDevice bluetoothDevice;
 
     public String getName() {
@@ -24,6 +28,15 @@ public class Device {
         this.address = address;
     }
 
+    // dBm of the last sighting
+    public int getRssi() {
+        return rssi;
+    }
+
+    public void setRssi(int rssi) {
+        this.rssi = rssi;
+    }
+
     public BluetoothDevice getBluetoothDevice() {
         return bluetoothDevice;
     }
@@ -32,6 +45,14 @@ public class Device {
         this.bluetoothDevice = bluetoothDevice;
     }
 
+    public Device copy() {
+        Device copyDevice = new Device();
+        copyDevice.setName(this.name);
+        copyDevice.setAddress(this.address);
+        copyDevice.setRssi(this.rssi);
+        copyDevice.setBluetoothDevice(this.bluetoothDevice);
+        return copyDevice;
+    }
 
     @SuppressLint("MissingPermission")
     public static Device create(BluetoothDevice bluetoothDevice) {
@@ -0,0 +1,129 @@
+package com.tz.btmonitor.model;
+
+/**
+ * The recent location fixes in a fixed ring of primitive arrays, to give every sample the
+ * position at its own timestamp instead of the last fix.
+ * <p>
+ * Fix and sample timestamps are System.nanoTime() values. A sample between two fixes gets the
+ * linear interpolation of both. Fixes arrive seconds apart and some time after they were
+ * taken, so a sample after the newest fix continues the last movement for up to
+ * maxExtrapolationNanos and keeps that position from then on; a sample before the oldest fix
+ * gets the oldest fix.
+ * <p>
+ * Fixes are added on one thread (the main thread in the app), positions are read from any
+ * thread. Nothing is allocated after construction.
+ */
+public class LocationTrack {
+    public static final int DEFAULT_CAPACITY = 32;
+    public static final long DEFAULT_MAX_EXTRAPOLATION_NANOS = 5_000_000_000L;
+
+    private final long maxExtrapolationNanos;
+    // guarded by this, index of fix i (0 = oldest) is (start + i) % capacity
+    private final long[] timesNanos;
+    private final double[] lats;
+    private final double[] lngs;
+    private int start = 0;
+    private int size = 0;
+
+    public LocationTrack() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_EXTRAPOLATION_NANOS);
+    }
+
+    public LocationTrack(int capacity, long maxExtrapolationNanos) {
+        if (capacity < 2) throw new IllegalArgumentException("Capacity has to be at least 2");
+        this.maxExtrapolationNanos = maxExtrapolationNanos;
+        this.timesNanos = new long[capacity];
+        this.lats = new double[capacity];
+        this.lngs = new double[capacity];
+    }
+
+    /**
+     * Adds a fix taken at the given time. A fix older than the newest one is dropped, one taken
+     * at the same time replaces it. The oldest fix makes room once the track is full.
+     */
+    public synchronized void addFix(long timeNanos, double lat, double lng) {
+        int index;
+        if (size > 0) {
+            long newest = timesNanos[indexOf(size - 1)];
+            if (timeNanos - newest < 0) return;
+            if (timeNanos == newest) {
+                index = indexOf(size - 1);
+                lats[index] = lat;
+                lngs[index] = lng;
+                return;
+            }
+        }
+        if (size == timesNanos.length) {
+            start = (start + 1) % timesNanos.length;
+            size--;
+        }
+        index = indexOf(size);
+        timesNanos[index] = timeNanos;
+        lats[index] = lat;
+        lngs[index] = lng;
+        size++;
+    }
+
+    /**
+     * Writes the position at the given time into out.
+     *
+     * @return false if there is no fix yet, out is left as it is
+     */
+    public synchronized boolean positionAt(long timeNanos, LatLng out) {
+        if (size == 0) return false;
+        int newest = indexOf(size - 1);
+        if (timeNanos - timesNanos[newest] >= 0) {
+            if (size == 1) {
+                set(out, newest);
+                return true;
+            }
+            // continues the last segment, then holds
+            long ahead = Math.min(timeNanos - timesNanos[newest], maxExtrapolationNanos);
+            interpolate(indexOf(size - 2), newest, timesNanos[newest] + ahead, out);
+            return true;
+        }
+        if (timeNanos - timesNanos[indexOf(0)] <= 0) {
+            set(out, indexOf(0));
+            return true;
+        }
+
+        // the first fix after the time, fixes are in time order
+        int low = 1;
+        int high = size - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timesNanos[indexOf(mid)] - timeNanos > 0) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        interpolate(indexOf(low - 1), indexOf(low), timeNanos, out);
+        return true;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        start = 0;
+        size = 0;
+    }
+
+    private int indexOf(int i) {
+        return (start + i) % timesNanos.length;
+    }
+
+    private void set(LatLng out, int index) {
+        out.setLat(lats[index]);
+        out.setLng(lngs[index]);
+    }
+
+    // along the line through fixes a and b, also beyond b
+    private void interpolate(int a, int b, long timeNanos, LatLng out) {
+        double fraction = (double) (timeNanos - timesNanos[a]) / (timesNanos[b] - timesNanos[a]);
+        out.setLat(lats[a] + (lats[b] - lats[a]) * fraction);
+        out.setLng(lngs[a] + (lngs[b] - lngs[a]) * fraction);
+    }
+}
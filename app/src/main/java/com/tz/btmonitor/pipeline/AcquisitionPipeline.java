@@ -0,0 +1,421 @@
+package com.tz.btmonitor.pipeline;
+
+import com.tz.btmonitor.bluetooth.FrameDecoder;
+import com.tz.btmonitor.bluetooth.Parser;
+import com.tz.btmonitor.metrics.AcquisitionMetrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Staged receive path: a reader thread frames the input stream into a {@link FrameQueue},
+ * a process thread parses the frames and fans samples out to the registered sinks.
+ * <p>
+ * VALUES frames are parsed into a reused int array and handed to every {@link SampleSink}
+ * on the process thread, sinks must not block for long. Any other frame (config replies etc.)
+ * goes to {@link Listener#onMessage(String)}, also from the process thread.
+ * <p>
+ * What happens when the process stage can't keep up is the {@link IngestPolicy}. Whatever the
+ * policy, only VALUES frames are ever discarded, other frames wait for room.
+ * <p>
+ * Pure java, so the whole path can run in a unit test against any InputStream.
+ */
+public class AcquisitionPipeline {
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+    public static final int DEFAULT_MAX_CHANNELS = 256;
+    private static final int DRAIN_BATCH = 64;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+    // an idle process thread waits for the reader's wakeup, this only bounds a missed one
+    private static final long MAX_IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    public enum IngestPolicy {
+        // the reader waits for room, nothing is lost, the socket's buffer fills up instead
+        BLOCK,
+        // a full queue drops its oldest sample to take the new one
+        DROP_OLDEST,
+        // a full queue drops the new sample
+        DROP_NEWEST,
+        // a full queue folds new samples into one pending sample, keeping the latest value of
+        // every channel. It is delivered once the queue ran empty
+        CONFLATE_LATEST
+    }
+
+    private final InputStream inputStream;
+    private final Listener listener;
+    private final FrameQueue queue;
+    private final FrameDecoder decoder;
+    private final List<SampleSink> sinks = new CopyOnWriteArrayList<>();
+    private final int[] values;
+    private final IngestPolicy policy;
+
+    private Thread readerThread;
+    private Thread processThread;
+    private volatile boolean running = false;
+    private volatile boolean readerDone = false;
+    // set by the idle process thread before it parks, cleared by whoever wakes it
+    private final AtomicBoolean processWaiting = new AtomicBoolean();
+    private volatile AcquisitionMetrics metrics;
+
+    // reader stage, written by the reader thread only
+    private volatile long framesRead = 0;
+    private volatile long lastReadNanos = 0;
+    private volatile long droppedNewest = 0;
+    private volatile long conflatedSamples = 0;
+    private final int[] readerValues;
+    // CONFLATE_LATEST, the sample waiting for the process stage, guarded by conflationLock
+    private final Object conflationLock = new Object();
+    private final int[] conflated;
+    private int conflatedCount;
+    private long conflatedTimestamp;
+    private long conflatedParseNanos;
+    private volatile boolean conflationPending = false;
+    // process stage, written by the process thread only
+    private volatile long framesProcessed = 0;
+    private volatile long samplesProcessed = 0;
+    private volatile long malformedFrames = 0;
+    private volatile long messagesProcessed = 0;
+
+    public AcquisitionPipeline(InputStream inputStream, Listener listener) {
+        this(inputStream, listener, DEFAULT_QUEUE_CAPACITY, FrameDecoder.DEFAULT_MAX_FRAME_LENGTH, DEFAULT_MAX_CHANNELS);
+    }
+
+    public AcquisitionPipeline(InputStream inputStream, Listener listener, IngestPolicy policy) {
+        this(inputStream, listener, DEFAULT_QUEUE_CAPACITY, FrameDecoder.DEFAULT_MAX_FRAME_LENGTH, DEFAULT_MAX_CHANNELS, policy);
+    }
+
+    public AcquisitionPipeline(InputStream inputStream, Listener listener, int queueCapacity, int maxFrameLength, int maxChannels) {
+        this(inputStream, listener, queueCapacity, maxFrameLength, maxChannels, IngestPolicy.BLOCK);
+    }
+
+    public AcquisitionPipeline(InputStream inputStream, Listener listener, int queueCapacity, int maxFrameLength, int maxChannels, IngestPolicy policy) {
+        this.inputStream = inputStream;
+        this.listener = listener;
+        this.policy = policy;
+        this.queue = new FrameQueue(queueCapacity, maxFrameLength, policy == IngestPolicy.DROP_OLDEST);
+        this.decoder = new FrameDecoder(maxFrameLength, this::enqueue);
+        this.values = new int[maxChannels];
+        boolean conflating = policy == IngestPolicy.CONFLATE_LATEST;
+        this.readerValues = conflating ? new int[maxChannels] : null;
+        this.conflated = conflating ? new int[maxChannels] : null;
+    }
+
+    public IngestPolicy getIngestPolicy() {
+        return policy;
+    }
+
+    public void addSink(SampleSink sink) {
+        sinks.add(sink);
+    }
+
+    public void removeSink(SampleSink sink) {
+        sinks.remove(sink);
+    }
+
+    // optional, set before start
+    public void setMetrics(AcquisitionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        readerDone = false;
+        readerThread = new Thread(this::readLoop, "acquisition-reader");
+        processThread = new Thread(this::processLoop, "acquisition-process");
+        processThread.start();
+        readerThread.start();
+    }
+
+    /**
+     * Stops both stages. Frames already queued are still processed. The input stream is not
+     * closed here, close it (or the socket) to unblock a pending read.
+     * <p>
+     * Returns right away, so it can be called from the listener. Sinks may still get samples
+     * until {@link #join} returned; join before closing anything a sink writes to.
+     */
+    public synchronized void stop() {
+        running = false;
+        if (readerThread != null) readerThread.interrupt();
+    }
+
+    /**
+     * Waits for both threads to finish, so no more samples reach the sinks. Called from one of
+     * the pipeline's own threads (the listener) it doesn't wait for that one.
+     *
+     * @return false if a thread is still running after the timeout
+     */
+    public boolean join(long timeoutMillis) throws InterruptedException {
+        Thread reader;
+        Thread process;
+        synchronized (this) {
+            reader = readerThread;
+            process = processThread;
+        }
+        Thread current = Thread.currentThread();
+        if (reader == current) reader = null;
+        if (process == current) process = null;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        if (reader != null) reader.join(Math.max(1, deadline - System.currentTimeMillis()));
+        if (process != null) process.join(Math.max(1, deadline - System.currentTimeMillis()));
+        return (reader == null || !reader.isAlive()) && (process == null || !process.isAlive());
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void readLoop() {
+        try {
+            while (running) {
+                int read = decoder.readFrom(inputStream);
+                if (read < 0) {
+                    throw new IOException("Stream closed");
+                }
+                AcquisitionMetrics m = metrics;
+                if (m != null) m.onBytesRead(read);
+            }
+        } catch (IOException e) {
+            boolean report = running;
+            // done reading, the process stage can finish while the listener stops or joins
+            readerDone = true;
+            LockSupport.unpark(processThread);
+            if (report) listener.onError(e);
+        } catch (ReaderInterruptedException e) {
+            // stopped while waiting for a free slot
+        } finally {
+            readerDone = true;
+            LockSupport.unpark(processThread);
+        }
+    }
+
+    private void enqueue(byte[] buffer, int offset, int length) {
+        long now = System.nanoTime();
+        lastReadNanos = now;
+        framesRead++;
+        AcquisitionMetrics m = metrics;
+        if (m != null) m.onFrameRead();
+        try {
+            switch (policy) {
+                case BLOCK:
+                    queue.put(buffer, offset, length, now);
+                    break;
+                case DROP_OLDEST: {
+                    boolean sample = Parser.isValuesFrame(buffer, offset, length);
+                    long dropped = queue.getDroppedOldest();
+                    if (!queue.offerDroppingOldest(buffer, offset, length, now, sample)) {
+                        // a sample waiting here stays droppable for the frames behind it
+                        queue.put(buffer, offset, length, now, sample);
+                    }
+                    dropped = queue.getDroppedOldest() - dropped;
+                    if (dropped > 0 && m != null) m.onSamplesDropped(dropped);
+                    break;
+                }
+                case DROP_NEWEST:
+                    if (queue.offer(buffer, offset, length, now)) break;
+                    if (Parser.isValuesFrame(buffer, offset, length)) {
+                        droppedNewest++;
+                        if (m != null) m.onSamplesDropped(1);
+                    } else {
+                        queue.put(buffer, offset, length, now);
+                    }
+                    break;
+                case CONFLATE_LATEST:
+                    // once a sample is pending, newer ones queued would overtake it
+                    if (!conflationPending && queue.offer(buffer, offset, length, now)) break;
+                    if (!conflate(buffer, offset, length, now)) {
+                        wakeProcess();
+                        while (conflationPending) {
+                            LockSupport.parkNanos(IDLE_PARK_NANOS);
+                            if (Thread.interrupted()) throw new InterruptedException();
+                        }
+                        queue.put(buffer, offset, length, now);
+                    }
+                    break;
+            }
+        } catch (InterruptedException e) {
+            throw new ReaderInterruptedException();
+        }
+        wakeProcess();
+    }
+
+    // reader thread, something was queued or conflated
+    private void wakeProcess() {
+        if (processWaiting.compareAndSet(true, false)) LockSupport.unpark(processThread);
+    }
+
+    // reader thread, false if the frame is not a well formed VALUES frame
+    private boolean conflate(byte[] buffer, int offset, int length, long timestampNanos) {
+        long parseStart = System.nanoTime();
+        int count = Parser.parseValues(buffer, offset, length, readerValues);
+        if (count < 0) return false;
+        long parseNanos = System.nanoTime() - parseStart;
+
+        synchronized (conflationLock) {
+            if (conflationPending) {
+                // channels the new sample doesn't have keep their latest value
+                conflatedSamples++;
+                AcquisitionMetrics m = metrics;
+                if (m != null) m.onSampleConflated();
+                conflatedCount = Math.max(conflatedCount, count);
+            } else {
+                conflatedCount = count;
+            }
+            System.arraycopy(readerValues, 0, conflated, 0, count);
+            conflatedTimestamp = timestampNanos;
+            conflatedParseNanos = parseNanos;
+            conflationPending = true;
+        }
+        return true;
+    }
+
+    private void processLoop() {
+        FrameQueue.FrameHandler handler = this::process;
+        while (true) {
+            int handled = queue.drain(handler, DRAIN_BATCH);
+            if (handled > 0) continue;
+            if (conflationPending) {
+                deliverConflated();
+                continue;
+            }
+            // finish only once the reader is gone and everything it queued was handled
+            if (readerDone && queue.isEmpty() && !conflationPending) break;
+            processWaiting.set(true);
+            if (queue.isEmpty() && !conflationPending && !readerDone) {
+                LockSupport.parkNanos(this, MAX_IDLE_WAIT_NANOS);
+            }
+            processWaiting.set(false);
+        }
+        running = false;
+        listener.onStopped();
+    }
+
+    // process thread, the queue ran empty so the pending sample is the newest one
+    private void deliverConflated() {
+        int count;
+        long timestampNanos;
+        long parseNanos;
+        synchronized (conflationLock) {
+            count = conflatedCount;
+            System.arraycopy(conflated, 0, values, 0, count);
+            timestampNanos = conflatedTimestamp;
+            parseNanos = conflatedParseNanos;
+            conflationPending = false;
+        }
+
+        framesProcessed++;
+        samplesProcessed++;
+        AcquisitionMetrics m = metrics;
+        if (m != null) m.onSampleParsed(parseNanos);
+        for (SampleSink sink : sinks) {
+            sink.onSample(values, count, timestampNanos);
+        }
+    }
+
+    private void process(byte[] frame, int length, long timestampNanos) {
+        framesProcessed++;
+        AcquisitionMetrics m = metrics;
+        long parseStart = m != null ? System.nanoTime() : 0;
+        int count = Parser.parseValues(frame, 0, length, values);
+        if (count >= 0) {
+            samplesProcessed++;
+            if (m != null) m.onSampleParsed(System.nanoTime() - parseStart);
+            for (SampleSink sink : sinks) {
+                sink.onSample(values, count, timestampNanos);
+            }
+        } else if (count == Parser.VALUES_NOT_A_VALUES_MESSAGE) {
+            messagesProcessed++;
+            if (m != null) m.onMessage();
+            listener.onMessage(new String(frame, 0, length, StandardCharsets.US_ASCII));
+        } else {
+            malformedFrames++;
+            if (m != null) m.onMalformedFrame();
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getQueueCapacity() {
+        return queue.capacity();
+    }
+
+    public long getMaxQueueDepth() {
+        return queue.getMaxDepth();
+    }
+
+    public long getReaderStalls() {
+        return queue.getProducerStalls();
+    }
+
+    public long getBytesRead() {
+        return decoder.getBytesReceived();
+    }
+
+    public long getFramesRead() {
+        return framesRead;
+    }
+
+    public long getOversizedFrames() {
+        return decoder.getOversizedFrames();
+    }
+
+    public long getLastReadNanos() {
+        return lastReadNanos;
+    }
+
+    public long getFramesProcessed() {
+        return framesProcessed;
+    }
+
+    public long getSamplesProcessed() {
+        return samplesProcessed;
+    }
+
+    public long getMessagesProcessed() {
+        return messagesProcessed;
+    }
+
+    public long getMalformedFrames() {
+        return malformedFrames;
+    }
+
+    // samples discarded by DROP_OLDEST or DROP_NEWEST
+    public long getDroppedSamples() {
+        return queue.getDroppedOldest() + droppedNewest;
+    }
+
+    // samples folded into a newer one by CONFLATE_LATEST
+    public long getConflatedSamples() {
+        return conflatedSamples;
+    }
+
+    // unchecked so it can cross the FrameDecoder callback
+    private static class ReaderInterruptedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    public interface SampleSink {
+        // values are indexed by channel id and reused for the next sample, copy what you keep
+        void onSample(int[] values, int count, long timestampNanos);
+
+        // nothing was received between the two timestamps, e.g. while reconnecting; called
+        // before the first sample after the gap
+        default void onGap(long fromNanos, long toNanos) {
+        }
+    }
+
+    public interface Listener {
+        void onMessage(String message);
+
+        void onError(IOException e);
+
+        void onStopped();
+    }
+}
@@ -0,0 +1,202 @@
+package com.tz.btmonitor.pipeline;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single producer / single consumer queue of frames.
+ * <p>
+ * Every slot owns a preallocated byte array of maxFrameLength, so frames are copied in once
+ * by the producer and read in place by the consumer. Nothing is allocated after construction.
+ * Exactly one thread may call {@link #offer}/{@link #put} and one thread {@link #drain}.
+ * <p>
+ * A queue created with dropsOldest lets the producer make room with
+ * {@link #offerDroppingOldest}. Producer and consumer then both advance the read position by
+ * compare-and-set, and the consumer copies each frame out of its slot before claiming it, since
+ * the producer may refill a slot as soon as it dropped its frame.
+ */
+public class FrameQueue {
+    private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final byte[][] slots;
+    private final int[] lengths;
+    private final long[] timestamps;
+    private final int mask;
+    private final int maxFrameLength;
+    // frames the producer marked as fine to drop
+    private final boolean[] droppable;
+    private final boolean dropsOldest;
+    // consumer's copy of the frame being handled, dropsOldest only
+    private final byte[] claimed;
+
+    // next position to read / write, only ever increase
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private volatile long maxDepth = 0;
+    private volatile long producerStalls = 0;
+    private volatile long rejected = 0;
+    private volatile long droppedOldest = 0;
+
+    public FrameQueue(int capacity, int maxFrameLength) {
+        this(capacity, maxFrameLength, false);
+    }
+
+    public FrameQueue(int capacity, int maxFrameLength, boolean dropsOldest) {
+        int size = Integer.highestOneBit(Math.max(2, capacity));
+        if (size < capacity) size <<= 1;
+        this.slots = new byte[size][maxFrameLength];
+        this.lengths = new int[size];
+        this.timestamps = new long[size];
+        this.mask = size - 1;
+        this.maxFrameLength = maxFrameLength;
+        this.droppable = new boolean[size];
+        this.dropsOldest = dropsOldest;
+        this.claimed = dropsOldest ? new byte[maxFrameLength] : null;
+    }
+
+    /**
+     * Copies the frame into the next free slot.
+     *
+     * @return false if the queue is full or the frame doesn't fit a slot
+     */
+    public boolean offer(byte[] src, int offset, int length, long timestampNanos) {
+        return offer(src, offset, length, timestampNanos, false);
+    }
+
+    /**
+     * @param canDrop whether {@link #offerDroppingOldest} may drop this frame later on
+     */
+    public boolean offer(byte[] src, int offset, int length, long timestampNanos, boolean canDrop) {
+        if (length > maxFrameLength) {
+            rejected++;
+            return false;
+        }
+
+        long writePos = tail.get();
+        long depth = writePos - head.get();
+        if (depth > mask) return false;
+
+        int slot = (int) (writePos & mask);
+        System.arraycopy(src, offset, slots[slot], 0, length);
+        lengths[slot] = length;
+        timestamps[slot] = timestampNanos;
+        droppable[slot] = canDrop;
+        tail.lazySet(writePos + 1);
+
+        if (depth + 1 > maxDepth) maxDepth = depth + 1;
+        return true;
+    }
+
+    // like offer, but waits for a free slot when the queue is full
+    public boolean put(byte[] src, int offset, int length, long timestampNanos) throws InterruptedException {
+        return put(src, offset, length, timestampNanos, false);
+    }
+
+    // see offer for canDrop
+    public boolean put(byte[] src, int offset, int length, long timestampNanos, boolean canDrop) throws InterruptedException {
+        if (offer(src, offset, length, timestampNanos, canDrop)) return true;
+        if (length > maxFrameLength) return false;
+
+        producerStalls++;
+        while (!offer(src, offset, length, timestampNanos, canDrop)) {
+            LockSupport.parkNanos(PARK_NANOS);
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+        return true;
+    }
+
+    /**
+     * Like offer, but a full queue drops its oldest frame to make room, as long as that one was
+     * offered with canDrop. Only for a queue created with dropsOldest.
+     *
+     * @return false if the queue is full of a frame that can't be dropped, or the frame doesn't
+     * fit a slot
+     */
+    public boolean offerDroppingOldest(byte[] src, int offset, int length, long timestampNanos, boolean canDrop) {
+        if (!dropsOldest) throw new IllegalStateException("Queue was not created to drop frames");
+        if (length > maxFrameLength) {
+            rejected++;
+            return false;
+        }
+
+        while (!offer(src, offset, length, timestampNanos, canDrop)) {
+            long readPos = head.get();
+            // the consumer made room meanwhile
+            if (tail.get() - readPos <= mask) continue;
+            if (!droppable[(int) (readPos & mask)]) return false;
+            // fails if the consumer claimed the frame first, then there is room anyway
+            if (head.compareAndSet(readPos, readPos + 1)) droppedOldest++;
+        }
+        return true;
+    }
+
+    /**
+     * Hands up to maxFrames queued frames to the handler, in order. The array is only valid
+     * during the callback.
+     *
+     * @return number of frames handled
+     */
+    public int drain(FrameHandler handler, int maxFrames) {
+        if (dropsOldest) return drainCopying(handler, maxFrames);
+        long readPos = head.get();
+        long available = tail.get() - readPos;
+        int count = (int) Math.min(available, maxFrames);
+        for (int i = 0; i < count; i++) {
+            int slot = (int) ((readPos + i) & mask);
+            handler.onFrame(slots[slot], lengths[slot], timestamps[slot]);
+            head.lazySet(readPos + i + 1);
+        }
+        return count;
+    }
+
+    private int drainCopying(FrameHandler handler, int maxFrames) {
+        int handled = 0;
+        while (handled < maxFrames) {
+            long readPos = head.get();
+            if (tail.get() == readPos) break;
+            int slot = (int) (readPos & mask);
+            int length = lengths[slot];
+            long timestampNanos = timestamps[slot];
+            System.arraycopy(slots[slot], 0, claimed, 0, length);
+            // dropped while copying, the copy may be torn by the refill
+            if (!head.compareAndSet(readPos, readPos + 1)) continue;
+            handler.onFrame(claimed, length, timestampNanos);
+            handled++;
+        }
+        return handled;
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    public long getMaxDepth() {
+        return maxDepth;
+    }
+
+    public long getProducerStalls() {
+        return producerStalls;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getDroppedOldest() {
+        return droppedOldest;
+    }
+
+    public interface FrameHandler {
+        void onFrame(byte[] frame, int length, long timestampNanos);
+    }
+}
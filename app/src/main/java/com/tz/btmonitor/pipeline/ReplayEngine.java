@@ -0,0 +1,222 @@
+package com.tz.btmonitor.pipeline;
+
+import com.tz.btmonitor.bluetooth.BluetoothClientManager;
+import com.tz.btmonitor.file_writer.RecordedSample;
+import com.tz.btmonitor.file_writer.RecordingSource;
+import com.tz.btmonitor.model.ChannelConfig;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a recording back into the app like a connected device would.
+ * <p>
+ * Config changes of the recording are sent as "CH=n,Dx=v,..." messages to
+ * {@link BluetoothClientManager.Callback#onNewMessageReceived(String)} through the callback
+ * executor (the main thread in the app), samples go to the {@link AcquisitionPipeline.SampleSink}s
+ * on the replay thread, the same threads {@link BluetoothClientManager} uses. Replay waits until a
+ * config message was handled before it emits the samples recorded under it, so {@link #run()}
+ * must not be called on the callback executor's thread unless the executor runs tasks directly.
+ * Samples are stamped with the time they are emitted, like received frames.
+ * <p>
+ * The speed is a multiple of the recorded pace, {@link #REAL_TIME} or faster, or
+ * {@link #AS_FAST_AS_POSSIBLE}. The {@link Report} shows what the sinks sustained.
+ */
+public class ReplayEngine {
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+    public static final double REAL_TIME = 1;
+    // how often a replay waiting for a config message checks whether it was stopped
+    private static final long CONFIG_WAIT_SLICE_MILLIS = 10;
+
+    public interface Listener {
+        void onFinished(Report report);
+
+        void onError(IOException e);
+    }
+
+    public static class Report {
+        public long samples;
+        public long configMessages;
+        // wall time of the replay
+        public long elapsedNanos;
+        // time span covered by the replayed samples
+        public long recordedNanos;
+        // worst delay of a sample behind its schedule, 0 without pacing
+        public long maxLagNanos;
+        public boolean stopped;
+
+        public double getSamplesPerSecond() {
+            return elapsedNanos == 0 ? 0 : samples * 1e9 / elapsedNanos;
+        }
+
+        // recorded time played per wall time, can be below the requested speed if the sinks are too slow
+        public double getAchievedSpeed() {
+            return elapsedNanos == 0 ? 0 : (double) recordedNanos / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "Report{samples=%d, configMessages=%d, elapsed=%.1fms, %.0f samples/s, speed=%.1fx, maxLag=%.2fms%s}",
+                    samples, configMessages, elapsedNanos / 1e6, getSamplesPerSecond(), getAchievedSpeed(),
+                    maxLagNanos / 1e6, stopped ? ", stopped" : "");
+        }
+    }
+
+    private final RecordingSource source;
+    private final BluetoothClientManager.Callback callback;
+    private final Executor callbackExecutor;
+    private final double speed;
+    private final List<AcquisitionPipeline.SampleSink> sinks = new CopyOnWriteArrayList<>();
+
+    private Thread thread;
+    private volatile boolean running = false;
+    private volatile long samplesEmitted = 0;
+
+    public ReplayEngine(RecordingSource source, BluetoothClientManager.Callback callback, Executor callbackExecutor, double speed) {
+        if (speed < 0) throw new IllegalArgumentException("Negative speed " + speed);
+        this.source = source;
+        this.callback = callback;
+        this.callbackExecutor = callbackExecutor;
+        this.speed = speed;
+    }
+
+    public void addSink(AcquisitionPipeline.SampleSink sink) {
+        sinks.add(sink);
+    }
+
+    public void removeSink(AcquisitionPipeline.SampleSink sink) {
+        sinks.remove(sink);
+    }
+
+    // replays on the "replay" thread, the listener is called from it at the end
+    public synchronized void start(Listener listener) {
+        if (thread != null) return;
+        running = true;
+        thread = new Thread(() -> {
+            try {
+                listener.onFinished(replay());
+            } catch (IOException e) {
+                listener.onError(e);
+            }
+        }, "replay");
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        Thread replayThread = thread;
+        if (replayThread != null) LockSupport.unpark(replayThread);
+    }
+
+    public void join(long timeoutMillis) throws InterruptedException {
+        Thread replayThread = thread;
+        if (replayThread != null) replayThread.join(timeoutMillis);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getSamplesEmitted() {
+        return samplesEmitted;
+    }
+
+    /**
+     * Replays the whole recording on the calling thread. The source is left open.
+     */
+    public Report run() throws IOException {
+        running = true;
+        return replay();
+    }
+
+    private Report replay() throws IOException {
+        Report report = new Report();
+        RecordedSample sample = new RecordedSample();
+        int configVersion = -1;
+        long firstTimestamp = 0;
+        long lastTimestamp = 0;
+        long startNanos = System.nanoTime();
+
+        try {
+            while (running && source.next(sample)) {
+                if (source.getConfigVersion() != configVersion) {
+                    configVersion = source.getConfigVersion();
+                    if (source.getConfig() != null && source.getConfig().size() > 0) {
+                        deliverConfig(toConfigMessage(source.getConfig()));
+                        report.configMessages++;
+                    }
+                }
+
+                if (report.samples == 0) firstTimestamp = sample.timestampNanos;
+                lastTimestamp = sample.timestampNanos;
+                if (speed != AS_FAST_AS_POSSIBLE) {
+                    long due = startNanos + (long) ((sample.timestampNanos - firstTimestamp) / speed);
+                    long lag = waitUntil(due);
+                    if (lag > report.maxLagNanos) report.maxLagNanos = lag;
+                }
+
+                long now = System.nanoTime();
+                for (AcquisitionPipeline.SampleSink sink : sinks) {
+                    sink.onSample(sample.values, sample.count, now);
+                }
+                report.samples++;
+                samplesEmitted = report.samples;
+            }
+        } finally {
+            report.stopped = !running;
+            running = false;
+            report.elapsedNanos = System.nanoTime() - startNanos;
+            report.recordedNanos = lastTimestamp - firstTimestamp;
+        }
+        return report;
+    }
+
+    // returns once the callback handled the message, or the replay was stopped meanwhile
+    private void deliverConfig(String message) {
+        CountDownLatch delivered = new CountDownLatch(1);
+        callbackExecutor.execute(() -> {
+            try {
+                callback.onNewMessageReceived(message);
+            } finally {
+                delivered.countDown();
+            }
+        });
+        try {
+            while (running && !delivered.await(CONFIG_WAIT_SLICE_MILLIS, TimeUnit.MILLISECONDS)) {
+                // stop() only clears the flag
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    // parks until the given time, returns how late the call already was
+    private long waitUntil(long dueNanos) {
+        long now = System.nanoTime();
+        if (now >= dueNanos) return now - dueNanos;
+        while (running && now < dueNanos) {
+            LockSupport.parkNanos(dueNanos - now);
+            now = System.nanoTime();
+        }
+        return 0;
+    }
+
+    // same form as the device's reply to GET_CFG
+    static String toConfigMessage(ChannelConfig config) {
+        int declared = config.getDeclaredChannels();
+        StringBuilder builder = new StringBuilder("CH=")
+                .append(declared != ChannelConfig.UNKNOWN_CHANNEL_COUNT ? declared : config.size());
+        for (int i = 0; i < config.size(); i++) {
+            builder.append(",D").append(config.getId(i)).append('=').append(config.getD(i));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,484 @@
+package com.tz.btmonitor.session;
+
+import com.tz.btmonitor.bluetooth.CommandChannel;
+import com.tz.btmonitor.bluetooth.Parser;
+import com.tz.btmonitor.bluetooth.ReconnectPolicy;
+import com.tz.btmonitor.bluetooth.ReconnectSupervisor;
+import com.tz.btmonitor.bluetooth.Transport;
+import com.tz.btmonitor.file_writer.SegmentedRecordingWriter;
+import com.tz.btmonitor.metrics.AcquisitionMetrics;
+import com.tz.btmonitor.model.Channel;
+import com.tz.btmonitor.model.ChannelSnapshot;
+import com.tz.btmonitor.model.ChannelStateStore;
+import com.tz.btmonitor.model.LatLng;
+import com.tz.btmonitor.model.LocationTrack;
+import com.tz.btmonitor.pipeline.AcquisitionPipeline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * One device of a {@link SessionManager}: its transport, acquisition pipeline, channel state,
+ * metrics and recording, independent of every other session.
+ * <p>
+ * Connecting runs on a thread of its own, reading and parsing on the pipeline's threads and
+ * writes to the device on a per session {@link CommandChannel}, so a slow or dead device holds up
+ * nothing but itself. State and config callbacks go through the callback executor (the main
+ * thread in the app), {@link Listener#onSample} is called on the acquisition thread.
+ * <p>
+ * A lost connection is reconnected as the {@link ReconnectPolicy} says. Meanwhile the session is
+ * {@link State#RECONNECTING}, keeps its config and recording and queues commands; once back the
+ * recording gets a gap and goes on.
+ */
+public class DeviceSession implements AcquisitionPipeline.SampleSink {
+    // how long a restored connection or a disconnect waits for the pipeline to hand over its last samples
+    private static final long PIPELINE_STOP_TIMEOUT_MILLIS = 2000;
+
+    public enum State {
+        CONNECTING, CONNECTED, RECONNECTING, DISCONNECTED
+    }
+
+    public interface Listener {
+        void onStateChanged(DeviceSession session, State state);
+
+        // the device reported its config, the session's channels hold it already
+        void onConfigChanged(DeviceSession session);
+
+        // every sample, on the acquisition thread
+        void onSample(DeviceSession session);
+    }
+
+    // what the ui shows of a session, taken at one point in time
+    public static class Status {
+        public final String id;
+        public final String name;
+        public final State state;
+        public final ChannelSnapshot channels;
+        public final AcquisitionMetrics metrics;
+
+        Status(DeviceSession session) {
+            id = session.id;
+            name = session.name;
+            state = session.state;
+            channels = session.channels.snapshot();
+            metrics = session.metrics;
+        }
+    }
+
+    private final String id;
+    private final String name;
+    private final Transport transport;
+    private final Executor callbackExecutor;
+    private final Listener listener;
+    private final ChannelStateStore channels;
+    private final AcquisitionMetrics metrics = new AcquisitionMetrics();
+    private final List<AcquisitionPipeline.SampleSink> sinks = new CopyOnWriteArrayList<>();
+
+    private volatile State state = State.DISCONNECTED;
+    private volatile IOException lastError;
+    private volatile SegmentedRecordingWriter recorder;
+    private volatile LocationTrack locationTrack = new LocationTrack();
+    // acquisition thread only
+    private final LatLng samplePosition = new LatLng();
+    private volatile AcquisitionPipeline.IngestPolicy ingestPolicy = AcquisitionPipeline.IngestPolicy.BLOCK;
+    private volatile ReconnectPolicy reconnectPolicy = ReconnectPolicy.DEFAULT;
+    private final Random reconnectRandom = new Random();
+
+    // read-modify-writes of the channel config, from the caller and from the acquisition thread
+    private final Object configLock = new Object();
+
+    // guarded by this
+    private AcquisitionPipeline pipeline;
+    private CommandChannel commands;
+    private ReconnectSupervisor reconnectSupervisor;
+
+    DeviceSession(String id, String name, Transport transport, int maxChannels, Executor callbackExecutor, Listener listener) {
+        this.id = id;
+        this.name = name;
+        this.transport = transport;
+        this.channels = new ChannelStateStore(maxChannels);
+        this.callbackExecutor = callbackExecutor;
+        this.listener = listener;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    // why the session got disconnected, null if it was closed
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    public ChannelStateStore getChannels() {
+        return channels;
+    }
+
+    public AcquisitionMetrics getMetrics() {
+        return metrics;
+    }
+
+    public Status status() {
+        return new Status(this);
+    }
+
+    // called on the acquisition thread after the session's own handling
+    public void addSampleSink(AcquisitionPipeline.SampleSink sink) {
+        sinks.add(sink);
+    }
+
+    public void removeSampleSink(AcquisitionPipeline.SampleSink sink) {
+        sinks.remove(sink);
+    }
+
+    // the session owns the recorder from now on and closes it with itself
+    public void setRecorder(SegmentedRecordingWriter recorder) {
+        this.recorder = recorder;
+        recordConfig();
+    }
+
+    // applies from the next connect
+    public void setIngestPolicy(AcquisitionPipeline.IngestPolicy ingestPolicy) {
+        this.ingestPolicy = ingestPolicy;
+    }
+
+    // null disconnects on a lost connection, applies from the next lost connection
+    public void setReconnectPolicy(ReconnectPolicy reconnectPolicy) {
+        this.reconnectPolicy = reconnectPolicy;
+    }
+
+    // where the positions of the recorded samples are interpolated from
+    public void setLocationTrack(LocationTrack locationTrack) {
+        this.locationTrack = locationTrack;
+    }
+
+    // the config known before the device reports its own, e.g. the saved one
+    public void setConfig(Map<Integer, Channel> config) {
+        synchronized (configLock) {
+            channels.setConfig(config);
+            recordConfig();
+        }
+    }
+
+    // the channels with their config, as saved per device
+    public Map<Integer, Channel> getConfig() {
+        ChannelSnapshot snapshot = channels.snapshot();
+        Map<Integer, Channel> config = new HashMap<>();
+        for (int i = 0; i < snapshot.size(); i++) {
+            config.put(snapshot.getId(i), snapshot.toChannel(i));
+        }
+        return config;
+    }
+
+    public synchronized void connect() {
+        if (state != State.DISCONNECTED) return;
+        lastError = null;
+        setState(State.CONNECTING);
+        new Thread(this::openTransport, "session-" + name).start();
+    }
+
+    /**
+     * Stops acquisition and reconnecting, closes the transport and the recording. Does nothing if
+     * not connected.
+     */
+    public void close() {
+        disconnect(null);
+    }
+
+    /**
+     * Applies min/max/d of a configured channel, a new d is sent to the device.
+     *
+     * @return false if the channel is not configured
+     */
+    public boolean updateChannel(Channel channel) {
+        Channel old;
+        synchronized (configLock) {
+            old = channels.getChannel(channel.getId());
+            if (!channels.updateChannelConfig(channel)) return false;
+            recordConfig();
+        }
+        if (old != null && old.getD() != channel.getD()) {
+            sendMessage(String.format(Locale.ENGLISH, "SET_CFG D%d=%d", channel.getId(), channel.getD()));
+        }
+        return true;
+    }
+
+    // written on the session's writer thread, queued while reconnecting, dropped if not connected
+    public synchronized void sendMessage(String message) {
+        if (state != State.CONNECTED && state != State.RECONNECTING) return;
+        commands.send(message);
+    }
+
+    // null while not connected
+    public synchronized CommandChannel getCommandChannel() {
+        return commands;
+    }
+
+    // called on the acquisition thread for every VALUES sample
+    @Override
+    public void onSample(int[] values, int count, long timestampNanos) {
+        channels.updateValues(values, count);
+        metrics.onSampleAwaitingUi(timestampNanos);
+
+        SegmentedRecordingWriter segmented = recorder;
+        if (segmented != null) {
+            locationTrack.positionAt(timestampNanos, samplePosition);
+            try {
+                segmented.writeSample(timestampNanos, samplePosition.getLat(), samplePosition.getLng(), values, count);
+            } catch (IOException e) {
+                // the recording is lost, the acquisition goes on
+                recorder = null;
+                lastError = e;
+                closeQuietly(segmented);
+            }
+        }
+
+        for (AcquisitionPipeline.SampleSink sink : sinks) {
+            sink.onSample(values, count, timestampNanos);
+        }
+        listener.onSample(this);
+    }
+
+    // called on the reconnect thread before the samples of the new connection
+    @Override
+    public void onGap(long fromNanos, long toNanos) {
+        SegmentedRecordingWriter segmented = recorder;
+        if (segmented != null) {
+            try {
+                segmented.writeGap(fromNanos, toNanos);
+            } catch (IOException e) {
+                recorder = null;
+                lastError = e;
+                closeQuietly(segmented);
+            }
+        }
+
+        for (AcquisitionPipeline.SampleSink sink : sinks) {
+            sink.onGap(fromNanos, toNanos);
+        }
+    }
+
+    private void openTransport() {
+        try {
+            transport.connect();
+            InputStream in = transport.getInputStream();
+            OutputStream out = transport.getOutputStream();
+            synchronized (this) {
+                // closed while connecting
+                if (state != State.CONNECTING) {
+                    transport.close();
+                    return;
+                }
+                commands = new CommandChannel(out, "session-writer-" + name);
+                commands.start();
+                startPipeline(in);
+                setState(State.CONNECTED);
+                // sent again if the device misses it, the response itself is handled with every message
+                commands.request("GET_CFG", "CH=", null);
+            }
+        } catch (IOException e) {
+            disconnect(e);
+        }
+    }
+
+    // under the lock
+    private void startPipeline(InputStream in) {
+        pipeline = new AcquisitionPipeline(in, pipelineListener, ingestPolicy);
+        pipeline.setMetrics(metrics);
+        pipeline.addSink(this);
+        pipeline.start();
+    }
+
+    private void onConnectionLost(IOException error) {
+        synchronized (this) {
+            // closed meanwhile
+            if (state != State.CONNECTED) return;
+            metrics.onConnectionLost();
+            ReconnectPolicy policy = reconnectPolicy;
+            if (policy != null) {
+                lastError = error;
+                // the reader is done, this stops the rest of the pipeline; the recording stays
+                AcquisitionPipeline lost = pipeline;
+                lost.stop();
+                // kept until the next one starts, a disconnect meanwhile still joins it
+                commands.detach();
+                Reconnect reconnect = new Reconnect(lost);
+                reconnectSupervisor = new ReconnectSupervisor(transport, policy, reconnectRandom, "session-reconnect-" + name, reconnect);
+                reconnect.supervisor = reconnectSupervisor;
+                setState(State.RECONNECTING);
+                reconnectSupervisor.start();
+                return;
+            }
+        }
+        disconnect(error);
+    }
+
+    private void disconnect(IOException error) {
+        AcquisitionPipeline stopping;
+        CommandChannel stoppingCommands;
+        ReconnectSupervisor stoppingSupervisor;
+        synchronized (this) {
+            if (state == State.DISCONNECTED) return;
+            lastError = error;
+            stopping = pipeline;
+            stoppingCommands = commands;
+            stoppingSupervisor = reconnectSupervisor;
+            pipeline = null;
+            commands = null;
+            reconnectSupervisor = null;
+            setState(State.DISCONNECTED);
+        }
+
+        if (stoppingSupervisor != null) stoppingSupervisor.cancel();
+        if (stopping != null) stopping.stop();
+        if (stoppingCommands != null) stoppingCommands.close();
+        try {
+            transport.close();
+        } catch (IOException e) {
+            if (lastError == null) lastError = e;
+        }
+        // samples already queued still reach onSample, the recorder goes once they did
+        if (stopping != null) {
+            try {
+                stopping.join(PIPELINE_STOP_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        SegmentedRecordingWriter segmented = recorder;
+        recorder = null;
+        if (segmented != null) closeQuietly(segmented);
+    }
+
+    private void setState(State newState) {
+        state = newState;
+        callbackExecutor.execute(() -> listener.onStateChanged(this, newState));
+    }
+
+    // the device's d values win, min/max stay as configured here
+    private void applyDeviceConfig(String message) {
+        Map<Integer, Channel> received = Parser.parseConfigMessage(message);
+        synchronized (configLock) {
+            Map<Integer, Channel> config = getConfig();
+            for (Map.Entry<Integer, Channel> entry : received.entrySet()) {
+                Channel known = config.get(entry.getKey());
+                if (known != null) {
+                    known.setD(entry.getValue().getD());
+                } else {
+                    config.put(entry.getKey(), entry.getValue());
+                }
+            }
+            setConfig(config);
+        }
+        callbackExecutor.execute(() -> listener.onConfigChanged(this));
+    }
+
+    private void recordConfig() {
+        SegmentedRecordingWriter segmented = recorder;
+        if (segmented == null) return;
+        try {
+            segmented.writeConfig(channels.snapshot());
+        } catch (IOException e) {
+            recorder = null;
+            lastError = e;
+            closeQuietly(segmented);
+        }
+    }
+
+    private static void closeQuietly(SegmentedRecordingWriter segmented) {
+        try {
+            segmented.close();
+        } catch (IOException e) {
+            // nothing more to lose
+        }
+    }
+
+    // continues the session on the restored connection; the device may have been reset or
+    // reconfigured meanwhile, so its config is asked for again and merged like on connect
+    private class Reconnect implements ReconnectSupervisor.Listener {
+        private final AcquisitionPipeline lost;
+        private final long lastReadNanos;
+        private ReconnectSupervisor supervisor;
+
+        Reconnect(AcquisitionPipeline lost) {
+            this.lost = lost;
+            this.lastReadNanos = lost.getLastReadNanos();
+        }
+
+        @Override
+        public void onReconnecting(int attempt, long delayMillis) {
+        }
+
+        @Override
+        public void onReconnected(int attempts, long recoverNanos) throws IOException {
+            // the old pipeline may still be processing what it queued, the gap and the new
+            // samples come after its last sample
+            try {
+                if (!lost.join(PIPELINE_STOP_TIMEOUT_MILLIS)) throw new IOException("Previous pipeline still running");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Reconnect cancelled");
+            }
+            long gapFrom = lastReadNanos != 0 ? lastReadNanos : supervisor.getLostAtNanos();
+            long gapTo = System.nanoTime();
+            synchronized (DeviceSession.this) {
+                // closed while connecting, the supervisor closes the transport
+                if (reconnectSupervisor != supervisor) throw new IOException("Reconnect cancelled");
+                InputStream in = transport.getInputStream();
+                commands.attach(transport.getOutputStream());
+                onGap(gapFrom, gapTo);
+                reconnectSupervisor = null;
+                lastError = null;
+                startPipeline(in);
+                setState(State.CONNECTED);
+                // after the queued commands, a SET_CFG sent while away is already in the answer
+                commands.request("GET_CFG", "CH=", null);
+            }
+            metrics.onReconnected(recoverNanos);
+        }
+
+        @Override
+        public void onGaveUp(int attempts, IOException lastError) {
+            synchronized (DeviceSession.this) {
+                if (reconnectSupervisor != supervisor) return;
+                reconnectSupervisor = null;
+            }
+            disconnect(lastError);
+        }
+    }
+
+    private final AcquisitionPipeline.Listener pipelineListener = new AcquisitionPipeline.Listener() {
+        @Override
+        public void onMessage(String message) {
+            CommandChannel channel = getCommandChannel();
+            if (channel != null) channel.onMessage(message);
+            if (message.startsWith("CH=")) applyDeviceConfig(message);
+        }
+
+        @Override
+        public void onError(IOException e) {
+            onConnectionLost(e);
+        }
+
+        @Override
+        public void onStopped() {
+        }
+    };
+}
@@ -0,0 +1,197 @@
+package com.tz.btmonitor.session;
+
+import com.tz.btmonitor.bluetooth.ReconnectPolicy;
+import com.tz.btmonitor.bluetooth.Transport;
+import com.tz.btmonitor.metrics.AcquisitionMetrics;
+import com.tz.btmonitor.metrics.MetricsReporter;
+import com.tz.btmonitor.model.LocationTrack;
+import com.tz.btmonitor.pipeline.AcquisitionPipeline;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs several {@link DeviceSession}s side by side, one per device id (the device address).
+ * <p>
+ * Sessions stay listed after a disconnect, with their last state, until they are removed.
+ * The order is the order they were created in.
+ * <p>
+ * A device read over another connection, e.g. the app's primary one, is {@link #reserve reserved}
+ * meanwhile and gets no session, so it is never read twice.
+ */
+public class SessionManager {
+    public interface Listener extends DeviceSession.Listener {
+        // a session was created or removed, called on the callback executor
+        void onSessionsChanged();
+    }
+
+    private final int maxChannels;
+    private final Executor callbackExecutor;
+    private final Listener listener;
+    // guarded by this
+    private final Map<String, DeviceSession> sessions = new LinkedHashMap<>();
+    private final Set<String> reserved = new HashSet<>();
+    private volatile LocationTrack locationTrack = new LocationTrack();
+    private volatile AcquisitionPipeline.IngestPolicy ingestPolicy = AcquisitionPipeline.IngestPolicy.BLOCK;
+    private volatile ReconnectPolicy reconnectPolicy = ReconnectPolicy.DEFAULT;
+
+    public SessionManager(int maxChannels, Executor callbackExecutor, Listener listener) {
+        this.maxChannels = maxChannels;
+        this.callbackExecutor = callbackExecutor;
+        this.listener = listener;
+    }
+
+    /**
+     * Adds a session for the device, not connected yet. A disconnected session of the same id is
+     * replaced.
+     *
+     * @return null if the device has a session that is connected, connecting or reconnecting, or
+     * is reserved
+     */
+    public DeviceSession createSession(String id, String name, Transport transport) {
+        DeviceSession session;
+        synchronized (this) {
+            if (reserved.contains(id) || isActive(sessions.get(id))) return null;
+            session = new DeviceSession(id, name, transport, maxChannels, callbackExecutor, listener);
+            session.setLocationTrack(locationTrack);
+            session.setIngestPolicy(ingestPolicy);
+            session.setReconnectPolicy(reconnectPolicy);
+            sessions.remove(id);
+            sessions.put(id, session);
+        }
+        callbackExecutor.execute(listener::onSessionsChanged);
+        return session;
+    }
+
+    /**
+     * Keeps sessions off the device while another connection reads it, until {@link #release}.
+     *
+     * @return false if the device has an active session already
+     */
+    public synchronized boolean reserve(String id) {
+        if (isActive(sessions.get(id))) return false;
+        reserved.add(id);
+        return true;
+    }
+
+    public synchronized void release(String id) {
+        reserved.remove(id);
+    }
+
+    private static boolean isActive(DeviceSession session) {
+        return session != null && session.getState() != DeviceSession.State.DISCONNECTED;
+    }
+
+    public synchronized DeviceSession getSession(String id) {
+        return sessions.get(id);
+    }
+
+    public synchronized List<DeviceSession> getSessions() {
+        return new ArrayList<>(sessions.values());
+    }
+
+    public synchronized int getConnectedCount() {
+        int count = 0;
+        for (DeviceSession session : sessions.values()) {
+            if (session.getState() == DeviceSession.State.CONNECTED) count++;
+        }
+        return count;
+    }
+
+    // closes the session and forgets it
+    public void removeSession(String id) {
+        DeviceSession session;
+        synchronized (this) {
+            session = sessions.remove(id);
+        }
+        if (session == null) return;
+        session.close();
+        callbackExecutor.execute(listener::onSessionsChanged);
+    }
+
+    public void removeAll() {
+        List<DeviceSession> removed;
+        synchronized (this) {
+            removed = new ArrayList<>(sessions.values());
+            sessions.clear();
+        }
+        if (removed.isEmpty()) return;
+        for (DeviceSession session : removed) {
+            session.close();
+        }
+        callbackExecutor.execute(listener::onSessionsChanged);
+    }
+
+    // for sessions created from now on
+    public void setIngestPolicy(AcquisitionPipeline.IngestPolicy ingestPolicy) {
+        this.ingestPolicy = ingestPolicy;
+    }
+
+    // for sessions created from now on, null disconnects them on a lost connection
+    public void setReconnectPolicy(ReconnectPolicy reconnectPolicy) {
+        this.reconnectPolicy = reconnectPolicy;
+    }
+
+    // the fixes the positions recorded with the samples of every session are interpolated from
+    public void setLocationTrack(LocationTrack locationTrack) {
+        this.locationTrack = locationTrack;
+        for (DeviceSession session : getSessions()) {
+            session.setLocationTrack(locationTrack);
+        }
+    }
+
+    /**
+     * Per session and total throughput, for a {@link MetricsReporter}. Shows how the rate of each
+     * device holds up as more of them are connected.
+     */
+    public MetricsReporter.Source throughputSource() {
+        return new ThroughputSource();
+    }
+
+    private class ThroughputSource implements MetricsReporter.Source {
+        private final Map<String, AcquisitionMetrics.Snapshot> previous = new HashMap<>();
+
+        @Override
+        public synchronized void mark() {
+            previous.clear();
+            for (DeviceSession session : getSessions()) {
+                previous.put(session.getId(), session.getMetrics().snapshot());
+            }
+        }
+
+        @Override
+        public synchronized String format() {
+            StringBuilder lines = new StringBuilder();
+            double totalSamples = 0;
+            double totalBytes = 0;
+            int connected = 0;
+            Map<String, AcquisitionMetrics.Snapshot> current = new HashMap<>();
+            for (DeviceSession session : getSessions()) {
+                AcquisitionMetrics.Snapshot now = session.getMetrics().snapshot();
+                current.put(session.getId(), now);
+                AcquisitionMetrics.Snapshot last = previous.get(session.getId());
+                // rates of a new session start with the next report
+                if (last == null) last = now;
+                double samplesPerSecond = now.samplesPerSecond(last);
+                double bytesPerSecond = now.bytesPerSecond(last);
+                totalSamples += samplesPerSecond;
+                totalBytes += bytesPerSecond;
+                if (session.getState() == DeviceSession.State.CONNECTED) connected++;
+                lines.append(String.format(Locale.US, "%n%s %s: %.0f samples/s, %.1f KB/s, read-to-ui p99 %.2fms",
+                        session.getName(), session.getState(), samplesPerSecond, bytesPerSecond / 1024,
+                        session.getMetrics().getReadToUi().getPercentileNanos(99) / 1e6));
+            }
+            previous.clear();
+            previous.putAll(current);
+            return String.format(Locale.US, "%d connected: %.0f samples/s, %.1f KB/s total",
+                    connected, totalSamples, totalBytes / 1024) + lines;
+        }
+    }
+}
@@ -13,6 +13,7 @@ import androidx.navigation.compose.NavHost
 import androidx.navigation.compose.composable
 import androidx.navigation.compose.rememberNavController
 import com.tz.btmonitor.ui.screen.DeviceListScreen
+import com.tz.btmonitor.ui.screen.SessionsScreen
 import com.tz.btmonitor.ui.screen.TileListScreen
 import com.tz.btmonitor.ui.theme.BtMonitorTheme
 import com.tz.btmonitor.viewmodel.BluetoothViewModel
@@ -45,6 +46,9 @@ fun BluetoothApp(viewModel: BluetoothViewModel) {
                     composable(Screen.TileList.route) {
                         TileListScreen(navController = navController)
                     }
+                    composable(Screen.Sessions.route) {
+                        SessionsScreen(navController = navController)
+                    }
                 }
             }
         }
@@ -54,4 +58,5 @@ fun BluetoothApp(viewModel: BluetoothViewModel) {
 sealed class Screen(val route: String) {
     object DeviceList : Screen("device_list")
     object TileList : Screen("tile_list")
+    object Sessions : Screen("sessions")
 }
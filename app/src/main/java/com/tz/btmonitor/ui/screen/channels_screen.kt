@@ -1,6 +1,7 @@
 package com.tz.btmonitor.ui.screen
 
 import android.widget.Toast
+import androidx.compose.foundation.Canvas
 import androidx.compose.foundation.background
 import androidx.compose.foundation.clickable
 import androidx.compose.foundation.layout.Arrangement
@@ -39,6 +40,8 @@ import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.draw.clip
 import androidx.compose.ui.graphics.Color
+import androidx.compose.ui.graphics.Path
+import androidx.compose.ui.graphics.drawscope.Stroke
 import androidx.compose.ui.platform.LocalContext
 import androidx.compose.ui.text.TextStyle
 import androidx.compose.ui.text.input.KeyboardType
@@ -47,8 +50,12 @@ import androidx.compose.ui.unit.dp
 import androidx.compose.ui.window.Dialog
 import androidx.navigation.NavController
 import com.tz.btmonitor.model.Channel
+import com.tz.btmonitor.model.ChannelDecimator
+import com.tz.btmonitor.model.ChannelHistory
+import com.tz.btmonitor.model.ChannelSnapshot
 import com.tz.btmonitor.ui.navigation.LocalViewModel
 import com.tz.btmonitor.ui.navigation.Screen
+import java.util.concurrent.TimeUnit
 
 @Composable
 fun TileListScreen(navController: NavController) {
@@ -94,8 +101,15 @@ fun TileListScreen(navController: NavController) {
                 viewModel.setBaudRate(baudRateNum)
             }
 
+            MetricsOverlay(
+                metrics = viewModel.metrics,
+                modifier = Modifier
+                    .align(alignment = Alignment.CenterHorizontally)
+                    .padding(vertical = 4.dp)
+            )
+
             channels?.let {
-                ChannelList(channels = it) { id, channel ->
+                ChannelList(channels = it, history = viewModel.channelHistory) { id, channel ->
                     viewModel.configChannel(channel)
                 }
             }
@@ -104,20 +118,27 @@ fun TileListScreen(navController: NavController) {
 }
 
 @Composable
-fun ChannelList(channels: Map<Int, Channel>, onUpdateChannel: (Int, Channel) -> Unit) {
+fun ChannelList(channels: ChannelSnapshot, history: ChannelHistory? = null, onUpdateChannel: (Int, Channel) -> Unit) {
     var selectedChannelId by remember { mutableStateOf<Int?>(null) }
 
     LazyColumn(
         modifier = Modifier.fillMaxSize()
     ) {
-        items(channels.toList().chunked(2)) { channelsPair ->
+        items((0 until channels.size()).chunked(2)) { indexPair ->
             Row(
                 modifier = Modifier.fillMaxWidth(),
                 horizontalArrangement = Arrangement.SpaceBetween
             ) {
-                channelsPair.forEach { (channelId, channel) ->
+                indexPair.forEach { index ->
+                    val channelId = channels.getId(index)
                     ChannelTile(
-                        channelId, channel,
+                        channelId,
+                        value = channels.getValue(index),
+                        min = channels.getMin(index),
+                        max = channels.getMax(index),
+                        d = channels.getD(index),
+                        history = history,
+                        version = channels.version,
                         modifier = Modifier
                             .weight(1f) // Occupy equal space
                             .aspectRatio(1f)
@@ -130,9 +151,10 @@ fun ChannelList(channels: Map<Int, Channel>, onUpdateChannel: (Int, Channel) ->
     }
 
     selectedChannelId?.let { channelId ->
-        channels[channelId]?.run {
+        val index = channels.indexOf(channelId)
+        if (index >= 0) {
             ChannelDialog(
-                this,
+                channels.toChannel(index),
                 onSave = { newChannel ->
                     selectedChannelId = null
                     onUpdateChannel(channelId, newChannel)
@@ -148,7 +170,12 @@ fun ChannelList(channels: Map<Int, Channel>, onUpdateChannel: (Int, Channel) ->
 @Composable
 fun ChannelTile(
     channelId: Int,
-    channel: Channel,
+    value: Int,
+    min: Int,
+    max: Int,
+    d: Int,
+    history: ChannelHistory?,
+    version: Long,
     modifier: Modifier = Modifier,
     onClick: () -> Unit
 ) {
@@ -158,6 +185,19 @@ fun ChannelTile(
             .background(getChannelTileColor(channelId))
             .clickable { onClick() }
     ) {
+        history?.let {
+            ChannelSparkline(
+                history = it,
+                channelId = channelId,
+                min = min,
+                max = max,
+                version = version,
+                modifier = Modifier
+                    .matchParentSize()
+                    .padding(vertical = 40.dp)
+            )
+        }
+
         Text(
             text = "Channel $channelId",
             modifier = Modifier
@@ -166,7 +206,7 @@ fun ChannelTile(
         )
 
         Text(
-            text = channel.value.toString(),
+            text = value.toString(),
             style = MaterialTheme.typography.headlineMedium,
             modifier = Modifier
                 .padding(8.dp)
@@ -177,11 +217,49 @@ fun ChannelTile(
         Column(
             modifier = Modifier.align(alignment = Alignment.BottomStart)
         ) {
-            Text(text = "Min: ${channel.min}")
-            Text(text = "Max: ${channel.max}")
+            Text(text = "Min: $min")
+            Text(text = "Max: $max")
         }
 
-        Text(text = "D: ${channel.d}", modifier = Modifier.align(alignment = Alignment.BottomEnd))
+        Text(text = "D: $d", modifier = Modifier.align(alignment = Alignment.BottomEnd))
+    }
+}
+
+private const val SPARKLINE_POINTS = 256
+private val SPARKLINE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(20)
+
+// the channel between its min and max over the last seconds up to its newest sample, min/max decimated
+@Composable
+fun ChannelSparkline(
+    history: ChannelHistory,
+    channelId: Int,
+    min: Int,
+    max: Int,
+    version: Long,
+    modifier: Modifier = Modifier
+) {
+    val decimator = remember { ChannelDecimator(ChannelDecimator.Mode.MIN_MAX, SPARKLINE_POINTS) }
+    val path = remember { Path() }
+
+    // a new snapshot version makes a new draw lambda, so every update redraws from the history
+    Canvas(modifier = modifier) {
+        if (version < 0 || history.written == 0L) return@Canvas
+        val toNanos = history.newestTimestamp + 1
+        val count = decimator.update(history, channelId, SPARKLINE_WINDOW_NANOS, toNanos)
+        if (count < 2) return@Canvas
+
+        val fromNanos = toNanos - SPARKLINE_WINDOW_NANOS
+        val range = (max - min).coerceAtLeast(1).toFloat()
+        val times = decimator.timestamps
+        val values = decimator.values
+        path.reset()
+        for (i in 0 until count) {
+            val fraction = ((values[i] - min) / range).coerceIn(0f, 1f)
+            val x = size.width * ((times[i] - fromNanos).toFloat() / SPARKLINE_WINDOW_NANOS)
+            val y = size.height * (1f - fraction)
+            if (i == 0) path.moveTo(x, y) else path.lineTo(x, y)
+        }
+        drawPath(path, Color.DarkGray, style = Stroke(width = 2.dp.toPx()))
     }
 }
 
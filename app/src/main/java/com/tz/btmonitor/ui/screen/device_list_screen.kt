@@ -77,6 +77,10 @@ fun DeviceListScreen(navController: NavController) {
                     onItemClick = { device ->
                         viewModel.setSelectedDevice(device)
                         gotoNextPage()
+                    },
+                    onOpenSession = { device ->
+                        viewModel.openSession(device)
+                        navController.navigate(Screen.Sessions.route)
                     }
                 ) {
                     viewModel.startDeviceDiscovery()
@@ -111,7 +115,12 @@ fun DeviceListScreen(navController: NavController) {
 
 @OptIn(ExperimentalFoundationApi::class)
 @Composable
-fun ChooseDevicePage(devices: List<Device>?, onItemClick: (Device) -> Unit, onRefresh: () -> Unit) {
+fun ChooseDevicePage(
+    devices: List<Device>?,
+    onItemClick: (Device) -> Unit,
+    onOpenSession: (Device) -> Unit,
+    onRefresh: () -> Unit
+) {
     Box(
         modifier = Modifier
             .fillMaxWidth()
@@ -130,10 +139,12 @@ fun ChooseDevicePage(devices: List<Device>?, onItemClick: (Device) -> Unit, onRe
                 }
             }
             devices?.let {
-                items(devices) { device ->
+                items(devices, key = { it.address }) { device ->
                     DeviceListItem(
                         deviceName = device.name,
-                        deviceAddress = device.address
+                        deviceAddress = device.address,
+                        rssi = device.rssi,
+                        onOpenSession = { onOpenSession(device) }
                     ) {
                         onItemClick(device)
                     }
@@ -147,6 +158,8 @@ fun ChooseDevicePage(devices: List<Device>?, onItemClick: (Device) -> Unit, onRe
 fun DeviceListItem(
     deviceName: String,
     deviceAddress: String,
+    rssi: Int,
+    onOpenSession: () -> Unit,
     onClick: () -> Unit
 ) {
     Card(
@@ -171,6 +184,17 @@ fun DeviceListItem(
                 style = MaterialTheme.typography.bodyMedium,
                 modifier = Modifier.padding(bottom = 4.dp)
             )
+            if (rssi != Device.RSSI_UNKNOWN) {
+                Text(
+                    text = "Signal: $rssi dBm",
+                    style = MaterialTheme.typography.bodyMedium,
+                    modifier = Modifier.padding(bottom = 4.dp)
+                )
+            }
+            // read it next to the other devices instead of alone
+            TextButton(onClick = onOpenSession) {
+                Text(text = "Open as session", style = TextStyle(color = Color(0xFF2196F3)))
+            }
         }
     }
 }
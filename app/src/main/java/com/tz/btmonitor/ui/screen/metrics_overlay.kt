@@ -0,0 +1,51 @@
+package com.tz.btmonitor.ui.screen
+
+import androidx.compose.foundation.background
+import androidx.compose.foundation.layout.padding
+import androidx.compose.foundation.shape.RoundedCornerShape
+import androidx.compose.material3.MaterialTheme
+import androidx.compose.material3.Text
+import androidx.compose.runtime.Composable
+import androidx.compose.runtime.LaunchedEffect
+import androidx.compose.runtime.getValue
+import androidx.compose.runtime.mutableStateOf
+import androidx.compose.runtime.remember
+import androidx.compose.runtime.setValue
+import androidx.compose.ui.Modifier
+import androidx.compose.ui.graphics.Color
+import androidx.compose.ui.text.font.FontFamily
+import androidx.compose.ui.unit.dp
+import androidx.compose.ui.unit.sp
+import com.tz.btmonitor.metrics.AcquisitionMetrics
+import kotlinx.coroutines.delay
+
+private const val REFRESH_MILLIS = 1000L
+
+// small monospace panel with the live acquisition metrics, refreshed once per second
+@Composable
+fun MetricsOverlay(metrics: AcquisitionMetrics, modifier: Modifier = Modifier) {
+    var text by remember { mutableStateOf("") }
+
+    LaunchedEffect(metrics) {
+        var previous = metrics.snapshot()
+        while (true) {
+            delay(REFRESH_MILLIS)
+            val current = metrics.snapshot()
+            text = metrics.format(current, previous)
+            previous = current
+        }
+    }
+
+    if (text.isNotEmpty()) {
+        Text(
+            text = text,
+            style = MaterialTheme.typography.bodySmall,
+            fontFamily = FontFamily.Monospace,
+            fontSize = 10.sp,
+            color = Color.White,
+            modifier = modifier
+                .background(Color.Black.copy(alpha = 0.6f), RoundedCornerShape(4.dp))
+                .padding(6.dp)
+        )
+    }
+}
@@ -0,0 +1,112 @@
+package com.tz.btmonitor.ui.screen
+
+import androidx.compose.foundation.background
+import androidx.compose.foundation.layout.Arrangement
+import androidx.compose.foundation.layout.Column
+import androidx.compose.foundation.layout.Row
+import androidx.compose.foundation.layout.fillMaxSize
+import androidx.compose.foundation.layout.fillMaxWidth
+import androidx.compose.foundation.layout.padding
+import androidx.compose.foundation.shape.RoundedCornerShape
+import androidx.compose.material3.Button
+import androidx.compose.material3.MaterialTheme
+import androidx.compose.material3.Text
+import androidx.compose.material3.TextButton
+import androidx.compose.runtime.Composable
+import androidx.compose.runtime.getValue
+import androidx.compose.runtime.livedata.observeAsState
+import androidx.compose.ui.Alignment
+import androidx.compose.ui.Modifier
+import androidx.compose.ui.draw.clip
+import androidx.compose.ui.graphics.Color
+import androidx.compose.ui.unit.dp
+import androidx.navigation.NavController
+import com.tz.btmonitor.session.DeviceSession
+import com.tz.btmonitor.ui.navigation.LocalViewModel
+import com.tz.btmonitor.ui.navigation.Screen
+
+// all open sessions at once, each in an equal share of the screen
+@Composable
+fun SessionsScreen(navController: NavController) {
+    val viewModel = LocalViewModel.current
+    val sessions by viewModel.sessions.observeAsState(emptyList())
+
+    Column(
+        modifier = Modifier
+            .fillMaxSize()
+            .padding(16.dp)
+    ) {
+        Row(
+            modifier = Modifier.fillMaxWidth(),
+            horizontalArrangement = Arrangement.SpaceBetween,
+            verticalAlignment = Alignment.CenterVertically
+        ) {
+            Text(
+                text = "${sessions.size} sessions",
+                style = MaterialTheme.typography.headlineSmall
+            )
+            Button(onClick = { navController.navigate(Screen.DeviceList.route) }) {
+                Text(text = "Add device")
+            }
+        }
+
+        sessions.forEach { session ->
+            SessionPanel(
+                session = session,
+                onClose = { viewModel.closeSession(session.id) },
+                modifier = Modifier
+                    .weight(1f)
+                    .padding(top = 8.dp)
+            )
+        }
+    }
+}
+
+@Composable
+fun SessionPanel(
+    session: DeviceSession.Status,
+    onClose: () -> Unit,
+    modifier: Modifier = Modifier
+) {
+    val viewModel = LocalViewModel.current
+
+    Column(
+        modifier = modifier
+            .fillMaxWidth()
+            .clip(shape = RoundedCornerShape(8.dp))
+            .background(color = getSessionStateColor(session.state))
+            .padding(8.dp)
+    ) {
+        Row(
+            modifier = Modifier.fillMaxWidth(),
+            horizontalArrangement = Arrangement.SpaceBetween,
+            verticalAlignment = Alignment.CenterVertically
+        ) {
+            Column {
+                Text(text = session.name ?: session.id, style = MaterialTheme.typography.labelMedium)
+                Text(text = "${session.id} - ${session.state}", style = MaterialTheme.typography.bodySmall)
+            }
+            TextButton(onClick = onClose) {
+                Text(text = "Close")
+            }
+        }
+
+        MetricsOverlay(
+            metrics = session.metrics,
+            modifier = Modifier.padding(vertical = 4.dp)
+        )
+
+        ChannelList(channels = session.channels) { _, channel ->
+            viewModel.configSessionChannel(session.id, channel)
+        }
+    }
+}
+
+fun getSessionStateColor(state: DeviceSession.State): Color {
+    return when (state) {
+        DeviceSession.State.CONNECTED -> Color(0xFFB2DFDB)
+        DeviceSession.State.CONNECTING -> Color(0xFFFFF9C4)
+        DeviceSession.State.RECONNECTING -> Color(0xFFFFE0B2)
+        DeviceSession.State.DISCONNECTED -> Color(0xFFFFCDD2)
+    }
+}
@@ -1,6 +1,9 @@
 package com.tz.btmonitor.viewmodel;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
+import android.view.Choreographer;
 
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
@@ -9,28 +12,80 @@ import androidx.lifecycle.ViewModel;
 import com.tz.btmonitor.ActivityBridge;
 import com.tz.btmonitor.SharedPref;
 import com.tz.btmonitor.bluetooth.BluetoothClientManager;
+import com.tz.btmonitor.bluetooth.CommandChannel;
+import com.tz.btmonitor.bluetooth.DiscoveryIndex;
 import com.tz.btmonitor.bluetooth.Parser;
+import com.tz.btmonitor.bluetooth.RfcommTransport;
+import com.tz.btmonitor.bluetooth.Transport;
+import com.tz.btmonitor.file_writer.CompressingOutputStream;
 import com.tz.btmonitor.file_writer.FileWriter;
+import com.tz.btmonitor.file_writer.SegmentedRecordingWriter;
+import com.tz.btmonitor.metrics.AcquisitionMetrics;
+import com.tz.btmonitor.metrics.MetricsReporter;
 import com.tz.btmonitor.model.Channel;
+import com.tz.btmonitor.model.ChannelHistory;
+import com.tz.btmonitor.model.ChannelConfigRepository;
+import com.tz.btmonitor.model.ChannelSnapshot;
+import com.tz.btmonitor.model.ChannelStateStore;
 import com.tz.btmonitor.model.Device;
 import com.tz.btmonitor.model.LatLng;
+import com.tz.btmonitor.model.LocationTrack;
+import com.tz.btmonitor.pipeline.AcquisitionPipeline;
+import com.tz.btmonitor.session.DeviceSession;
+import com.tz.btmonitor.session.SessionManager;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
-public class BluetoothViewModel extends ViewModel implements BluetoothClientManager.Callback {
+public class BluetoothViewModel extends ViewModel implements BluetoothClientManager.Callback, AcquisitionPipeline.SampleSink {
     private final String TAG = "BluetoothViewModel";
+    private static final int MAX_CHANNELS = 256;
+    public static final int NOT_DURABLE = -1;
+    private static final long DURABLE_SYNC_INTERVAL_MILLIS = 1000;
+    private static final long METRICS_LOG_INTERVAL_MILLIS = 10_000;
+    // samples kept per channel for plotting, about 20s at 100Hz
+    private static final int HISTORY_CAPACITY = 2048;
     private BluetoothClientManager bluetoothManager;
     private ActivityBridge activityBridge;
     public Device selectedDevice;
-    private final MutableLiveData<Map<Integer, Channel>> _channels = new MutableLiveData<>(Collections.emptyMap());
-    public final LiveData<Map<Integer, Channel>> channels = _channels;
-
-    public FileWriter fileWriter;
+    private final ChannelStateStore channelStore = new ChannelStateStore(MAX_CHANNELS);
+    // recent values of the configured channels, sized on config changes, appended on the acquisition thread
+    private volatile ChannelHistory channelHistory;
+    private final ChannelConfigRepository channelConfigs = new ChannelConfigRepository(SharedPref.getInstance(), ChannelConfigRepository.DEFAULT_WRITE_DELAY_MILLIS);
+    private final MutableLiveData<ChannelSnapshot> _channels = new MutableLiveData<>(ChannelSnapshot.EMPTY);
+    public final LiveData<ChannelSnapshot> channels = _channels;
+    // live values reach the ui at most once per frame (or uiUpdateRateHz), the store and file get every sample
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ConflatingDispatcher uiDispatcher = new ConflatingDispatcher(this::scheduleUiUpdate, this::publishChannels);
+    private int uiUpdateRateHz = ConflatingDispatcher.UNLIMITED_RATE;
+    private final AcquisitionMetrics metrics = new AcquisitionMetrics();
+    private final MetricsReporter metricsReporter = new MetricsReporter(metrics, text -> Log.i(TAG, "Metrics\n" + text));
+
+    // further devices read at the same time, each with its own state, recording and metrics
+    private final SessionManager sessionManager = new SessionManager(MAX_CHANNELS, mainHandler::post, new SessionListener());
+    private final ConflatingDispatcher sessionsDispatcher = new ConflatingDispatcher(this::scheduleUiUpdate, this::publishSessions);
+    private final MetricsReporter sessionsReporter = new MetricsReporter(sessionManager.throughputSource(), text -> Log.i(TAG, "Sessions\n" + text));
+    private final MutableLiveData<List<DeviceSession.Status>> _sessions = new MutableLiveData<>(Collections.emptyList());
+    public final LiveData<List<DeviceSession.Status>> sessions = _sessions;
+
+    public volatile FileWriter fileWriter;
+    private boolean binaryRecording = false;
+    private int durableSyncPolicy = NOT_DURABLE;
+    private boolean compressedRecording = false;
+    private AcquisitionPipeline.IngestPolicy ingestPolicy = AcquisitionPipeline.IngestPolicy.BLOCK;
+    private File sessionsDirectory;
+    private long maxSegmentBytes;
+    private long maxSegmentMillis;
+    private volatile SegmentedRecordingWriter segmentedWriter;
+    // the device of the primary connection, reserved in the session manager; main thread only
+    private String primaryAddress;
     private final MutableLiveData<Boolean> _fileSelected = new MutableLiveData<>();
     public final LiveData<Boolean> fileSelected = _fileSelected;
 
@@ -40,16 +95,83 @@ public class BluetoothViewModel extends ViewModel implements BluetoothClientMana
     public final LiveData<Boolean> connectingToDevice = _connectingToDevice;
     private final MutableLiveData<Boolean> _isConnectedToDevice = new MutableLiveData<>();
     public final LiveData<Boolean> isConnectedToDevice = _isConnectedToDevice;
-    private boolean pauseReceiving = false;
-    private LatLng lastUserLocation = new LatLng();
-
+    // recent location fixes, every recorded sample gets the position at its own timestamp
+    private final LocationTrack locationTrack = new LocationTrack();
+    // guards itself, samples come from the acquisition thread or as text on the main thread
+    private final LatLng samplePosition = new LatLng();
+    // reused for VALUES messages arriving as text on the main thread
+    private final int[] valuesBuffer = new int[MAX_CHANNELS];
+
+    public BluetoothViewModel() {
+        sessionManager.setLocationTrack(locationTrack);
+    }
 
-    public void setLastUserLocation(LatLng lastUserLocation) {
-        this.lastUserLocation = lastUserLocation;
+    // a fix taken at timeNanos on the System.nanoTime() clock
+    public void addLocationFix(long timeNanos, double lat, double lng) {
+        locationTrack.addFix(timeNanos, lat, lng);
     }
 
     public void setSelectedDevice(Device selectedDevice) {
         this.selectedDevice = selectedDevice;
+        // cached by the time the device is connected
+        if (selectedDevice != null) channelConfigs.preload(selectedDevice.getAddress());
+    }
+
+    // 0 delivers once per display frame
+    public void setUiUpdateRateHz(int hz) {
+        uiUpdateRateHz = hz;
+        uiDispatcher.setMaxRateHz(hz);
+        sessionsDispatcher.setMaxRateHz(hz);
+    }
+
+    public long getConflatedUiUpdates() {
+        return uiDispatcher.getConflated();
+    }
+
+    public AcquisitionMetrics getMetrics() {
+        return metrics;
+    }
+
+    public SessionManager getSessionManager() {
+        return sessionManager;
+    }
+
+    // null until channels are configured
+    public ChannelHistory getChannelHistory() {
+        return channelHistory;
+    }
+
+    // applies to the next file chosen
+    public void setBinaryRecording(boolean binaryRecording) {
+        this.binaryRecording = binaryRecording;
+    }
+
+    // one of SyncingOutputStream.SYNC_*, or NOT_DURABLE. Applies to the next file chosen
+    public void setDurableRecording(int syncPolicy) {
+        this.durableSyncPolicy = syncPolicy;
+    }
+
+    /**
+     * Records every connection into its own session directory below the given one, split into
+     * segments of at most the given size or duration (SegmentedRecordingWriter.NO_LIMIT for none).
+     * Replaces the single chosen file, null switches back to it.
+     */
+    public void setSegmentedRecording(File sessionsDirectory, long maxSegmentBytes, long maxSegmentMillis) {
+        this.sessionsDirectory = sessionsDirectory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentMillis = maxSegmentMillis;
+    }
+
+    // gzip the recording, applies to the next file chosen
+    public void setCompressedRecording(boolean compressedRecording) {
+        this.compressedRecording = compressedRecording;
+    }
+
+    // what the receive queue does when processing falls behind, applies to the next connections
+    public void setIngestPolicy(AcquisitionPipeline.IngestPolicy ingestPolicy) {
+        this.ingestPolicy = ingestPolicy;
+        if (bluetoothManager != null) bluetoothManager.setIngestPolicy(ingestPolicy);
+        sessionManager.setIngestPolicy(ingestPolicy);
     }
 
     public void setActivityBridge(ActivityBridge bridge) {
@@ -59,6 +181,9 @@ public class BluetoothViewModel extends ViewModel implements BluetoothClientMana
     public void setBluetoothManager(BluetoothClientManager bluetoothClientManager) {
         bluetoothManager = bluetoothClientManager;
         bluetoothManager.addListener(this);
+        bluetoothManager.addSampleSink(this);
+        bluetoothManager.setMetrics(metrics);
+        bluetoothManager.setIngestPolicy(ingestPolicy);
     }
 
     public void startDeviceDiscovery() {
@@ -69,6 +194,19 @@ public class BluetoothViewModel extends ViewModel implements BluetoothClientMana
         _fileSelected.setValue(false);
         activityBridge.createFile(writer -> {
             Log.i(TAG, "File create successfully");
+            if (durableSyncPolicy != NOT_DURABLE) {
+                writer.enableDurableMode(durableSyncPolicy, DURABLE_SYNC_INTERVAL_MILLIS);
+            }
+            if (compressedRecording) writer.enableCompressedMode();
+            writer.enableAsyncMode();
+            if (writer.getAsyncWriter() != null) {
+                writer.getAsyncWriter().setReadToDiskLatency(metrics.getReadToDisk());
+            }
+            // recovery needs the checksummed blocks of the binary format
+            if (binaryRecording || durableSyncPolicy != NOT_DURABLE) {
+                writer.enableBinaryMode();
+                SharedPref.getInstance().setActiveRecording(writer.getUri().toString());
+            }
             fileWriter = writer;
             _fileSelected.setValue(true);
         });
@@ -79,49 +217,134 @@ public class BluetoothViewModel extends ViewModel implements BluetoothClientMana
             Log.e(TAG, "Device is not selected");
             return;
         }
+        // a device read in a session of its own isn't connected twice
+        String address = selectedDevice.getAddress();
+        if (!sessionManager.reserve(address)) {
+            Log.e(TAG, "Device " + address + " is read in a session already");
+            return;
+        }
 
-        if (fileWriter == null) {
+        if (sessionsDirectory != null) {
+            File session = new File(sessionsDirectory, "session_" + System.currentTimeMillis());
+            try {
+                segmentedWriter = new SegmentedRecordingWriter(session, maxSegmentBytes, maxSegmentMillis, true);
+                segmentedWriter.writeConfig(channelStore.snapshot());
+            } catch (IOException e) {
+                Log.e(TAG, "Can't start session " + session, e);
+                sessionManager.release(address);
+                return;
+            }
+        } else if (fileWriter == null) {
             Log.e(TAG, "File is not open");
+            sessionManager.release(address);
             return;
         }
+        primaryAddress = address;
 
         _connectingToDevice.setValue(true);
         bluetoothManager.connect(selectedDevice);
     }
 
     public void disconnect() {
-        fileWriter.close();
+        // returns once the pipeline delivered its last sample, the files can go away then
         bluetoothManager.disconnect();
+        if (fileWriter != null) {
+            fileWriter.close();
+            logRecordingStats(fileWriter);
+        }
+        closeSegmentedWriter();
+        SharedPref.getInstance().clearActiveRecording();
         _isConnectedToDevice.setValue(false);
+        releasePrimaryDevice();
         selectedDevice = null;
     }
 
+    // sessions may read the device again
+    private void releasePrimaryDevice() {
+        String address = primaryAddress;
+        if (address == null) return;
+        primaryAddress = null;
+        sessionManager.release(address);
+    }
+
+    /**
+     * Reads the device in a session of its own, next to the selected device and other sessions.
+     * Recorded into its own session directory if segmented recording is set.
+     */
+    public void openSession(Device device) {
+        openSession(device.getAddress(), device.getName(), new RfcommTransport(device.getBluetoothDevice()));
+    }
+
+    // any transport, e.g. a SimulatedDevice
+    public void openSession(String id, String name, Transport transport) {
+        DeviceSession session = sessionManager.createSession(id, name, transport);
+        if (session == null) {
+            Log.e(TAG, "Session of " + id + " is already open");
+            return;
+        }
+
+        channelConfigs.load(id, mainHandler::post, config -> {
+            // closed or replaced while loading
+            if (sessionManager.getSession(id) != session) return;
+            session.setConfig(config);
+            if (sessionsDirectory != null) {
+                File directory = new File(sessionsDirectory, "session_" + System.currentTimeMillis() + "_" + id.replace(':', '-'));
+                try {
+                    session.setRecorder(new SegmentedRecordingWriter(directory, maxSegmentBytes, maxSegmentMillis, true));
+                } catch (IOException e) {
+                    Log.e(TAG, "Can't start session " + directory, e);
+                    sessionManager.removeSession(id);
+                    return;
+                }
+            }
+            session.connect();
+            sessionsReporter.start(METRICS_LOG_INTERVAL_MILLIS);
+        });
+    }
+
+    public void closeSession(String id) {
+        sessionManager.removeSession(id);
+    }
+
+    public void configSessionChannel(String id, Channel channel) {
+        DeviceSession session = sessionManager.getSession(id);
+        if (session == null) return;
+        channelConfigs.putChannel(id, channel);
+        if (session.updateChannel(channel)) publishSessions();
+    }
+
     public void setBaudRate(int num) {
         bluetoothManager.sendMessage("AT+BAUD" + num);
     }
 
     public void configChannel(Channel channel) {
         Log.d(TAG, channel.toString());
-        pauseReceiving = true;
         // save
-        SharedPref.getInstance().saveChannelConfig(selectedDevice.getAddress(), channel);
+        channelConfigs.putChannel(selectedDevice.getAddress(), channel);
 
         // update ui
-        Map<Integer, Channel> chs = _channels.getValue();
-        Channel oldChannel = chs.get(channel.getId()).copy();
-        chs.put(channel.getId(), channel);
-        _channels.setValue(chs);
+        Channel oldChannel = channelStore.getChannel(channel.getId());
+        channelStore.updateChannelConfig(channel);
+        onConfigChanged();
 
         // if d changed, set config
         if (oldChannel != null && oldChannel.getD() != channel.getD()) {
             bluetoothManager.sendMessage(String.format(Locale.ENGLISH, "SET_CFG D%d=%d", channel.getId(), channel.getD()));
         }
-        pauseReceiving = false;
     }
 
     @Override
-    public void onDevicesDiscovered(List<Device> devices) {
-        _devices.setValue(devices);
+    public void onDevicesChanged(DiscoveryIndex.Changes changes) {
+        List<Device> published = _devices.getValue();
+        Map<String, Device> byAddress = new LinkedHashMap<>();
+        if (published != null) {
+            for (Device device : published) byAddress.put(device.getAddress(), device);
+        }
+        for (Device device : changes.removed) byAddress.remove(device.getAddress());
+        // changed ones keep their place, added ones go last
+        for (Device device : changes.changed) byAddress.put(device.getAddress(), device);
+        for (Device device : changes.added) byAddress.put(device.getAddress(), device);
+        _devices.setValue(new ArrayList<>(byAddress.values()));
     }
 
     @Override
@@ -148,18 +371,55 @@ public class BluetoothViewModel extends ViewModel implements BluetoothClientMana
     public void onDeviceConnected() {
         _connectingToDevice.setValue(false);
         _isConnectedToDevice.setValue(true);
+        metrics.reset();
+        metricsReporter.start(METRICS_LOG_INTERVAL_MILLIS);
+
+        // load channels off the main thread, the history starts over with the device
+        channelHistory = null;
+        Device device = selectedDevice;
+        channelConfigs.load(device.getAddress(), mainHandler::post, config -> {
+            // disconnected or another device selected while loading
+            if (selectedDevice != device || !Boolean.TRUE.equals(_isConnectedToDevice.getValue())) return;
+            channelStore.setConfig(config);
+            onConfigChanged();
+
+            // request for config once the saved one is shown, its answer is merged into it;
+            // sent again if the device doesn't answer
+            bluetoothManager.sendRequest("GET_CFG", "CH=", configRequestListener);
+        });
+    }
 
-        // load channels
-        _channels.setValue(SharedPref.getInstance().getAllChannels(selectedDevice.getAddress()));
+    // the CH= response itself is handled in onNewMessageReceived
+    private final CommandChannel.ResponseListener configRequestListener = new CommandChannel.ResponseListener() {
+        @Override
+        public void onResponse(String response) {
+        }
 
-        // request for config
-        bluetoothManager.sendMessage("GET_CFG");
-    }
+        @Override
+        public void onTimeout(String command) {
+            Log.e("BLUETOOTH_VIEWMODEL", "Device didn't report its config, showing the saved one");
+        }
+    };
 
     @Override
     public void onDeviceDisconnected() {
         _connectingToDevice.setValue(false);
         _isConnectedToDevice.setValue(false);
+        releasePrimaryDevice();
+        metricsReporter.stop();
+    }
+
+    // the recording stays open, the gap is marked in it once the device is back
+    @Override
+    public void onDeviceReconnecting(int attempt, long delayMillis) {
+        _connectingToDevice.setValue(true);
+    }
+
+    // channels, recording and metrics carry on, config changes made meanwhile were queued
+    @Override
+    public void onDeviceReconnected(long recoverNanos) {
+        _connectingToDevice.setValue(false);
+        Log.i(TAG, "Device back after " + TimeUnit.NANOSECONDS.toMillis(recoverNanos) + "ms");
     }
 
     @Override
@@ -169,62 +429,175 @@ public class BluetoothViewModel extends ViewModel implements BluetoothClientMana
         if (message.startsWith("CH=")) {
             // Extract configuration information from the message
             Map<Integer, Channel> receivedChannels = Parser.parseConfigMessage(message);
-            // Update or create channels using shared preferences
-            updateOrCreateChannels(selectedDevice.getAddress(), receivedChannels);
-            // update livedata
-            _channels.setValue(SharedPref.getInstance().getAllChannels(selectedDevice.getAddress()));
+            Device device = selectedDevice;
+            if (device != null) {
+                // the device's d values win, min/max stay as saved
+                channelStore.setConfig(channelConfigs.mergeDeviceConfig(device.getAddress(), receivedChannels));
+            } else {
+                // a replayed recording, not a device of ours, is shown as recorded and not saved
+                channelStore.setConfig(receivedChannels);
+            }
+            onConfigChanged();
         } else if (message.startsWith("VALUES")) {
-            if(!pauseReceiving)
-            {
-                List<String> values = Parser.parseValuesMessage(message);
-
-                Map<Integer, Channel> chs = _channels.getValue();
-                Map<Integer, Channel> newChannels = new HashMap<>();
-                for (Map.Entry<Integer, Channel> integerChannelEntry : chs.entrySet()) {
-                    int channelId = integerChannelEntry.getKey();
-                    Channel ch = integerChannelEntry.getValue().copy();
-                    if (channelId < values.size()) {
-                        ch.setValue(Integer.valueOf(values.get(channelId)));
-                    }
-                    newChannels.put(channelId, ch);
+            // the acquisition pipeline delivers samples through onSample, this path is for text sources
+            int count = Parser.parseValues(message, valuesBuffer);
+            if (count < 0) {
+                Log.w(TAG, "Malformed values message (" + count + "): " + message);
+                return;
+            }
+            onSample(valuesBuffer, count, System.nanoTime());
+        }
+    }
+
+    // called on the acquisition thread for every VALUES sample
+    @Override
+    public void onSample(int[] values, int count, long timestampNanos) {
+        channelStore.updateValues(values, count);
+        ChannelHistory history = channelHistory;
+        if (history != null) history.append(timestampNanos, values, count);
+        metrics.onSampleAwaitingUi(timestampNanos);
+        uiDispatcher.signal();
+
+        // write to file, only buffered here, the writer thread does the I/O
+        FileWriter writer = fileWriter;
+        SegmentedRecordingWriter segmented = segmentedWriter;
+        if (writer == null && segmented == null) return;
+        synchronized (samplePosition) {
+            locationTrack.positionAt(timestampNanos, samplePosition);
+            double lat = samplePosition.getLat();
+            double lng = samplePosition.getLng();
+            if (writer != null) {
+                writer.writeSample(timestampNanos, lat, lng, values, count);
+            }
+            if (segmented != null) {
+                try {
+                    segmented.writeSample(timestampNanos, lat, lng, values, count);
+                } catch (IOException e) {
+                    Log.e(TAG, "Can't write session segment", e);
                 }
-                _channels.setValue(newChannels);
+            }
+        }
+    }
 
-                // write to file
-                values.add(0, lastUserLocation.toString());
-                List<String[]> lines = new ArrayList<>();
-                lines.add(values.toArray(new String[]{}));
-                fileWriter.write(lines);
+    // on the reconnecting thread, before the first sample after the gap
+    @Override
+    public void onGap(long fromNanos, long toNanos) {
+        FileWriter writer = fileWriter;
+        if (writer != null) {
+            writer.writeGap(fromNanos, toNanos);
+        }
+        SegmentedRecordingWriter segmented = segmentedWriter;
+        if (segmented != null) {
+            try {
+                segmented.writeGap(fromNanos, toNanos);
+            } catch (IOException e) {
+                Log.e(TAG, "Can't write session segment", e);
             }
-            else {
-                Log.i(TAG, "Skipping values");
+        }
+    }
+
+    private void logRecordingStats(FileWriter writer) {
+        CompressingOutputStream compressor = writer.getCompressor();
+        if (compressor == null) return;
+        Log.i(TAG, String.format(Locale.US, "Recording compressed %d -> %d bytes, ratio %.1f, %.1f ms/MB",
+                compressor.getBytesIn(), compressor.getBytesOut(), compressor.getCompressionRatio(),
+                compressor.getCompressNanosPerMegabyte() / 1e6));
+    }
+
+    private void closeSegmentedWriter() {
+        SegmentedRecordingWriter segmented = segmentedWriter;
+        if (segmented == null) return;
+        segmentedWriter = null;
+        try {
+            segmented.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Can't close session " + segmented.getDirectory(), e);
+        }
+    }
+
+
+    private void scheduleUiUpdate(Runnable task, long delayMillis) {
+        if (uiUpdateRateHz == ConflatingDispatcher.UNLIMITED_RATE) {
+            mainHandler.post(() -> Choreographer.getInstance().postFrameCallback(frameTimeNanos -> task.run()));
+        } else {
+            mainHandler.postDelayed(task, delayMillis);
+        }
+    }
+
+    // config changes skip the conflation and go into the recording
+    private void onConfigChanged() {
+        ChannelSnapshot snapshot = channelStore.snapshot();
+        resizeChannelHistory(snapshot);
+        _channels.setValue(snapshot);
+        metrics.onUiPublished();
+        FileWriter writer = fileWriter;
+        if (writer != null) writer.writeConfig(snapshot);
+        SegmentedRecordingWriter segmented = segmentedWriter;
+        if (segmented != null) {
+            try {
+                segmented.writeConfig(snapshot);
+            } catch (IOException e) {
+                Log.e(TAG, "Can't write session config", e);
             }
         }
     }
 
+    // covers ids up to the highest configured one, kept as long as that stays the same
+    private void resizeChannelHistory(ChannelSnapshot snapshot) {
+        int channelCount = snapshot.isEmpty() ? 0 : snapshot.getId(snapshot.size() - 1) + 1;
+        ChannelHistory history = channelHistory;
+        if (history != null && history.getChannelCount() == channelCount) return;
+        channelHistory = channelCount == 0 ? null : new ChannelHistory(channelCount, HISTORY_CAPACITY);
+        Log.d(TAG, "Channel history of " + channelCount + " channels, "
+                + ChannelHistory.bytesFor(channelCount, HISTORY_CAPACITY) / 1024 + "KB");
+    }
+
+    private void publishSessions() {
+        List<DeviceSession.Status> statuses = new ArrayList<>();
+        for (DeviceSession session : sessionManager.getSessions()) {
+            statuses.add(session.status());
+            session.getMetrics().onUiPublished();
+        }
+        _sessions.setValue(statuses);
+    }
+
+    private void publishChannels() {
+        _channels.setValue(channelStore.snapshot());
+        metrics.onUiPublished();
+    }
 
-    // Function to update or create channels using shared preferences
-    private void updateOrCreateChannels(String deviceAddress, Map<Integer, Channel> receivedChannels) {
-        Log.d(TAG, receivedChannels.toString());
-        // Get the saved channels from shared preferences
-        Map<Integer, Channel> savedChannels = SharedPref.getInstance().getAllChannels(deviceAddress);
+    @Override
+    protected void onCleared() {
+        sessionManager.removeAll();
+        sessionsReporter.stop();
+        channelConfigs.close();
+    }
 
-        // Iterate over received channels and update/create them in saved channels
-        for (Map.Entry<Integer, Channel> entry : receivedChannels.entrySet()) {
-            int channelId = entry.getKey();
-            Channel receivedChannel = entry.getValue();
+    private class SessionListener implements SessionManager.Listener {
+        @Override
+        public void onSessionsChanged() {
+            if (sessionManager.getSessions().isEmpty()) sessionsReporter.stop();
+            publishSessions();
+        }
 
-            if (savedChannels.containsKey(channelId)) {
-                // Channel exists, update its configuration
-                Channel savedChannel = savedChannels.get(channelId);
-                savedChannel.setD(receivedChannel.getD());
-            } else {
-                // Channel doesn't exist, save it with default min max
-                savedChannels.put(channelId, receivedChannel);
+        @Override
+        public void onStateChanged(DeviceSession session, DeviceSession.State state) {
+            if (state == DeviceSession.State.DISCONNECTED && session.getLastError() != null) {
+                Log.e(TAG, "Session " + session.getName() + " lost: " + session.getLastError().getMessage());
             }
+            publishSessions();
         }
 
-        // Save the updated channels to shared preferences
-        SharedPref.getInstance().saveChannels(deviceAddress, savedChannels);
+        @Override
+        public void onConfigChanged(DeviceSession session) {
+            channelConfigs.put(session.getId(), session.getConfig());
+            publishSessions();
+        }
+
+        // acquisition thread of the session
+        @Override
+        public void onSample(DeviceSession session) {
+            sessionsDispatcher.signal();
+        }
     }
 }
@@ -0,0 +1,80 @@
+package com.tz.btmonitor.viewmodel;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collapses bursts of update signals into at most one delivery per scheduling slot.
+ * <p>
+ * The producer calls {@link #signal()} for every update at full rate. Only the first signal
+ * after a delivery schedules a new one, the rest are counted as conflated. The delivery
+ * itself is expected to read the latest state, so nothing is lost, only intermediate
+ * states are skipped. With a max rate set, deliveries are additionally spaced by 1/rate.
+ */
+public class ConflatingDispatcher {
+    // no rate limit of our own, the scheduler decides (e.g. once per display frame)
+    public static final int UNLIMITED_RATE = 0;
+
+    private final Scheduler scheduler;
+    private final Runnable delivery;
+    private final Runnable deliverTask = this::deliver;
+    private final AtomicBoolean pending = new AtomicBoolean(false);
+
+    private final AtomicLong signals = new AtomicLong();
+    private final AtomicLong deliveries = new AtomicLong();
+    private final AtomicLong conflated = new AtomicLong();
+
+    private volatile long minIntervalNanos = 0;
+    private volatile long lastDeliveryNanos = 0;
+
+    public ConflatingDispatcher(Scheduler scheduler, Runnable delivery) {
+        this.scheduler = scheduler;
+        this.delivery = delivery;
+    }
+
+    public void setMaxRateHz(int hz) {
+        minIntervalNanos = hz <= UNLIMITED_RATE ? 0 : TimeUnit.SECONDS.toNanos(1) / hz;
+    }
+
+    // safe to call from any thread
+    public void signal() {
+        signals.incrementAndGet();
+        if (!pending.compareAndSet(false, true)) {
+            conflated.incrementAndGet();
+            return;
+        }
+
+        long delayMillis = 0;
+        long interval = minIntervalNanos;
+        if (interval > 0) {
+            long wait = lastDeliveryNanos + interval - System.nanoTime();
+            if (wait > 0) delayMillis = TimeUnit.NANOSECONDS.toMillis(wait + 999_999);
+        }
+        scheduler.schedule(deliverTask, delayMillis);
+    }
+
+    private void deliver() {
+        // clear first, so a signal racing with the delivery schedules another one
+        pending.set(false);
+        lastDeliveryNanos = System.nanoTime();
+        deliveries.incrementAndGet();
+        delivery.run();
+    }
+
+    public long getSignals() {
+        return signals.get();
+    }
+
+    public long getDeliveries() {
+        return deliveries.get();
+    }
+
+    public long getConflated() {
+        return conflated.get();
+    }
+
+    public interface Scheduler {
+        void schedule(Runnable task, long delayMillis);
+    }
+}
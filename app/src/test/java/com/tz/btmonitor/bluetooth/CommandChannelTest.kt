@@ -0,0 +1,124 @@
+package com.tz.btmonitor.bluetooth
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.io.OutputStream
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+
+class CommandChannelTest {
+
+    // records what each flush sent, the first flush waits for the gate
+    private class RecordingOutputStream : OutputStream() {
+        val gate = CountDownLatch(1)
+        val flushes = mutableListOf<String>()
+        private val pending = ByteArrayOutputStream()
+
+        @Synchronized
+        override fun write(b: Int) = pending.write(b)
+
+        @Synchronized
+        override fun write(b: ByteArray, off: Int, len: Int) = pending.write(b, off, len)
+
+        override fun flush() {
+            gate.await()
+            synchronized(this) {
+                flushes.add(pending.toString(Charsets.US_ASCII.name()))
+                pending.reset()
+            }
+        }
+
+        @Synchronized
+        fun sent(): List<String> = flushes.toList()
+    }
+
+    private val out = RecordingOutputStream()
+    private val channel = CommandChannel(out, "test-writer").apply { start() }
+
+    private val responses = AtomicInteger()
+    private val timeouts = AtomicInteger()
+    private val listener = object : CommandChannel.ResponseListener {
+        override fun onResponse(response: String) {
+            responses.incrementAndGet()
+        }
+
+        override fun onTimeout(command: String) {
+            timeouts.incrementAndGet()
+        }
+    }
+
+    @After
+    fun tearDown() {
+        channel.close()
+    }
+
+    private fun awaitCondition(condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + 2000
+        while (!condition() && System.currentTimeMillis() < deadline) Thread.sleep(5)
+    }
+
+    @Test
+    fun coalescesSetConfigPerChannelAndWritesEachCommand() {
+        // held in the first flush while the rest queues up
+        channel.send("AT+BAUD1")
+        awaitCondition { channel.commandsWritten == 1L }
+        for (d in 0 until 100) channel.send("SET_CFG D1=$d")
+        channel.send("SET_CFG D2=5")
+        channel.send("SET_CFG D12=6")
+        out.gate.countDown()
+        awaitCondition { out.sent().size == 4 }
+
+        // the device has no terminator to split on, every command is a flush of its own
+        assertEquals(listOf("AT+BAUD1", "SET_CFG D1=99", "SET_CFG D2=5", "SET_CFG D12=6"), out.sent())
+        assertEquals(99, channel.coalesced)
+        assertEquals(4, channel.writes)
+    }
+
+    @Test
+    fun retriesRequestUntilAnswered() {
+        out.gate.countDown()
+        channel.request("GET_CFG", "CH=", 100, 2, listener)
+        // the same request while waiting is answered by the same response
+        channel.request("GET_CFG", "CH=", 100, 2, listener)
+        awaitCondition { channel.retries == 1L }
+        channel.onMessage("CH=2,D0=1,D1=2")
+
+        assertEquals(2, responses.get())
+        assertEquals(0, timeouts.get())
+        assertEquals(0, channel.pendingCount)
+    }
+
+    @Test
+    fun reportsTimeoutAfterLastRetry() {
+        out.gate.countDown()
+        channel.request("GET_CFG", "CH=", 50, 1, listener)
+        awaitCondition { timeouts.get() == 1 }
+
+        assertEquals(listOf("GET_CFG", "GET_CFG"), out.sent())
+        assertEquals(1, channel.retries)
+        assertEquals(0, responses.get())
+        assertEquals(0, channel.pendingCount)
+    }
+
+    @Test
+    fun ignoresMessagesNoRequestWaitsFor() {
+        out.gate.countDown()
+        channel.request("GET_CFG", "CH=", 1000, 0, listener)
+        awaitCondition { channel.commandsWritten == 1L }
+        channel.onMessage("VALUES: 1,2")
+
+        assertEquals(0, responses.get())
+        assertEquals(1, channel.pendingCount)
+    }
+
+    @Test
+    fun parsesSetConfigChannel() {
+        assertEquals(3, CommandChannel.setConfigChannel("SET_CFG D3=10"))
+        assertEquals(42, CommandChannel.setConfigChannel("SET_CFG D42=0"))
+        assertEquals(-1, CommandChannel.setConfigChannel("SET_CFG D=10"))
+        assertEquals(-1, CommandChannel.setConfigChannel("SET_CFG D3"))
+        assertEquals(-1, CommandChannel.setConfigChannel("GET_CFG"))
+    }
+}
@@ -0,0 +1,95 @@
+package com.tz.btmonitor.bluetooth
+
+import com.tz.btmonitor.model.Device
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class DiscoveryIndexTest {
+
+    private val index = DiscoveryIndex()
+
+    private fun device(address: String, name: String? = "Device $address") = Device().apply {
+        this.address = address
+        this.name = name
+    }
+
+    private fun addresses(devices: List<Device>) = devices.map { it.address }
+
+    @Test
+    fun mergesRepeatedSightings() {
+        repeat(50) { index.onFound(device("a"), -60, it.toLong()) }
+        index.onFound(device("b"), -70, 100)
+
+        assertEquals(listOf("a", "b"), addresses(index.devices))
+        assertEquals(49, index.getLastSeenMillis("a"))
+        val changes = index.takeChanges()
+        assertEquals(listOf("a", "b"), addresses(changes.added))
+        assertTrue(changes.changed.isEmpty())
+    }
+
+    @Test
+    fun reportsOnlyWhatChangedSinceLastTake() {
+        index.onFound(device("a"), -60, 0)
+        index.onFound(device("b"), -70, 0)
+        index.takeChanges()
+
+        assertFalse(index.onFound(device("a"), -60, 10))
+        assertTrue(index.onFound(device("b"), -50, 10))
+        val changes = index.takeChanges()
+
+        assertTrue(changes.added.isEmpty())
+        assertEquals(listOf("b"), addresses(changes.changed))
+        assertEquals(-50, changes.changed[0].rssi)
+        assertTrue(index.takeChanges().isEmpty)
+    }
+
+    @Test
+    fun keepsPublishedDevicesUnchanged() {
+        index.onFound(device("a"), -60, 0)
+        val published = index.takeChanges().added[0]
+        index.onFound(device("a"), -40, 10)
+
+        assertEquals(-60, published.rssi)
+        assertEquals(-40, index.get("a").rssi)
+    }
+
+    @Test
+    fun keepsNameAndRssiMissingFromLaterSighting() {
+        index.onBonded(device("a", "Bonded"), 0)
+        index.onFound(device("a", null), -55, 10)
+
+        assertEquals("Bonded", index.get("a").name)
+        assertEquals(-55, index.get("a").rssi)
+        assertEquals(Device.RSSI_UNKNOWN, device("x").rssi)
+    }
+
+    @Test
+    fun removesStaleButKeepsBonded() {
+        index.onBonded(device("bonded"), 0)
+        index.onFound(device("old"), -60, 0)
+        index.onFound(device("recent"), -60, 5000)
+        index.takeChanges()
+
+        assertEquals(1, index.removeNotSeenSince(1000))
+        val changes = index.takeChanges()
+        assertEquals(listOf("old"), addresses(changes.removed))
+        assertEquals(listOf("bonded", "recent"), addresses(index.devices))
+    }
+
+    @Test
+    fun cancelsDiffOfDeviceNobodyHeardOf() {
+        index.onFound(device("a"), -60, 0)
+        index.clear()
+        assertTrue(index.takeChanges().isEmpty)
+
+        index.onFound(device("b"), -60, 0)
+        index.takeChanges()
+        index.clear()
+        index.onFound(device("b"), -65, 10)
+        val changes = index.takeChanges()
+        assertTrue(changes.removed.isEmpty())
+        assertEquals(listOf("b"), addresses(changes.changed))
+    }
+}
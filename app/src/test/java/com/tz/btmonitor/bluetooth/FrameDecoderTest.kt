@@ -0,0 +1,74 @@
+package com.tz.btmonitor.bluetooth
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+
+class FrameDecoderTest {
+
+    // returns at most chunkSize bytes per read, like a socket would
+    private class ChunkedInputStream(data: ByteArray, private val chunkSize: Int) : InputStream() {
+        private val source = ByteArrayInputStream(data)
+
+        override fun read(): Int = source.read()
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int =
+            source.read(b, off, minOf(len, chunkSize))
+    }
+
+    private fun decodeAll(input: String, chunkSize: Int, maxFrameLength: Int = 64): List<String> {
+        val frames = mutableListOf<String>()
+        val decoder = FrameDecoder(maxFrameLength) { buffer, offset, length ->
+            frames.add(String(buffer, offset, length, Charsets.US_ASCII))
+        }
+        val stream = ChunkedInputStream(input.toByteArray(Charsets.US_ASCII), chunkSize)
+        while (decoder.readFrom(stream) >= 0) {
+            // keep reading until the stream ends
+        }
+        return frames
+    }
+
+    @Test
+    fun reassemblesFramesAcrossAnyChunkBoundary() {
+        val input = "VALUES: 1,2,3\nVALUES: 4,5,6\r\nCH=2,D0=10,D1=20\n"
+        val expected = listOf("VALUES: 1,2,3", "VALUES: 4,5,6", "CH=2,D0=10,D1=20")
+
+        for (chunkSize in 1..input.length) {
+            assertEquals("chunk size $chunkSize", expected, decodeAll(input, chunkSize))
+        }
+    }
+
+    @Test
+    fun keepsPartialFrameUntilNewlineArrives() {
+        val frames = decodeAll("VALUES: 1,2\nVALUES: 3", chunkSize = 4)
+        assertEquals(listOf("VALUES: 1,2"), frames)
+    }
+
+    @Test
+    fun dropsOversizedFramesAndRecovers() {
+        val frames = mutableListOf<String>()
+        val decoder = FrameDecoder(8) { buffer, offset, length ->
+            frames.add(String(buffer, offset, length, Charsets.US_ASCII))
+        }
+        val data = "short\nthis line is too long\nok\n".toByteArray(Charsets.US_ASCII)
+        decoder.feed(data, 0, data.size)
+
+        assertEquals(listOf("short", "ok"), frames)
+        assertEquals(1, decoder.oversizedFrames)
+    }
+
+    @Test
+    fun deliversFramesThatWrapAroundTheRing() {
+        val frames = mutableListOf<String>()
+        val decoder = FrameDecoder(8) { buffer, offset, length ->
+            frames.add(String(buffer, offset, length, Charsets.US_ASCII))
+        }
+        val data = "abcde\nfghij\nklmno\n".toByteArray(Charsets.US_ASCII)
+        for (b in data) {
+            decoder.feed(byteArrayOf(b), 0, 1)
+        }
+
+        assertEquals(listOf("abcde", "fghij", "klmno"), frames)
+    }
+}
@@ -0,0 +1,80 @@
+package com.tz.btmonitor.bluetooth
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import com.tz.btmonitor.model.ChannelConfig
+import org.junit.Test
+
+class ParserTest {
+
+    @Test
+    fun parseValuesFillsArray() {
+        val out = IntArray(8)
+        val count = Parser.parseValues("VALUES: 12, 0,-7,2147483647", out)
+
+        assertEquals(4, count)
+        assertArrayEquals(intArrayOf(12, 0, -7, Int.MAX_VALUE), out.copyOf(count))
+    }
+
+    @Test
+    fun parseValuesFromBytesMatchesCharSequence() {
+        val message = "junkVALUES: 5,6, 7"
+        val bytes = message.toByteArray(Charsets.US_ASCII)
+        val out = IntArray(8)
+        val count = Parser.parseValues(bytes, 4, bytes.size - 4, out)
+
+        assertEquals(3, count)
+        assertArrayEquals(intArrayOf(5, 6, 7), out.copyOf(count))
+    }
+
+    @Test
+    fun parseValuesReportsErrorsThroughReturnCode() {
+        val out = IntArray(2)
+
+        assertEquals(Parser.VALUES_NOT_A_VALUES_MESSAGE, Parser.parseValues("CH=2,D0=1", out))
+        assertEquals(Parser.VALUES_MALFORMED, Parser.parseValues("VALUES: 1,,2", out))
+        assertEquals(Parser.VALUES_MALFORMED, Parser.parseValues("VALUES: 1,x", out))
+        assertEquals(Parser.VALUES_MALFORMED, Parser.parseValues("VALUES: 2147483648", out))
+        assertEquals(Parser.VALUES_TOO_MANY, Parser.parseValues("VALUES: 1,2,3", out))
+        assertEquals(0, Parser.parseValues("VALUES: ", out))
+    }
+
+    @Test
+    fun parseConfigFillsParallelArrays() {
+        val config = Parser.parseConfig(" CH = 3 , D0=35,D 1 = 40, D2=55\r", ChannelConfig())
+
+        assertEquals(3, config.declaredChannels)
+        assertEquals(3, config.size())
+        for ((index, d) in intArrayOf(35, 40, 55).withIndex()) {
+            assertEquals(index, config.getId(index))
+            assertEquals(d, config.getD(index))
+            assertEquals(ChannelConfig.DEFAULT_MIN, config.getMin(index))
+            assertEquals(ChannelConfig.DEFAULT_MAX, config.getMax(index))
+        }
+    }
+
+    @Test
+    fun parseConfigCountsUnknownAndMalformedFields() {
+        val config = Parser.parseConfig("CH=2,X1=3,D0=abc,,D1=7", ChannelConfig())
+
+        assertEquals(1, config.size())
+        assertEquals(7, config.getD(0))
+        assertEquals(1, config.unknownKeys)
+        assertEquals(1, config.malformedFields)
+    }
+
+    @Test
+    fun parseConfigReusesConfigAndGrows() {
+        val message = buildString {
+            append("CH=300")
+            for (i in 0 until 300) append(",D").append(i).append('=').append(i * 2)
+        }
+        val config = ChannelConfig(1)
+        Parser.parseConfig("CH=1,D5=1", config)
+        Parser.parseConfig(message, config)
+
+        assertEquals(300, config.declaredChannels)
+        assertEquals(300, config.size())
+        assertEquals(598, config.getD(299))
+    }
+}
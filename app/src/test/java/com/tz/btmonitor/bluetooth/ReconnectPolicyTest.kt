@@ -0,0 +1,42 @@
+package com.tz.btmonitor.bluetooth
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Random
+
+class ReconnectPolicyTest {
+
+    private val random = Random(1)
+
+    @Test
+    fun growsExponentiallyUpToMax() {
+        val policy = ReconnectPolicy(100, 1000, 2.0, 0.0, ReconnectPolicy.UNLIMITED_ATTEMPTS)
+
+        assertEquals(listOf(100L, 200L, 400L, 800L, 1000L, 1000L), (1..6).map { policy.delayMillis(it, random) })
+    }
+
+    @Test
+    fun jitterOnlyShortensDelay() {
+        val policy = ReconnectPolicy(1000, 1000, 2.0, 0.5, ReconnectPolicy.UNLIMITED_ATTEMPTS)
+        val delays = (0 until 1000).map { policy.delayMillis(1, random) }
+
+        assertTrue(delays.all { it in 500..1000 })
+        // spread out, not in lockstep
+        assertTrue(delays.toSet().size > 100)
+    }
+
+    @Test
+    fun countsAttempts() {
+        val limited = ReconnectPolicy(0, 0, 1.0, 0.0, 3)
+        assertTrue(limited.hasAttemptsLeft(2))
+        assertFalse(limited.hasAttemptsLeft(3))
+        assertTrue(ReconnectPolicy.DEFAULT.hasAttemptsLeft(Int.MAX_VALUE))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsJitterAboveOne() {
+        ReconnectPolicy(100, 1000, 2.0, 1.5, 1)
+    }
+}
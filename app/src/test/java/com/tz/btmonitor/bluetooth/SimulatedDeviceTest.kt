@@ -0,0 +1,101 @@
+package com.tz.btmonitor.bluetooth
+
+import com.tz.btmonitor.pipeline.AcquisitionPipeline
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.IOException
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class SimulatedDeviceTest {
+    private val device = SimulatedDevice(4, 1000.0, 200, 42L)
+    private val transport = device.createTransport()
+    private val messages = LinkedBlockingQueue<String>()
+    private val samples = AtomicInteger()
+    private lateinit var pipeline: AcquisitionPipeline
+    private var connectedNanos = 0L
+
+    @Before
+    fun setUp() {
+        connectedNanos = System.nanoTime()
+        transport.connect()
+        pipeline = AcquisitionPipeline(transport.inputStream, object : AcquisitionPipeline.Listener {
+            override fun onMessage(message: String) {
+                messages.add(message)
+            }
+
+            override fun onError(e: IOException) {}
+
+            override fun onStopped() {}
+        })
+        pipeline.addSink { values, count, _ ->
+            assertEquals(4, count)
+            assertTrue(values[0] in 100..20000)
+            samples.incrementAndGet()
+        }
+        pipeline.start()
+    }
+
+    @After
+    fun tearDown() {
+        pipeline.stop()
+        transport.close()
+        pipeline.join(1000)
+    }
+
+    // fails the test once the deadline passed, however loaded the machine
+    private fun awaitCondition(what: String, condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + 5000
+        while (!condition() && System.currentTimeMillis() < deadline) Thread.sleep(5)
+        assertTrue("Timed out waiting for $what", condition())
+    }
+
+    private fun send(command: String) {
+        transport.outputStream.write(command.toByteArray())
+        transport.outputStream.flush()
+    }
+
+    @Test
+    fun emitsValuesAtConfiguredRate() {
+        awaitCondition("200 samples") { samples.get() >= 200 }
+        val sent = device.linesSent
+        val elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectedNanos)
+
+        // the device keeps to a schedule of 1000/s from connect on, a late line catches up but
+        // never gets ahead; a loaded machine only sends fewer
+        assertTrue("$sent lines in ${elapsedMillis}ms", sent <= elapsedMillis + 10)
+        awaitCondition("every sent line processed") { pipeline.samplesProcessed >= sent }
+    }
+
+    @Test
+    fun answersConfigCommands() {
+        send("GET_CFG")
+        assertEquals("CH=4,D0=0,D1=0,D2=0,D3=0", messages.poll(1, TimeUnit.SECONDS))
+
+        // sent back to back, may arrive as one chunk
+        send("SET_CFG D2=7")
+        send("SET_CFG D0=-3")
+        send("GET_CFG")
+        assertEquals("CH=4,D0=-3,D1=0,D2=7,D3=0", messages.poll(1, TimeUnit.SECONDS))
+        assertEquals(7, device.getD(2))
+    }
+
+    @Test
+    fun honoursBaudRate() {
+        send("AT+BAUD4")
+        assertEquals("OK9600", messages.poll(1, TimeUnit.SECONDS))
+        assertEquals(9600, device.baudRate)
+
+        // ~25 byte lines at 960 bytes/s leave room for about 38 lines per second, 20 of them take
+        // 500ms or more instead of 20ms unthrottled
+        val before = device.linesSent
+        val start = System.nanoTime()
+        awaitCondition("20 lines") { device.linesSent >= before + 20 }
+        val elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+        assertTrue("20 lines in ${elapsedMillis}ms", elapsedMillis >= 300)
+    }
+}
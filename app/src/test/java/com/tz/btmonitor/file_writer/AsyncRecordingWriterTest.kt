@@ -0,0 +1,105 @@
+package com.tz.btmonitor.file_writer
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.util.concurrent.atomic.AtomicInteger
+
+class AsyncRecordingWriterTest {
+
+    @Test
+    fun closeDrainsEveryRowInOrder() {
+        val out = ByteArrayOutputStream()
+        val writer = AsyncRecordingWriter(out, 256, 10_000)
+        val values = IntArray(3)
+        for (i in 0 until 1000) {
+            values[0] = i
+            values[1] = -i
+            values[2] = Int.MIN_VALUE
+            writer.writeRow("1.5,2.5", values, 3)
+        }
+        writer.writeRow(arrayOf("a", "b"))
+        writer.close()
+
+        val lines = out.toString("US-ASCII").lines().filter { it.isNotEmpty() }
+        assertEquals(1001, lines.size)
+        assertEquals("1.5,2.5,0,0,-2147483648", lines[0])
+        assertEquals("1.5,2.5,999,-999,-2147483648", lines[999])
+        assertEquals("a,b", lines[1000])
+        assertEquals(out.size().toLong(), writer.bytesWritten)
+        assertEquals(1001, writer.rowsWritten)
+        assertTrue(writer.flushes > 1)
+    }
+
+    @Test
+    fun flushWritesPartialChunk() {
+        val out = ByteArrayOutputStream()
+        val writer = AsyncRecordingWriter(out, 1024, 10_000)
+        writer.writeRow("x", intArrayOf(1, 2), 2)
+        assertEquals(0, out.size())
+
+        writer.flush()
+        assertEquals("x,1,2\n", out.toString("US-ASCII"))
+        assertEquals(0, writer.queueDepth)
+        writer.close()
+    }
+
+    @Test
+    fun flushesStaleRowsOnInterval() {
+        val out = ByteArrayOutputStream()
+        val writer = AsyncRecordingWriter(out, 1024, 20)
+        writer.writeRow("x", intArrayOf(7), 1)
+
+        val deadline = System.currentTimeMillis() + 5000
+        while (out.size() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5)
+        }
+        assertEquals("x,7\n", out.toString("US-ASCII"))
+        writer.close()
+    }
+
+    @Test(timeout = 5000)
+    fun closeReturnsAfterWriteError() {
+        val out = object : OutputStream() {
+            override fun write(b: Int) = throw IOException("disk full")
+        }
+        val writer = AsyncRecordingWriter(out, 64, 10_000)
+        for (i in 0 until 100) writer.writeRow("x", intArrayOf(i), 1)
+
+        try {
+            writer.close()
+            fail("close should report the write error")
+        } catch (e: IOException) {
+            assertEquals("disk full", e.message)
+        }
+    }
+
+    @Test(timeout = 30_000)
+    fun staleFlushesDontBlockProducersOnSlowDisk() {
+        val out = object : OutputStream() {
+            val rows = AtomicInteger()
+
+            override fun write(b: Int) {
+                if (b == '\n'.code) rows.incrementAndGet()
+            }
+
+            override fun write(b: ByteArray, off: Int, len: Int) {
+                Thread.sleep(2)
+                for (i in off until off + len) write(b[i].toInt())
+            }
+        }
+        // every poll timeout finds a stale chunk while the producers wait for free ones
+        val writer = AsyncRecordingWriter(out, 256, 1)
+        val producers = List(3) {
+            Thread { for (i in 0 until 5000) writer.writeRow("y", intArrayOf(i), 1) }.apply { start() }
+        }
+        producers.forEach { it.join() }
+        writer.close()
+
+        assertEquals(15_000, out.rows.get())
+    }
+}
@@ -0,0 +1,151 @@
+package com.tz.btmonitor.file_writer
+
+import com.tz.btmonitor.model.Channel
+import com.tz.btmonitor.model.ChannelStateStore
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.util.zip.CRC32
+
+class BinaryRecordingTest {
+
+    private fun config(channelCount: Int) = ChannelStateStore(64).apply {
+        setConfig((0 until channelCount).associateWith { id ->
+            Channel().apply {
+                this.id = id
+                min = 100
+                max = 20000
+                d = id * 5
+            }
+        })
+    }.snapshot()
+
+    @Test
+    fun roundTripsSamplesAndConfig() {
+        val out = ByteArrayOutputStream()
+        val writer = BinaryRecordingWriter(out, 1234L, 16)
+        writer.writeConfig(config(3))
+        val values = IntArray(3)
+        for (i in 0 until 100) {
+            values[0] = 5000 + i
+            values[1] = -i
+            values[2] = if (i % 2 == 0) Int.MAX_VALUE else Int.MIN_VALUE
+            writer.writeSample(1_000_000L * i, 52.52 + i * 1e-5, -13.405, values, 3)
+        }
+        // a change of value count starts a new block
+        writer.writeSample(200_000_000L, 1.0, 2.0, intArrayOf(9), 1)
+        writer.close()
+
+        val reader = BinaryRecordingReader(ByteArrayInputStream(out.toByteArray()))
+        assertEquals(1234L, reader.startTimeMillis)
+        val sample = RecordedSample()
+        for (i in 0 until 100) {
+            assertTrue(reader.next(sample))
+            assertEquals(1_000_000L * i, sample.timestampNanos)
+            assertEquals(52.52 + i * 1e-5, sample.lat, 1e-7)
+            assertEquals(-13.405, sample.lng, 1e-7)
+            assertEquals(3, sample.count)
+            assertEquals(5000 + i, sample.values[0])
+            assertEquals(-i, sample.values[1])
+            assertEquals(if (i % 2 == 0) Int.MAX_VALUE else Int.MIN_VALUE, sample.values[2])
+        }
+        assertTrue(reader.next(sample))
+        assertEquals(1, sample.count)
+        assertEquals(9, sample.values[0])
+        assertFalse(reader.next(sample))
+
+        assertEquals(3, reader.config.size())
+        assertEquals(10, reader.config.getD(2))
+        assertEquals(1, reader.configVersion)
+    }
+
+    @Test
+    fun exportsCsvRowsAndIsSmallerThanCsv() {
+        val out = ByteArrayOutputStream()
+        val writer = BinaryRecordingWriter(out, 0L)
+        val values = IntArray(16)
+        val csvLength = (0 until 1000).sumOf { i ->
+            for (c in values.indices) values[c] = 10000 + (i + c) % 7
+            writer.writeSample(10_000_000L * i, 48.1, 11.5, values, values.size)
+            ("${10_000_000L * i},48.1,11.5," + values.joinToString(",") + "\n").length
+        }
+        writer.close()
+
+        val csv = ByteArrayOutputStream()
+        val rows = CsvExporter.export(ByteArrayInputStream(out.toByteArray()), csv)
+        val lines = csv.toString("US-ASCII").lines()
+
+        assertEquals(1000, rows)
+        assertEquals("0,48.1,11.5," + (0 until 16).joinToString(",") { (10000 + it % 7).toString() }, lines[0])
+        assertEquals(csvLength, csv.size())
+        // an order of magnitude below the csv
+        assertTrue(out.size() * 10 <= csvLength)
+    }
+
+    // a recording whose only samples block declares the given counts, checksum intact
+    private fun recordingWithSamplesBlock(samples: Long, values: Long): ByteArray {
+        val out = ByteArrayOutputStream()
+        BinaryRecordingWriter(out, 0L).close()
+        val payload = ByteArray(28)
+        var length = BinaryRecordingFormat.writeVarint(payload, 0, samples)
+        length = BinaryRecordingFormat.writeVarint(payload, length, values)
+        length = BinaryRecordingFormat.writeLong(payload, length, 0L)
+        val blockHeader = byteArrayOf(BinaryRecordingFormat.BLOCK_SAMPLES, 0, 0, 0, 0)
+        BinaryRecordingFormat.writeInt(blockHeader, 1, length)
+        val crc = CRC32().apply {
+            update(blockHeader)
+            update(payload, 0, length)
+        }
+        val checksum = ByteArray(BinaryRecordingFormat.BLOCK_CHECKSUM_LENGTH)
+        BinaryRecordingFormat.writeInt(checksum, 0, crc.value.toInt())
+        out.write(blockHeader)
+        out.write(payload, 0, length)
+        out.write(checksum)
+        return out.toByteArray()
+    }
+
+    @Test
+    fun rejectsCountsTheBlockCantHold() {
+        val corrupt = listOf(
+                recordingWithSamplesBlock(1, BinaryRecordingFormat.MAX_CHANNELS + 1L),
+                recordingWithSamplesBlock(BinaryRecordingFormat.MAX_SAMPLES_PER_BLOCK + 1L, 1),
+                // 2 samples of 1000 values need more than the bare prefix
+                recordingWithSamplesBlock(2, 1000))
+        for (recording in corrupt) {
+            try {
+                BinaryRecordingReader(ByteArrayInputStream(recording)).next(RecordedSample())
+                fail("Corrupt counts were accepted")
+            } catch (e: IOException) {
+                assertTrue(e.message!!.startsWith("Corrupt"))
+            }
+        }
+    }
+
+    @Test
+    fun marksGapBeforeNextSample() {
+        val out = ByteArrayOutputStream()
+        val writer = BinaryRecordingWriter(out, 0L)
+        writer.writeSample(0L, 1.0, 2.0, intArrayOf(1), 1)
+        writer.writeGap(10_000_000L, 260_000_000L)
+        writer.writeSample(270_000_000L, 1.0, 2.0, intArrayOf(2), 1)
+        writer.close()
+
+        val reader = BinaryRecordingReader(ByteArrayInputStream(out.toByteArray()))
+        val sample = RecordedSample()
+        assertTrue(reader.next(sample))
+        assertEquals(0L, sample.gapNanos)
+        assertTrue(reader.next(sample))
+        assertEquals(250_000_000L, sample.gapNanos)
+        assertEquals(2, sample.values[0])
+        assertEquals(1, reader.gapCount)
+
+        val csv = ByteArrayOutputStream()
+        assertEquals(2, CsvExporter.export(ByteArrayInputStream(out.toByteArray()), csv))
+        assertEquals(listOf("0,1.0,2.0,1", "# gap 250 ms", "270000000,1.0,2.0,2", ""), csv.toString("US-ASCII").lines())
+    }
+}
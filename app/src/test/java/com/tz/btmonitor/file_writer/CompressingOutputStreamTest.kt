@@ -0,0 +1,73 @@
+package com.tz.btmonitor.file_writer
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.EOFException
+import java.util.zip.GZIPInputStream
+
+class CompressingOutputStreamTest {
+
+    private fun csv(rows: Int): ByteArray {
+        val builder = StringBuilder()
+        for (i in 0 until rows) {
+            builder.append("47.1234567,19.7654321,").append(i % 1000).append(',').append(2000 + i % 17).append('\n')
+        }
+        return builder.toString().toByteArray()
+    }
+
+    private fun gunzip(data: ByteArray): ByteArray {
+        val out = ByteArrayOutputStream()
+        val input = GZIPInputStream(ByteArrayInputStream(data))
+        val buffer = ByteArray(4096)
+        try {
+            while (true) {
+                val n = input.read(buffer)
+                if (n < 0) break
+                out.write(buffer, 0, n)
+            }
+        } catch (e: EOFException) {
+            // cut off member, keep what was decoded
+        }
+        return out.toByteArray()
+    }
+
+    @Test
+    fun roundTripsThroughGzip() {
+        val data = csv(20000)
+        val sink = ByteArrayOutputStream()
+        val stream = CompressingOutputStream(sink, 16 * 1024, 6)
+        stream.write(data, 0, 1000)
+        stream.flush()
+        stream.write(data, 1000, data.size - 1000)
+        stream.close()
+
+        assertArrayEquals(data, gunzip(sink.toByteArray()))
+        assertEquals(data.size.toLong(), stream.bytesIn)
+        assertEquals(sink.size().toLong(), stream.bytesOut)
+        assertTrue(stream.members > data.size / (16 * 1024))
+        assertTrue(stream.compressionRatio > 4)
+        assertTrue(stream.compressNanosPerMegabyte > 0)
+    }
+
+    @Test
+    fun truncatedFileKeepsCompleteMembers() {
+        val data = csv(5000)
+        val sink = ByteArrayOutputStream()
+        val stream = CompressingOutputStream(sink, 8 * 1024, 6)
+        stream.write(data)
+        stream.flush()
+        val complete = stream.bytesIn.toInt()
+        stream.write(data)
+        stream.flush()
+        // lose the end of the last member
+        val bytes = sink.toByteArray()
+        val recovered = gunzip(bytes.copyOf(bytes.size - 20))
+
+        assertTrue(recovered.size >= complete)
+        assertArrayEquals(data, recovered.copyOf(data.size))
+    }
+}
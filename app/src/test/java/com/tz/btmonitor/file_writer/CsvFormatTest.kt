@@ -0,0 +1,44 @@
+package com.tz.btmonitor.file_writer
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class CsvFormatTest {
+
+    private val buffer = ByteArray(CsvFormat.maxRowLength(4))
+
+    private fun double(value: Double, decimals: Int = CsvFormat.LAT_LNG_DECIMALS) =
+        String(buffer, 0, CsvFormat.putDouble(buffer, 0, value, decimals), Charsets.US_ASCII)
+
+    private fun long(value: Long) = String(buffer, 0, CsvFormat.putLong(buffer, 0, value), Charsets.US_ASCII)
+
+    @Test
+    fun formatsDoublesRoundedWithoutTrailingZeros() {
+        assertEquals("48.1", double(48.1))
+        assertEquals("1.0", double(1.0))
+        assertEquals("0.0", double(-0.0))
+        assertEquals("-13.405", double(-13.405))
+        assertEquals("52.5200123", double(52.52001234))
+        assertEquals("0.0000001", double(1e-7))
+        assertEquals("2.0", double(1.99999999))
+        assertEquals("0.13", double(0.125, 2))
+        assertEquals("NaN", double(Double.NaN))
+        assertEquals("1.0E30", double(1e30))
+    }
+
+    @Test
+    fun formatsLongsAtTheEdges() {
+        assertEquals("0", long(0))
+        assertEquals("-42", long(-42))
+        assertEquals(Long.MAX_VALUE.toString(), long(Long.MAX_VALUE))
+        assertEquals(Long.MIN_VALUE.toString(), long(Long.MIN_VALUE))
+    }
+
+    @Test
+    fun encodesSampleRow() {
+        val values = intArrayOf(5000, -1, Int.MIN_VALUE, 7)
+        val length = CsvFormat.putSampleRow(buffer, 0, 123_456_789L, 48.1375, 11.575, values, 3)
+
+        assertEquals("123456789,48.1375,11.575,5000,-1,-2147483648\n", String(buffer, 0, length, Charsets.US_ASCII))
+    }
+}
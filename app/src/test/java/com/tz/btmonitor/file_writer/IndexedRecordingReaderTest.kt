@@ -0,0 +1,104 @@
+package com.tz.btmonitor.file_writer
+
+import com.tz.btmonitor.model.Channel
+import com.tz.btmonitor.model.ChannelStateStore
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.io.FileOutputStream
+
+class IndexedRecordingReaderTest {
+    private lateinit var file: File
+
+    private fun channel(id: Int, d: Int) = Channel().apply {
+        this.id = id
+        min = 100
+        max = 200
+        this.d = d
+    }
+
+    @Before
+    fun setUp() {
+        file = File.createTempFile("recording", ".btr")
+        // 10000 samples, one per ms, config changes half way
+        val store = ChannelStateStore(16)
+        FileOutputStream(file).use { out ->
+            val writer = BinaryRecordingWriter(out, 0L, 100)
+            store.setConfig(mapOf(1 to channel(1, 5)))
+            writer.writeConfig(store.snapshot())
+            for (i in 0 until 10000) {
+                if (i == 5000) {
+                    store.setConfig(mapOf(1 to channel(1, 7), 2 to channel(2, 9)))
+                    writer.writeConfig(store.snapshot())
+                }
+                writer.writeSample(i * 1_000_000L, 1.0, 2.0, intArrayOf(i, -i), 2)
+            }
+            writer.flush()
+        }
+    }
+
+    @After
+    fun tearDown() {
+        RecordingIndex.indexFileFor(file).delete()
+        file.delete()
+    }
+
+    @Test
+    fun seeksToFirstSampleAtOrAfterTimestamp() {
+        IndexedRecordingReader(file).use { reader ->
+            assertEquals(100, reader.index.blockCount)
+            val sample = RecordedSample()
+
+            reader.seek(4_321_500_000L)
+            assertTrue(reader.next(sample))
+            assertEquals(4322, sample.values[0])
+            assertEquals(4_322_000_000L, sample.timestampNanos)
+            assertEquals(1, reader.config.size())
+
+            reader.seek(0)
+            assertTrue(reader.next(sample))
+            assertEquals(0, sample.values[0])
+
+            reader.seek(7_000_000_000L)
+            assertTrue(reader.next(sample))
+            assertEquals(7000, sample.values[0])
+            assertEquals(2, reader.config.size())
+
+            reader.seek(20_000_000_000L)
+            assertFalse(reader.next(sample))
+        }
+    }
+
+    @Test
+    fun readsTimeRange() {
+        IndexedRecordingReader(file).use { reader ->
+            var expected = 2500
+            val count = reader.readRange(2_500_000_000L, 2_999_000_000L) { sample ->
+                assertEquals(expected, sample.values[0])
+                assertEquals(-expected, sample.values[1])
+                expected++
+            }
+            assertEquals(500, count)
+            assertEquals(3000, expected)
+        }
+    }
+
+    @Test
+    fun reusesSavedIndexAndRebuildsStaleOne() {
+        IndexedRecordingReader(file).use { }
+        val indexFile = RecordingIndex.indexFileFor(file)
+        assertTrue(indexFile.exists())
+        assertEquals(100, RecordingIndex.read(indexFile, file.length())!!.blockCount)
+
+        // appending makes the saved index stale
+        FileOutputStream(file, true).use { out -> out.write(ByteArray(3)) }
+        assertEquals(null, RecordingIndex.read(indexFile, file.length()))
+        IndexedRecordingReader(file).use { reader ->
+            assertEquals(100, reader.index.blockCount)
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.tz.btmonitor.file_writer
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.RandomAccessFile
+
+class RecordingRecoveryTest {
+
+    // 10 full blocks of 10 samples each
+    private fun writeRecording(file: File): Long {
+        FileOutputStream(file).use { out ->
+            val writer = BinaryRecordingWriter(out, 0L, 10)
+            for (i in 0 until 100) {
+                writer.writeSample(i * 1000L, 1.0, 2.0, intArrayOf(i, i * 2), 2)
+            }
+            writer.flush()
+        }
+        return file.length()
+    }
+
+    private fun readAll(file: File): Int {
+        var count = 0
+        BinaryRecordingReader(FileInputStream(file)).use { reader ->
+            val sample = RecordedSample()
+            while (reader.next(sample)) {
+                assertEquals(count, sample.values[0])
+                count++
+            }
+        }
+        return count
+    }
+
+    private fun recover(file: File) = RandomAccessFile(file, "rw").use {
+        RecordingRecovery.recover(it.channel)
+    }
+
+    @Test
+    fun leavesIntactRecordingAlone() {
+        val file = File.createTempFile("recording", ".btr")
+        val length = writeRecording(file)
+
+        val result = recover(file)
+
+        assertTrue(result.recognized)
+        assertFalse(result.wasTruncated())
+        assertEquals(10, result.validBlocks)
+        assertEquals(100, result.validSamples)
+        assertEquals(length, file.length())
+        file.delete()
+    }
+
+    @Test
+    fun truncatesTornTailBlock() {
+        val file = File.createTempFile("recording", ".btr")
+        val length = writeRecording(file)
+        // lose the last few bytes, like a crash in the middle of a write
+        RandomAccessFile(file, "rw").use { it.setLength(length - 5) }
+
+        val result = recover(file)
+
+        assertTrue(result.wasTruncated())
+        assertEquals(9, result.validBlocks)
+        assertEquals(90, result.validSamples)
+        assertEquals(10, result.lostSamples)
+        assertEquals(result.validLength, file.length())
+        assertEquals(90, readAll(file))
+        file.delete()
+    }
+
+    @Test
+    fun truncatesAtCorruptedBlock() {
+        val file = File.createTempFile("recording", ".btr")
+        writeRecording(file)
+        // flip a byte inside the fourth block's payload
+        val blockLength = (file.length() - BinaryRecordingFormat.HEADER_LENGTH) / 10
+        RandomAccessFile(file, "rw").use {
+            val pos = BinaryRecordingFormat.HEADER_LENGTH + 3 * blockLength + 20
+            it.seek(pos)
+            val b = it.read()
+            it.seek(pos)
+            it.write(b xor 0xFF)
+        }
+
+        val result = recover(file)
+
+        assertEquals(3, result.validBlocks)
+        // the broken block and the six intact ones cut off behind it
+        assertEquals(70, result.lostSamples)
+        assertEquals(30, readAll(file))
+        file.delete()
+    }
+}
@@ -0,0 +1,106 @@
+package com.tz.btmonitor.file_writer
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.nio.file.Files
+
+class SegmentedRecordingTest {
+    private lateinit var directory: File
+
+    @Before
+    fun setUp() {
+        directory = Files.createTempDirectory("session").toFile()
+    }
+
+    @After
+    fun tearDown() {
+        directory.deleteRecursively()
+    }
+
+    private fun readAll(): List<Long> {
+        val timestamps = ArrayList<Long>()
+        SegmentedRecordingReader(directory).use { reader ->
+            val sample = RecordedSample()
+            while (reader.next(sample)) {
+                assertEquals(timestamps.size, sample.values[0])
+                timestamps.add(sample.timestampNanos)
+            }
+        }
+        return timestamps
+    }
+
+    @Test
+    fun rotatesByDurationWithoutLosingSamples() {
+        // one sample per 10ms, 1s segments
+        SegmentedRecordingWriter(directory, SegmentedRecordingWriter.NO_LIMIT, 1000, false).use { writer ->
+            for (i in 0 until 550) {
+                writer.writeSample(i * 10_000_000L, 1.0, 2.0, intArrayOf(i, -i), 2)
+            }
+        }
+
+        val segments = SessionManifest.read(directory)
+        assertEquals(6, segments.size)
+        assertEquals(0L, segments[0].firstTimestampNanos)
+        assertEquals(990_000_000L, segments[0].lastTimestampNanos)
+        assertEquals(1_000_000_000L, segments[1].firstTimestampNanos)
+        assertEquals(50L, segments[5].samples)
+        assertEquals(550L, segments.sumOf { it.samples })
+
+        val timestamps = readAll()
+        assertEquals(550, timestamps.size)
+        assertEquals((0 until 550).map { it * 10_000_000L }, timestamps)
+    }
+
+    @Test
+    fun rotatesBySizeThroughAsyncWriter() {
+        SegmentedRecordingWriter(directory, 4096, SegmentedRecordingWriter.NO_LIMIT, true).use { writer ->
+            for (i in 0 until 5000) {
+                writer.writeSample(i * 1000L, 1.0, 2.0, intArrayOf(i, i * 7, i * 13), 3)
+            }
+            assertTrue(writer.rotations > 0)
+        }
+
+        val segments = SessionManifest.read(directory)
+        assertTrue(segments.size > 1)
+        for (segment in segments) {
+            assertEquals(segment.bytes, File(directory, segment.fileName).length())
+        }
+        assertEquals(5000, readAll().size)
+    }
+
+    @Test
+    fun ignoresSamplesAfterClose() {
+        val writer = SegmentedRecordingWriter(directory, 4096, SegmentedRecordingWriter.NO_LIMIT, true)
+        for (i in 0 until 100) {
+            writer.writeSample(i * 1000L, 1.0, 2.0, intArrayOf(i), 1)
+        }
+        writer.close()
+        // a late sample of a pipeline still draining
+        writer.writeSample(100_000L, 1.0, 2.0, intArrayOf(100), 1)
+        writer.close()
+
+        val segments = SessionManifest.read(directory)
+        assertEquals(1, segments.size)
+        assertEquals(listOf(SessionManifest.FILE_NAME, segments[0].fileName).sorted(), directory.list()!!.sorted())
+        assertEquals(100, readAll().size)
+    }
+
+    @Test
+    fun findsSegmentsMissingFromManifest() {
+        val writer = SegmentedRecordingWriter(directory, SegmentedRecordingWriter.NO_LIMIT, 1, false)
+        for (i in 0 until 30) {
+            writer.writeSample(i * 100_000L, 1.0, 2.0, intArrayOf(i), 1)
+        }
+        // not closed, the last segment is only flushed
+        writer.flush()
+
+        val segments = SessionManifest.read(directory)
+        assertEquals(3, segments.size)
+        assertEquals(Long.MAX_VALUE, segments[2].lastTimestampNanos)
+        assertEquals(30, readAll().size)
+    }
+}
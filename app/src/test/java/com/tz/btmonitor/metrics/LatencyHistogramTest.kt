@@ -0,0 +1,67 @@
+package com.tz.btmonitor.metrics
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class LatencyHistogramTest {
+
+    @Test
+    fun bucketsCoverEveryValue() {
+        var previous = -1
+        for (value in longArrayOf(0, 1, 7, 8, 15, 16, 17, 100, 1_000, 1_000_000, 1L shl 40, Long.MAX_VALUE)) {
+            val bucket = LatencyHistogram.bucketOf(value)
+            assertTrue(bucket >= previous)
+            if (value < (1L shl 41)) assertTrue(LatencyHistogram.bucketUpperBound(bucket) >= value)
+            previous = bucket
+        }
+    }
+
+    @Test
+    fun percentilesWithinBucketPrecision() {
+        val histogram = LatencyHistogram("test")
+        for (i in 1..1000) histogram.record(i * 1_000L)
+
+        assertEquals(1000, histogram.count)
+        assertEquals(1_000_000L, histogram.maxNanos)
+        assertEquals(500_500.0, histogram.meanNanos, 0.1)
+        val p50 = histogram.getPercentileNanos(50.0)
+        assertTrue("p50 $p50", p50 in 500_000L..570_000L)
+        val p99 = histogram.getPercentileNanos(99.0)
+        assertTrue("p99 $p99", p99 in 990_000L..1_000_000L)
+    }
+
+    @Test
+    fun recordsConcurrently() {
+        val histogram = LatencyHistogram("test")
+        val threads = (1..4).map {
+            Thread { for (i in 0 until 100_000) histogram.record(i.toLong()) }
+        }
+        threads.forEach { it.start() }
+        threads.forEach { it.join() }
+
+        assertEquals(400_000, histogram.count)
+        assertEquals(99_999L, histogram.maxNanos)
+    }
+
+    @Test
+    fun metricsComputeRatesAndReadToUi() {
+        val metrics = AcquisitionMetrics()
+        val before = metrics.snapshot()
+        metrics.onBytesRead(2048)
+        metrics.onFrameRead()
+        metrics.onSampleAwaitingUi(System.nanoTime() - 5_000_000)
+        metrics.onSampleAwaitingUi(System.nanoTime())
+        metrics.onUiPublished()
+        metrics.onSamplesDropped(1)
+        Thread.sleep(10)
+        val after = metrics.snapshot()
+
+        assertEquals(2048, after.bytesRead)
+        assertTrue(after.bytesPerSecond(before) > 0)
+        assertEquals(1, after.droppedSamples)
+        // the oldest waiting sample counts
+        assertEquals(1, metrics.readToUi.count)
+        assertTrue(metrics.readToUi.maxNanos >= 5_000_000)
+    }
+}
@@ -0,0 +1,126 @@
+package com.tz.btmonitor.model
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class ChannelConfigRepositoryTest {
+
+    private class MemoryStorage : ChannelConfigRepository.Storage {
+        val blobs = ConcurrentHashMap<String, String>()
+        val loads = AtomicInteger()
+        val batches = CopyOnWriteArrayList<Map<String, String>>()
+
+        override fun load(deviceAddress: String): String? {
+            loads.incrementAndGet()
+            return blobs[deviceAddress]
+        }
+
+        override fun save(blobs: Map<String, String>) {
+            batches.add(HashMap(blobs))
+            this.blobs.putAll(blobs)
+        }
+    }
+
+    private val storage = MemoryStorage()
+    private val repository = ChannelConfigRepository(storage, 50)
+
+    @After
+    fun tearDown() {
+        repository.close()
+    }
+
+    private fun channel(id: Int, min: Int, max: Int, d: Int) = Channel().apply {
+        this.id = id
+        this.min = min
+        this.max = max
+        this.d = d
+    }
+
+    @Test
+    fun encodesAndDecodesEveryField() {
+        val config = mapOf(1 to channel(1, 100, 20000, 7), 12 to channel(12, -5, 300, 0))
+        val decoded = ChannelConfigRepository.decode(ChannelConfigRepository.encode(config))
+
+        assertEquals(config.keys, decoded.keys)
+        for ((id, expected) in config) {
+            assertEquals(expected.toString(), decoded[id].toString())
+        }
+    }
+
+    @Test
+    fun skipsMalformedEntries() {
+        val decoded = ChannelConfigRepository.decode("1,100,200,3;x,1,2,3;4,5;6,1,2,3")
+        assertEquals(setOf(1, 6), decoded.keys)
+        assertTrue(ChannelConfigRepository.decode(null).isEmpty())
+    }
+
+    @Test
+    fun loadsEachDeviceOnce() {
+        storage.blobs["a"] = "1,100,200,3"
+        repeat(10) { repository.get("a") }
+
+        assertEquals(1, storage.loads.get())
+        assertEquals(3, repository.get("a")[1]!!.d)
+    }
+
+    @Test
+    fun handsOutCopies() {
+        repository.putChannel("a", channel(1, 100, 200, 3))
+        repository.get("a")[1]!!.d = 99
+
+        assertEquals(3, repository.get("a")[1]!!.d)
+    }
+
+    @Test
+    fun batchesWritesOfSeveralDevices() {
+        for (d in 0 until 20) repository.putChannel("a", channel(1, 100, 200, d))
+        repository.putChannel("b", channel(2, 100, 200, 1))
+        Thread.sleep(200)
+
+        assertEquals(1, storage.batches.size)
+        assertEquals(setOf("a", "b"), storage.batches[0].keys)
+        assertEquals("1,100,200,19", storage.blobs["a"])
+    }
+
+    @Test
+    fun deviceConfigKeepsSavedRange() {
+        repository.putChannel("a", channel(1, 50, 500, 3))
+        val merged = repository.mergeDeviceConfig("a", mapOf(1 to channel(1, 0, 0, 8), 2 to channel(2, 100, 20000, 4)))
+
+        assertEquals(setOf(1, 2), merged.keys)
+        assertEquals(50, merged[1]!!.min)
+        assertEquals(500, merged[1]!!.max)
+        assertEquals(8, merged[1]!!.d)
+        assertEquals(4, merged[2]!!.d)
+    }
+
+    @Test
+    fun closeWritesPendingChanges() {
+        repository.putChannel("a", channel(1, 100, 200, 3))
+        repository.close()
+
+        assertEquals("1,100,200,3", storage.blobs["a"])
+    }
+
+    @Test
+    fun loadsOffTheCallingThread() {
+        storage.blobs["a"] = "1,100,200,3"
+        val loaded = CountDownLatch(1)
+        var loadedOn: Thread? = null
+        repository.load("a", Executor { it.run() }) {
+            loadedOn = Thread.currentThread()
+            loaded.countDown()
+        }
+
+        assertTrue(loaded.await(1, TimeUnit.SECONDS))
+        assertTrue(loadedOn != Thread.currentThread())
+    }
+}
@@ -0,0 +1,95 @@
+package com.tz.btmonitor.model
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Random
+
+class ChannelDecimatorTest {
+
+    private val history = ChannelHistory(1, 1 shl 14)
+    private val sample = IntArray(1)
+    private var time = 0L
+
+    // 100Hz samples from time 0 on
+    private fun append(value: Int) {
+        sample[0] = value
+        history.append(time, sample, 1)
+        time += STEP_NANOS
+    }
+
+    private fun points(decimator: ChannelDecimator) = decimator.values.copyOf(decimator.count)
+
+    private fun times(decimator: ChannelDecimator) = decimator.timestamps.copyOf(decimator.count)
+
+    @Test
+    fun minMaxKeepsEveryPeak() {
+        repeat(6000) { append(if (it == 1234) 5000 else if (it == 4321) -5000 else it % 10) }
+        val decimator = ChannelDecimator(ChannelDecimator.Mode.MIN_MAX, 20)
+
+        val count = decimator.update(history, 0, WINDOW_NANOS, time)
+
+        assertTrue(count <= 20)
+        assertTrue(points(decimator).contains(5000))
+        assertTrue(points(decimator).contains(-5000))
+        assertEquals(6000L, decimator.samplesFolded)
+    }
+
+    @Test
+    fun lttbKeepsFirstLastAndPeak() {
+        repeat(6000) { append(if (it == 3000) 9000 else 100) }
+        val decimator = ChannelDecimator(ChannelDecimator.Mode.LTTB, 12)
+
+        val count = decimator.update(history, 0, WINDOW_NANOS, time)
+
+        assertTrue(count <= 12)
+        assertEquals(0L, decimator.timestamps[0])
+        assertEquals(5999 * STEP_NANOS, decimator.timestamps[count - 1])
+        assertTrue(points(decimator).contains(9000))
+    }
+
+    @Test
+    fun incrementalUpdatesMatchDecimatingFromScratch() {
+        for (mode in ChannelDecimator.Mode.values()) {
+            val incremental = ChannelDecimator(mode, 50)
+            val random = Random(1)
+            repeat(20) {
+                repeat(500) { append(random.nextInt(1000)) }
+                incremental.update(history, 0, WINDOW_NANOS / 4, time)
+
+                val scratch = ChannelDecimator(mode, 50)
+                scratch.update(history, 0, WINDOW_NANOS / 4, time)
+                assertArrayEquals(times(scratch), times(incremental))
+                assertArrayEquals(points(scratch), points(incremental))
+                val timestamps = times(incremental)
+                assertTrue((1 until timestamps.size).all { timestamps[it] > timestamps[it - 1] })
+            }
+        }
+    }
+
+    @Test
+    fun leavesSamplesAfterWindowForLaterAndDropsOldBuckets() {
+        repeat(1000) { append(it) }
+        val decimator = ChannelDecimator(ChannelDecimator.Mode.MIN_MAX, 10)
+
+        decimator.update(history, 0, WINDOW_NANOS, 500 * STEP_NANOS)
+        assertEquals(499, decimator.values[decimator.count - 1])
+        decimator.update(history, 0, WINDOW_NANOS, time)
+        assertEquals(999, decimator.values[decimator.count - 1])
+        assertEquals(1000L, decimator.samplesFolded)
+
+        // nothing new for longer than the window
+        assertEquals(0, decimator.update(history, 0, WINDOW_NANOS, time + 2 * WINDOW_NANOS))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun rejectsLttbWithoutInnerBucket() {
+        ChannelDecimator(ChannelDecimator.Mode.LTTB, 2)
+    }
+
+    companion object {
+        private const val STEP_NANOS = 10_000_000L
+        private const val WINDOW_NANOS = 60_000_000_000L
+    }
+}
@@ -0,0 +1,84 @@
+package com.tz.btmonitor.model
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class ChannelHistoryTest {
+
+    private val history = ChannelHistory(3, 6)
+    private val window = ChannelHistory.Window(4)
+
+    // sample i at i * 10ns: channel 0 = i, channel 1 = -i, channel 2 = 100 + i, every fifth sample has channel 0 only
+    private fun append(samples: Int) {
+        val sample = IntArray(3)
+        for (i in 0 until samples) {
+            sample[0] = i
+            sample[1] = -i
+            sample[2] = 100 + i
+            history.append(i * 10L, sample, if (i % 5 == 0) 1 else 3)
+        }
+    }
+
+    private fun values() = window.values.copyOf(window.count)
+
+    @Test
+    fun sizesMemoryByChannelsAndCapacity() {
+        assertEquals(8, history.capacity)
+        assertEquals(8L * 8 + 3 * 8 * 4, ChannelHistory.bytesFor(3, 6))
+        assertEquals(0, history.readLatest(0, window))
+    }
+
+    @Test
+    fun readsNewestSamplesOfChannel() {
+        append(20)
+
+        assertEquals(4, history.readLatest(2, window))
+        assertEquals(16L, window.firstSequence)
+        assertArrayEquals(intArrayOf(116, 117, 118, 119), values())
+        assertArrayEquals(longArrayOf(160, 170, 180, 190), window.timestamps)
+    }
+
+    @Test
+    fun skipsOverwrittenSamples() {
+        append(20)
+
+        // the oldest slot is left to the writer
+        assertEquals(4, history.read(0, 0, 100, window))
+        assertEquals(13L, window.firstSequence)
+        assertArrayEquals(intArrayOf(13, 14, 15, 16), values())
+    }
+
+    @Test
+    fun readsTimeRangeAndRepeatsMissingChannels() {
+        append(20)
+
+        assertEquals(3, history.readTimeRange(1, 145, 175, window))
+        assertEquals(15L, window.firstSequence)
+        // sample 15 has no value for channel 1
+        assertArrayEquals(intArrayOf(-14, -16, -17), values())
+        assertEquals(20L, history.sequenceAt(1000))
+    }
+
+    @Test
+    fun readersNeverSeeTornSamples() {
+        val concurrent = ChannelHistory(2, 64)
+        val writer = Thread {
+            val sample = IntArray(2)
+            for (i in 0 until 1_000_000) {
+                sample[0] = i
+                sample[1] = i * 2
+                concurrent.append(i.toLong(), sample, 2)
+            }
+        }
+        writer.start()
+        val latest = ChannelHistory.Window(64)
+        while (writer.isAlive) {
+            concurrent.readLatest(1, latest)
+            for (i in 0 until latest.count) {
+                assertEquals(latest.firstSequence + i, latest.timestamps[i])
+                assertEquals(latest.timestamps[i] * 2, latest.values[i].toLong())
+            }
+        }
+    }
+}
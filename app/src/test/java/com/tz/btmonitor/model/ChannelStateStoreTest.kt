@@ -0,0 +1,81 @@
+package com.tz.btmonitor.model
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.BitSet
+
+class ChannelStateStoreTest {
+
+    private fun channel(id: Int, d: Int = 10): Channel {
+        val channel = Channel()
+        channel.id = id
+        channel.min = 100
+        channel.max = 20000
+        channel.d = d
+        return channel
+    }
+
+    private fun storeWith(vararg ids: Int): ChannelStateStore {
+        val store = ChannelStateStore(16)
+        store.setConfig(ids.associateWith { channel(it) })
+        return store
+    }
+
+    @Test
+    fun snapshotIsNotAffectedByLaterUpdates() {
+        val store = storeWith(2, 0, 1)
+        store.updateValues(intArrayOf(5, 6, 7), 3)
+        val snapshot = store.snapshot()
+        store.updateValues(intArrayOf(8, 9, 10), 3)
+
+        assertEquals(3, snapshot.size())
+        assertEquals(0, snapshot.getId(0))
+        assertEquals(7, snapshot.getValue(snapshot.indexOf(2)))
+        assertEquals(10, store.snapshot().getValue(2))
+        assertTrue(store.snapshot().version > snapshot.version)
+    }
+
+    @Test
+    fun snapshotsShareConfigUntilItChanges() {
+        val store = storeWith(0, 1)
+        val first = store.snapshot()
+        store.updateValues(intArrayOf(1, 2), 2)
+        val second = store.snapshot()
+        store.updateChannelConfig(channel(1, d = 99))
+        val third = store.snapshot()
+
+        assertEquals(10, second.getD(1))
+        assertEquals(99, third.getD(1))
+        assertEquals(10, first.getD(1))
+        assertTrue(first.sharesConfigWith(second))
+        assertFalse(second.sharesConfigWith(third))
+    }
+
+    @Test
+    fun collectsOnlyChangedChannels() {
+        val store = storeWith(0, 1, 2)
+        val changed = BitSet()
+        var seen = store.collectChangedSince(0, changed)
+        assertEquals(3, changed.cardinality())
+
+        store.updateValues(intArrayOf(0, 4, 0), 3)
+        seen = store.collectChangedSince(seen, changed)
+        assertEquals(BitSet().apply { set(1) }, changed)
+
+        store.updateValues(intArrayOf(0, 4, 0), 3)
+        store.collectChangedSince(seen, changed)
+        assertTrue(changed.isEmpty)
+    }
+
+    @Test
+    fun ignoresUnknownChannels() {
+        val store = storeWith(0)
+
+        assertFalse(store.updateChannelConfig(channel(5)))
+        assertNull(store.getChannel(5))
+        assertEquals(0, store.updateValues(intArrayOf(), 0))
+    }
+}
@@ -0,0 +1,68 @@
+package com.tz.btmonitor.model
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class LocationTrackTest {
+
+    private val track = LocationTrack(4, 1_000L)
+    private val position = LatLng()
+
+    private fun assertPosition(lat: Double, lng: Double, timeNanos: Long) {
+        assertTrue(track.positionAt(timeNanos, position))
+        assertEquals(lat, position.lat, 1e-9)
+        assertEquals(lng, position.lng, 1e-9)
+    }
+
+    @Test
+    fun leavesPositionAloneWithoutFix() {
+        position.lat = 1.0
+        assertFalse(track.positionAt(0, position))
+        assertEquals(1.0, position.lat, 0.0)
+    }
+
+    @Test
+    fun interpolatesBetweenFixes() {
+        track.addFix(1_000, 10.0, 20.0)
+        track.addFix(2_000, 12.0, 18.0)
+        track.addFix(4_000, 12.0, 22.0)
+
+        assertPosition(11.0, 19.0, 1_500)
+        assertPosition(12.0, 18.0, 2_000)
+        assertPosition(12.0, 21.0, 3_500)
+        // before the oldest fix
+        assertPosition(10.0, 20.0, 0)
+    }
+
+    @Test
+    fun extrapolatesThenHolds() {
+        track.addFix(1_000, 10.0, 20.0)
+        track.addFix(2_000, 11.0, 20.0)
+
+        assertPosition(11.5, 20.0, 2_500)
+        assertPosition(12.0, 20.0, 3_000)
+        assertPosition(12.0, 20.0, 60_000)
+    }
+
+    @Test
+    fun keepsNewestFixesInOrder() {
+        for (i in 0 until 10) track.addFix(i * 1_000L, i.toDouble(), 0.0)
+        // out of order, dropped
+        track.addFix(8_500, 100.0, 0.0)
+
+        assertEquals(4, track.size())
+        assertPosition(6.0, 0.0, 0)
+        assertPosition(8.5, 0.0, 8_500)
+    }
+
+    @Test
+    fun replacesFixOfSameTime() {
+        track.addFix(1_000, 10.0, 20.0)
+        track.addFix(1_000, 11.0, 21.0)
+
+        assertEquals(1, track.size())
+        assertPosition(11.0, 21.0, 5_000)
+    }
+}
@@ -0,0 +1,119 @@
+package com.tz.btmonitor.pipeline
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class AcquisitionPipelineTest {
+
+    // hands out small chunks to exercise framing across reads
+    private class ChunkedInputStream(data: ByteArray, private val chunkSize: Int) : InputStream() {
+        private val source = ByteArrayInputStream(data)
+
+        override fun read(): Int = source.read()
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int =
+            source.read(b, off, minOf(len, chunkSize))
+    }
+
+    private class RecordingListener : AcquisitionPipeline.Listener {
+        val messages: MutableList<String> = Collections.synchronizedList(mutableListOf())
+        val errors: MutableList<IOException> = Collections.synchronizedList(mutableListOf())
+        val stopped = CountDownLatch(1)
+
+        override fun onMessage(message: String) {
+            messages.add(message)
+        }
+
+        override fun onError(e: IOException) {
+            errors.add(e)
+        }
+
+        override fun onStopped() {
+            stopped.countDown()
+        }
+    }
+
+    @Test
+    fun deliversEverySampleInOrderThroughASmallQueue() {
+        val sampleCount = 5000
+        val input = buildString {
+            append("CH=2,D0=1,D1=2\n")
+            for (i in 0 until sampleCount) append("VALUES: ").append(i).append(',').append(-i).append("\r\n")
+            append("VALUES: 1,,2\n")
+        }
+        val listener = RecordingListener()
+        val pipeline = AcquisitionPipeline(
+            ChunkedInputStream(input.toByteArray(Charsets.US_ASCII), 7), listener, 4, 64, 8
+        )
+        val received = mutableListOf<Int>()
+        pipeline.addSink { values, count, _ ->
+            assertEquals(2, count)
+            assertEquals(values[0], -values[1])
+            received.add(values[0])
+        }
+
+        pipeline.start()
+        assertTrue(listener.stopped.await(10, TimeUnit.SECONDS))
+
+        assertEquals((0 until sampleCount).toList(), received)
+        assertEquals(listOf("CH=2,D0=1,D1=2"), listener.messages)
+        assertEquals(1, pipeline.malformedFrames)
+        assertEquals(sampleCount.toLong(), pipeline.samplesProcessed)
+        assertTrue(pipeline.maxQueueDepth <= pipeline.queueCapacity)
+        // the stream ending is reported like a dropped connection
+        assertEquals(1, listener.errors.size)
+        assertFalse(pipeline.isRunning)
+    }
+
+    // a slow sink behind a tiny queue, every policy but BLOCK has to give samples up
+    private fun runOverloaded(policy: AcquisitionPipeline.IngestPolicy): Triple<AcquisitionPipeline, List<Int>, List<String>> {
+        val input = buildString {
+            for (i in 0 until 3000) {
+                append("VALUES:").append(i).append(',').append(i).append('\n')
+                if (i % 500 == 0) append("CH=2,D0=").append(i).append('\n')
+            }
+        }
+        val listener = RecordingListener()
+        val pipeline = AcquisitionPipeline(
+            ByteArrayInputStream(input.toByteArray(Charsets.US_ASCII)), listener, 4, 64, 8, policy
+        )
+        val received = Collections.synchronizedList(mutableListOf<Int>())
+        pipeline.addSink { values, _, _ ->
+            // a torn frame would show different values
+            assertEquals(values[0], values[1])
+            received.add(values[0])
+            Thread.sleep(0, 20_000)
+        }
+        pipeline.start()
+        assertTrue(listener.stopped.await(30, TimeUnit.SECONDS))
+        return Triple(pipeline, received, listener.messages)
+    }
+
+    @Test
+    fun overloadPoliciesAccountForEverySample() {
+        for (policy in AcquisitionPipeline.IngestPolicy.values()) {
+            val (pipeline, received, messages) = runOverloaded(policy)
+
+            assertEquals(policy.name, 3000L, received.size + pipeline.droppedSamples + pipeline.conflatedSamples)
+            assertEquals(policy.name, received.sorted(), received)
+            // config replies are never given up
+            assertEquals(policy.name, 6, messages.size)
+            when (policy) {
+                AcquisitionPipeline.IngestPolicy.BLOCK -> assertEquals(3000, received.size)
+                AcquisitionPipeline.IngestPolicy.DROP_NEWEST -> assertEquals(0L, pipeline.conflatedSamples)
+                else -> {
+                    // the latest sample always makes it
+                    assertEquals(policy.name, 2999, received.last())
+                }
+            }
+        }
+    }
+}
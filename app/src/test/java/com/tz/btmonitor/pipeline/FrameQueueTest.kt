@@ -0,0 +1,43 @@
+package com.tz.btmonitor.pipeline
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class FrameQueueTest {
+
+    private val queue = FrameQueue(2, 16, true)
+
+    private fun frame(text: String) = text.toByteArray(Charsets.US_ASCII)
+
+    private fun drained(): List<String> {
+        val frames = mutableListOf<String>()
+        queue.drain({ frame, length, _ -> frames.add(String(frame, 0, length, Charsets.US_ASCII)) }, 16)
+        return frames
+    }
+
+    @Test
+    fun putKeepsFrameDroppable() {
+        val sample = frame("VALUES: 1")
+        assertTrue(queue.put(sample, 0, sample.size, 1, true))
+        val config = frame("CH=1")
+        assertTrue(queue.put(config, 0, config.size, 2))
+
+        val next = frame("VALUES: 2")
+        assertTrue(queue.offerDroppingOldest(next, 0, next.size, 3, true))
+        assertEquals(1L, queue.droppedOldest)
+        assertEquals(listOf("CH=1", "VALUES: 2"), drained())
+    }
+
+    @Test
+    fun neverDropsFramePutAsNotDroppable() {
+        val config = frame("CH=1")
+        queue.put(config, 0, config.size, 1)
+        queue.put(config, 0, config.size, 2)
+
+        val sample = frame("VALUES: 1")
+        assertFalse(queue.offerDroppingOldest(sample, 0, sample.size, 3, true))
+        assertEquals(0L, queue.droppedOldest)
+    }
+}
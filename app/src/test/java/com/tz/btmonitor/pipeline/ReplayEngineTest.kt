@@ -0,0 +1,117 @@
+package com.tz.btmonitor.pipeline
+
+import com.tz.btmonitor.bluetooth.BluetoothClientManager
+import com.tz.btmonitor.bluetooth.DiscoveryIndex
+import com.tz.btmonitor.file_writer.BinaryRecordingReader
+import com.tz.btmonitor.file_writer.BinaryRecordingWriter
+import com.tz.btmonitor.model.Channel
+import com.tz.btmonitor.model.ChannelStateStore
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.util.concurrent.Executors
+
+class ReplayEngineTest {
+
+    private class MessageCallback : BluetoothClientManager.Callback {
+        val messages = mutableListOf<String>()
+
+        override fun onDevicesChanged(changes: DiscoveryIndex.Changes) {}
+        override fun onDiscoveryStarted() {}
+        override fun onDiscoveryFinished() {}
+        override fun onBluetoothEnabled() {}
+        override fun onBluetoothDisabled() {}
+        override fun onDeviceConnected() {}
+        override fun onDeviceDisconnected() {}
+        override fun onDeviceReconnecting(attempt: Int, delayMillis: Long) {}
+        override fun onDeviceReconnected(recoverNanos: Long) {}
+
+        override fun onNewMessageReceived(message: String) {
+            synchronized(this) { messages.add(message) }
+        }
+    }
+
+    // 200 samples 1ms apart, the config changes after 100
+    private fun recording(): BinaryRecordingReader {
+        val out = ByteArrayOutputStream()
+        val writer = BinaryRecordingWriter(out, 0L, 32)
+        val store = ChannelStateStore(8)
+        for (i in 0 until 200) {
+            if (i % 100 == 0) {
+                store.setConfig(mapOf(1 to Channel().apply {
+                    id = 1
+                    d = i
+                }))
+                writer.writeConfig(store.snapshot())
+            }
+            writer.writeSample(i * 1_000_000L, 0.0, 0.0, intArrayOf(i), 1)
+        }
+        writer.close()
+        return BinaryRecordingReader(ByteArrayInputStream(out.toByteArray()))
+    }
+
+    @Test
+    fun replaysConfigAndSamplesAsFastAsPossible() {
+        val callback = MessageCallback()
+        val received = mutableListOf<Int>()
+        val engine = ReplayEngine(recording(), callback, { it.run() }, ReplayEngine.AS_FAST_AS_POSSIBLE)
+        engine.addSink { values, count, _ ->
+            assertEquals(1, count)
+            received.add(values[0])
+        }
+
+        val report = engine.run()
+
+        assertEquals((0 until 200).toList(), received)
+        assertEquals(listOf("CH=1,D1=0", "CH=1,D1=100"), callback.messages)
+        assertEquals(200L, report.samples)
+        assertEquals(2L, report.configMessages)
+        assertEquals(199_000_000L, report.recordedNanos)
+        assertTrue(report.samplesPerSecond > 0)
+    }
+
+    @Test
+    fun samplesFollowTheirConfigOnAnotherThread() {
+        val callback = MessageCallback()
+        val main = Executors.newSingleThreadExecutor()
+        val seen = mutableListOf<String?>()
+        // the callback runs late on its own thread, like a busy main thread
+        val engine = ReplayEngine(recording(), callback, {
+            main.execute {
+                Thread.sleep(20)
+                it.run()
+            }
+        }, ReplayEngine.AS_FAST_AS_POSSIBLE)
+        engine.addSink { _, _, _ -> seen.add(synchronized(callback) { callback.messages.lastOrNull() }) }
+
+        engine.run()
+        main.shutdown()
+
+        assertEquals(List(100) { "CH=1,D1=0" } + List(100) { "CH=1,D1=100" }, seen)
+    }
+
+    @Test
+    fun pacesAtRequestedSpeed() {
+        // 199ms of recording at 4x
+        val engine = ReplayEngine(recording(), MessageCallback(), { it.run() }, 4.0)
+
+        val report = engine.run()
+
+        assertEquals(200L, report.samples)
+        assertTrue(report.elapsedNanos >= 199_000_000L / 4)
+        assertTrue(report.achievedSpeed <= 4.1)
+    }
+
+    @Test
+    fun stopEndsReplay() {
+        val engine = ReplayEngine(recording(), MessageCallback(), { it.run() }, ReplayEngine.REAL_TIME)
+        engine.addSink { _, _, _ -> if (engine.samplesEmitted == 10L) engine.stop() }
+
+        val report = engine.run()
+
+        assertTrue(report.stopped)
+        assertTrue(report.samples < 200)
+    }
+}
@@ -0,0 +1,187 @@
+package com.tz.btmonitor.session
+
+import com.tz.btmonitor.bluetooth.ReconnectPolicy
+import com.tz.btmonitor.bluetooth.SimulatedDevice
+import com.tz.btmonitor.file_writer.RecordedSample
+import com.tz.btmonitor.file_writer.SegmentedRecordingReader
+import com.tz.btmonitor.file_writer.SegmentedRecordingWriter
+import com.tz.btmonitor.model.Channel
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicInteger
+
+class SessionManagerTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val configChanges = AtomicInteger()
+    private val manager = SessionManager(256, Executor { it.run() }, object : SessionManager.Listener {
+        override fun onSessionsChanged() {}
+
+        override fun onStateChanged(session: DeviceSession, state: DeviceSession.State) {}
+
+        override fun onConfigChanged(session: DeviceSession) {
+            configChanges.incrementAndGet()
+        }
+
+        override fun onSample(session: DeviceSession) {}
+    })
+
+    @After
+    fun tearDown() {
+        manager.removeAll()
+    }
+
+    // fails the test once the deadline passed, however loaded the machine
+    private fun awaitCondition(what: String, condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + 5000
+        while (!condition() && System.currentTimeMillis() < deadline) Thread.sleep(10)
+        assertTrue("Timed out waiting for $what", condition())
+    }
+
+    private fun awaitState(session: DeviceSession, state: DeviceSession.State) {
+        awaitCondition("$state") { session.state == state }
+    }
+
+    private fun samplesOf(session: DeviceSession) = session.metrics.snapshot().samples
+
+    @Test
+    fun sessionsAcquireIndependently() {
+        val devices = (0 until 3).map { SimulatedDevice(4 + it, 500.0, 100, it.toLong()) }
+        val sessions = devices.mapIndexed { i, device ->
+            manager.createSession("device$i", "Device $i", device.createTransport())!!
+        }
+        sessions.forEach { it.connect() }
+        sessions.forEach { awaitState(it, DeviceSession.State.CONNECTED) }
+        sessions.forEach { session -> awaitCondition("samples") { samplesOf(session) > 50 } }
+        awaitCondition("configs") { configChanges.get() == 3 }
+
+        sessions.forEachIndexed { i, session ->
+            // GET_CFG on connect configures the channels of that device only
+            assertEquals(4 + i, session.channels.size())
+        }
+        assertEquals(3, manager.connectedCount)
+    }
+
+    @Test
+    fun refusesSecondSessionOfConnectedDevice() {
+        val device = SimulatedDevice(2, 100.0, 0, 1L)
+        val session = manager.createSession("device", "Device", device.createTransport())!!
+        session.connect()
+        awaitState(session, DeviceSession.State.CONNECTED)
+
+        assertNull(manager.createSession("device", "Device", device.createTransport()))
+        assertEquals(1, manager.sessions.size)
+    }
+
+    @Test
+    fun refusesSessionOfReservedDevice() {
+        val device = SimulatedDevice(2, 100.0, 0, 1L)
+        assertTrue(manager.reserve("device"))
+        assertNull(manager.createSession("device", "Device", device.createTransport()))
+
+        manager.release("device")
+        val session = manager.createSession("device", "Device", device.createTransport())!!
+        session.connect()
+        awaitState(session, DeviceSession.State.CONNECTED)
+        assertFalse(manager.reserve("device"))
+    }
+
+    @Test
+    fun channelUpdateReachesOnlyItsDevice() {
+        val first = SimulatedDevice(2, 100.0, 0, 1L)
+        val second = SimulatedDevice(2, 100.0, 0, 2L)
+        val a = manager.createSession("a", "A", first.createTransport())!!
+        val b = manager.createSession("b", "B", second.createTransport())!!
+        a.connect()
+        b.connect()
+        awaitState(a, DeviceSession.State.CONNECTED)
+        awaitState(b, DeviceSession.State.CONNECTED)
+        awaitCondition("config of a") { a.channels.size() > 0 }
+
+        val channel = Channel().apply { id = 1; min = 100; max = 20000; d = 7 }
+        assertTrue(a.updateChannel(channel))
+        awaitCondition("SET_CFG on the device") { first.getD(1) == 7 }
+
+        assertEquals(7, first.getD(1))
+        assertEquals(0, second.getD(1))
+    }
+
+    @Test
+    fun recordsEachSessionSeparately() {
+        val directories = (0 until 2).map { folder.newFolder("session$it") }
+        val sessions = directories.mapIndexed { i, directory ->
+            manager.createSession("device$i", "Device $i", SimulatedDevice(3, 200.0, 0, i.toLong()).createTransport())!!
+                .apply { setRecorder(SegmentedRecordingWriter(directory, SegmentedRecordingWriter.NO_LIMIT, SegmentedRecordingWriter.NO_LIMIT, true)) }
+        }
+        sessions.forEach { it.connect() }
+        sessions.forEach { session -> awaitCondition("samples") { samplesOf(session) > 10 } }
+        manager.removeAll()
+
+        directories.forEachIndexed { i, directory ->
+            var samples = 0L
+            SegmentedRecordingReader(directory).use { reader ->
+                val sample = RecordedSample()
+                while (reader.next(sample)) {
+                    assertEquals(3, sample.count)
+                    samples++
+                }
+            }
+            assertTrue(samples > 0)
+            // frames still queued when the session closed are counted but not recorded
+            assertTrue(samples <= sessions[i].metrics.snapshot().samples)
+        }
+    }
+
+    @Test
+    fun reconnectsAndContinuesRecordingAfterGap() {
+        manager.setReconnectPolicy(ReconnectPolicy(20, 100, 2.0, 0.0, ReconnectPolicy.UNLIMITED_ATTEMPTS))
+        val directory = folder.newFolder("reconnect")
+        val device = SimulatedDevice(3, 200.0, 0, 1L)
+        val session = manager.createSession("device", "Device", device.createTransport())!!
+        session.setRecorder(SegmentedRecordingWriter(directory, SegmentedRecordingWriter.NO_LIMIT, SegmentedRecordingWriter.NO_LIMIT, true))
+        session.connect()
+        awaitState(session, DeviceSession.State.CONNECTED)
+        awaitCondition("config") { session.channels.size() > 0 }
+
+        device.setReachable(false)
+        device.dropConnection()
+        awaitState(session, DeviceSession.State.RECONNECTING)
+        // queued until the device is back
+        session.sendMessage("SET_CFG D1=5")
+        device.setReachable(true)
+        awaitState(session, DeviceSession.State.CONNECTED)
+        val samplesBeforeGap = samplesOf(session)
+        awaitCondition("queued SET_CFG") { device.getD(1) == 5 }
+        awaitCondition("samples after the gap") { samplesOf(session) > samplesBeforeGap + 10 }
+        // the device may have changed while away, its config is asked for again
+        awaitCondition("config after reconnect") { configChanges.get() == 2 }
+        manager.removeAll()
+
+        assertEquals(5, device.getD(1))
+        assertEquals(3, session.channels.size())
+        // the answer to GET_CFG holds the SET_CFG sent while away
+        assertEquals(5, session.channels.snapshot().let { it.getD(it.indexOf(1)) })
+        assertEquals(1, session.metrics.snapshot().connectionsLost)
+        assertEquals(1, session.metrics.timeToRecover.count)
+
+        var gaps = 0
+        var samplesAfterGap = 0
+        SegmentedRecordingReader(directory).use { reader ->
+            val sample = RecordedSample()
+            while (reader.next(sample)) {
+                if (sample.gapNanos > 0) gaps++
+                if (gaps > 0) samplesAfterGap++
+            }
+        }
+        assertEquals(1, gaps)
+        assertTrue(samplesAfterGap > 0)
+    }
+}
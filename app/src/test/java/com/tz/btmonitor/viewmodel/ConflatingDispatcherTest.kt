@@ -0,0 +1,76 @@
+package com.tz.btmonitor.viewmodel
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class ConflatingDispatcherTest {
+
+    // runs scheduled tasks only when asked, like a frame tick
+    private class ManualScheduler : ConflatingDispatcher.Scheduler {
+        val tasks = mutableListOf<Runnable>()
+        val delays = mutableListOf<Long>()
+
+        override fun schedule(task: Runnable, delayMillis: Long) {
+            tasks.add(task)
+            delays.add(delayMillis)
+        }
+
+        fun runAll() {
+            val current = tasks.toList()
+            tasks.clear()
+            current.forEach { it.run() }
+        }
+    }
+
+    @Test
+    fun collapsesSignalsBetweenTicks() {
+        val scheduler = ManualScheduler()
+        var delivered = 0
+        val dispatcher = ConflatingDispatcher(scheduler) { delivered++ }
+
+        repeat(100) { dispatcher.signal() }
+        assertEquals(1, scheduler.tasks.size)
+        scheduler.runAll()
+
+        repeat(5) { dispatcher.signal() }
+        scheduler.runAll()
+
+        assertEquals(2, delivered)
+        assertEquals(105, dispatcher.signals)
+        assertEquals(2, dispatcher.deliveries)
+        assertEquals(103, dispatcher.conflated)
+    }
+
+    @Test
+    fun signalDuringDeliverySchedulesAnotherOne() {
+        val scheduler = ManualScheduler()
+        lateinit var dispatcher: ConflatingDispatcher
+        var delivered = 0
+        dispatcher = ConflatingDispatcher(scheduler) {
+            delivered++
+            if (delivered == 1) dispatcher.signal()
+        }
+
+        dispatcher.signal()
+        scheduler.runAll()
+        assertEquals(1, scheduler.tasks.size)
+        scheduler.runAll()
+
+        assertEquals(2, delivered)
+    }
+
+    @Test
+    fun spacesDeliveriesByMaxRate() {
+        val scheduler = ManualScheduler()
+        val dispatcher = ConflatingDispatcher(scheduler) {}
+        dispatcher.setMaxRateHz(10)
+
+        dispatcher.signal()
+        scheduler.runAll()
+        dispatcher.signal()
+
+        // right after a delivery the next one waits for most of the 100ms slot
+        assertEquals(0L, scheduler.delays[0])
+        assertEquals(true, scheduler.delays[1] in 50L..100L)
+    }
+}
@@ -0,0 +1,42 @@
+// JMH benchmarks of the receive and recording hot paths, run with ./gradlew :benchmark:jmh
+plugins {
+    java
+    id("me.champeau.jmh")
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+// the measured classes are plain java inside the android app, compile them from there
+// instead of depending on the app module
+sourceSets {
+    main {
+        java {
+            srcDir("../app/src/main/java")
+            include(
+                "com/tz/btmonitor/bluetooth/Parser.java",
+                "com/tz/btmonitor/bluetooth/FrameDecoder.java",
+                "com/tz/btmonitor/model/Channel.java",
+                "com/tz/btmonitor/model/ChannelConfig.java",
+                "com/tz/btmonitor/model/ChannelSnapshot.java",
+                "com/tz/btmonitor/model/ChannelStateStore.java",
+                "com/tz/btmonitor/file_writer/AsyncRecordingWriter.java",
+                "com/tz/btmonitor/file_writer/BinaryRecordingFormat.java",
+                "com/tz/btmonitor/file_writer/BinaryRecordingWriter.java",
+                "com/tz/btmonitor/file_writer/CsvFormat.java",
+                "com/tz/btmonitor/metrics/LatencyHistogram.java"
+            )
+        }
+    }
+}
+
+jmh {
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    // allocation rate per op next to the throughput
+    profilers.add("gc")
+    resultFormat.set("JSON")
+}
@@ -0,0 +1,76 @@
+package com.tz.btmonitor.benchmark;
+
+import com.tz.btmonitor.bluetooth.Parser;
+import com.tz.btmonitor.model.Channel;
+import com.tz.btmonitor.model.ChannelSnapshot;
+import com.tz.btmonitor.model.ChannelStateStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per sample work of the view model: parse a VALUES frame and apply it to the channel state.
+ * The UI takes a snapshot at most once per 60Hz frame, so one in rateHz / 60 samples also pays
+ * for a snapshot.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ChannelUpdateBenchmark {
+    private static final int UI_RATE_HZ = 60;
+
+    @Param({"8", "32", "128"})
+    public int channels;
+
+    @Param({"100", "1000"})
+    public int rateHz;
+
+    private byte[][] frames;
+    private final int[] values = new int[256];
+    private ChannelStateStore store;
+    private int samplesPerSnapshot;
+    private int next = 0;
+    private int sinceSnapshot = 0;
+
+    @Setup
+    public void setUp() {
+        frames = Samples.valuesFrames(channels);
+        store = new ChannelStateStore(256);
+        Map<Integer, Channel> config = new HashMap<>();
+        for (int id = 0; id < channels; id++) {
+            Channel channel = new Channel();
+            channel.setId(id);
+            channel.setMin(100);
+            channel.setMax(20000);
+            config.put(id, channel);
+        }
+        store.setConfig(config);
+        samplesPerSnapshot = Math.max(1, rateHz / UI_RATE_HZ);
+    }
+
+    @Benchmark
+    public int updateChannels() {
+        next = (next + 1) & (Samples.VARIANTS - 1);
+        byte[] frame = frames[next];
+        int count = Parser.parseValues(frame, 0, frame.length, values);
+        return store.updateValues(values, count);
+    }
+
+    @Benchmark
+    public ChannelSnapshot updateChannelsWithUi() {
+        updateChannels();
+        if (++sinceSnapshot < samplesPerSnapshot) return null;
+        sinceSnapshot = 0;
+        return store.snapshot();
+    }
+}
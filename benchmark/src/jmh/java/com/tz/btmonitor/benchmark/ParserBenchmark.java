@@ -0,0 +1,80 @@
+package com.tz.btmonitor.benchmark;
+
+import com.tz.btmonitor.bluetooth.Parser;
+import com.tz.btmonitor.model.Channel;
+import com.tz.btmonitor.model.ChannelConfig;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ParserBenchmark {
+    @Param({"8", "32", "128"})
+    public int channels;
+
+    private String[] messages;
+    private byte[][] frames;
+    private String configMessage;
+    private final int[] values = new int[256];
+    private final ChannelConfig config = new ChannelConfig();
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        messages = Samples.valuesMessages(channels);
+        frames = Samples.valuesFrames(channels);
+        configMessage = Samples.configMessage(channels);
+        // every parser has to see the whole message, or it measures an early return
+        int legacy = Parser.parseValuesMessage(messages[0]).size();
+        int text = Parser.parseValues(messages[0], values);
+        int bytes = Parser.parseValues(frames[0], 0, frames[0].length, values);
+        if (legacy != channels || text != channels || bytes != channels) {
+            throw new IllegalStateException("Parsed " + legacy + "/" + text + "/" + bytes + " of " + channels + " values");
+        }
+    }
+
+    private int nextIndex() {
+        next = (next + 1) & (Samples.VARIANTS - 1);
+        return next;
+    }
+
+    // the original split based parser
+    @Benchmark
+    public List<String> parseValuesMessage() {
+        return Parser.parseValuesMessage(messages[nextIndex()]);
+    }
+
+    @Benchmark
+    public int parseValuesText() {
+        return Parser.parseValues(messages[nextIndex()], values);
+    }
+
+    // what the acquisition pipeline runs on every frame
+    @Benchmark
+    public int parseValuesBytes() {
+        byte[] frame = frames[nextIndex()];
+        return Parser.parseValues(frame, 0, frame.length, values);
+    }
+
+    @Benchmark
+    public Map<Integer, Channel> parseConfigMessage() {
+        return Parser.parseConfigMessage(configMessage);
+    }
+
+    @Benchmark
+    public ChannelConfig parseConfigReused() {
+        return Parser.parseConfig(configMessage, config);
+    }
+}
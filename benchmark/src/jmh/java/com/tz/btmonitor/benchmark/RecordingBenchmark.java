@@ -0,0 +1,100 @@
+package com.tz.btmonitor.benchmark;
+
+import com.tz.btmonitor.file_writer.AsyncRecordingWriter;
+import com.tz.btmonitor.file_writer.BinaryRecordingWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording one sample on the acquisition thread, for the ways FileWriter can write.
+ * The rate sets the timestamp spacing, which changes the size of the binary deltas.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RecordingBenchmark {
+    private static final String LOCATION = "47.4979937,19.0403594";
+
+    @Param({"8", "32", "128"})
+    public int channels;
+
+    @Param({"100", "1000"})
+    public int rateHz;
+
+    private int[][] samples;
+    private AsyncRecordingWriter asyncWriter;
+    private BinaryRecordingWriter binaryWriter;
+    private final OutputStream sink = new NullOutputStream();
+    private long periodNanos;
+    private long timestamp = 0;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        samples = Samples.values(channels);
+        periodNanos = TimeUnit.SECONDS.toNanos(1) / rateHz;
+        asyncWriter = new AsyncRecordingWriter(sink);
+        binaryWriter = new BinaryRecordingWriter(sink, 0L);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        asyncWriter.close();
+        binaryWriter.close();
+    }
+
+    private int[] nextSample() {
+        next = (next + 1) & (Samples.VARIANTS - 1);
+        return samples[next];
+    }
+
+    // synchronous csv as FileWriter.write did it before async mode
+    @Benchmark
+    public void csvStringJoin() throws IOException {
+        int[] values = nextSample();
+        String[] row = new String[channels + 1];
+        row[0] = LOCATION;
+        for (int i = 0; i < channels; i++) {
+            row[i + 1] = Integer.toString(values[i]);
+        }
+        sink.write(String.join(",", Arrays.asList(row)).getBytes());
+        sink.write("\n".getBytes());
+    }
+
+    // the row FileWriter.writeSample writes in async csv mode
+    @Benchmark
+    public void csvAsync() {
+        timestamp += periodNanos;
+        asyncWriter.writeSampleRow(timestamp, 47.4979937, 19.0403594, nextSample(), channels);
+    }
+
+    @Benchmark
+    public void binary() throws IOException {
+        timestamp += periodNanos;
+        binaryWriter.writeSample(timestamp, 47.4979937, 19.0403594, nextSample(), channels);
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
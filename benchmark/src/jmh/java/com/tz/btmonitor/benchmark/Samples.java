@@ -0,0 +1,63 @@
+package com.tz.btmonitor.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Reproducible device traffic for the benchmarks. A few different messages are cycled through
+ * so the branch predictor can't learn a single one.
+ */
+final class Samples {
+    static final int VARIANTS = 64;
+    private static final long SEED = 42;
+
+    private Samples() {
+    }
+
+    // random walks between the default channel limits, like the device sends them
+    static int[][] values(int channels) {
+        Random random = new Random(SEED);
+        int[][] samples = new int[VARIANTS][channels];
+        int[] current = new int[channels];
+        for (int c = 0; c < channels; c++) current[c] = 100 + random.nextInt(19900);
+        for (int i = 0; i < VARIANTS; i++) {
+            for (int c = 0; c < channels; c++) {
+                current[c] = Math.max(100, Math.min(20000, current[c] + random.nextInt(101) - 50));
+                samples[i][c] = current[c];
+            }
+        }
+        return samples;
+    }
+
+    // "VALUES: v0,v1,...", with the space the device sends and the legacy parser splits on
+    static String[] valuesMessages(int channels) {
+        int[][] values = values(channels);
+        String[] messages = new String[VARIANTS];
+        for (int i = 0; i < VARIANTS; i++) {
+            StringBuilder builder = new StringBuilder("VALUES: ");
+            for (int c = 0; c < channels; c++) {
+                if (c > 0) builder.append(',');
+                builder.append(values[i][c]);
+            }
+            messages[i] = builder.toString();
+        }
+        return messages;
+    }
+
+    static byte[][] valuesFrames(int channels) {
+        String[] messages = valuesMessages(channels);
+        byte[][] frames = new byte[VARIANTS][];
+        for (int i = 0; i < VARIANTS; i++) {
+            frames[i] = messages[i].getBytes(StandardCharsets.US_ASCII);
+        }
+        return frames;
+    }
+
+    static String configMessage(int channels) {
+        StringBuilder builder = new StringBuilder("CH=").append(channels);
+        for (int c = 0; c < channels; c++) {
+            builder.append(", D").append(c).append('=').append(c * 3 - 20);
+        }
+        return builder.toString();
+    }
+}
@@ -15,4 +15,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "Bt Monitor"
 include(":app")
+include(":benchmark")
  
\ No newline at end of file